@@ -0,0 +1,134 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Generates the files the benchmarks work on.  Content is half text, which deflates well, and
+ * half noise, which does not, so that neither extreme flatters the code being measured.  Shared
+ * by the benchmarks of each plugin.
+ */
+public class Fixtures {
+
+  private static final byte[] TEXT = "public static void main(String[] args) throws Exception {\n".getBytes();
+
+  /**
+   * @return A fresh, empty directory below <code>target/benchmark-work</code>.
+   */
+  public static File workDirectory(String name) {
+    File dir = new File("target/benchmark-work/" + name + "-" + System.nanoTime());
+    dir.mkdirs();
+    return dir;
+  }
+
+  public static void delete(File f) {
+    if (f == null)
+      return;
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children)
+        delete(child);
+    }
+    f.delete();
+  }
+
+  public static byte[] content(int size, long seed) {
+    byte[] b = new byte[size];
+    new Random(seed).nextBytes(b);
+    for (int i = 0; i < size / 2; i++)
+      b[i] = TEXT[i % TEXT.length];
+    return b;
+  }
+
+  public static void writeFile(File f, int size, long seed) throws IOException {
+    f.getParentFile().mkdirs();
+    OutputStream out = new FileOutputStream(f);
+    try {
+      // Written a megabyte at a time, so large files need not be held in memory
+      int chunk = 1 << 20;
+      for (int written = 0; written < size; written += chunk)
+        out.write(content(Math.min(chunk, size - written), seed + written));
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes a tree of directories, each holding the given number of files.
+   *
+   * @param width The number of subdirectories of each directory.
+   * @param depth The number of levels of subdirectories.
+   * @return The number of files written.
+   */
+  public static int writeTree(File dir, int width, int depth, int filesPerDirectory, int fileSize) throws IOException {
+    dir.mkdirs();
+    int files = 0;
+    for (int i = 0; i < filesPerDirectory; i++)
+      writeFile(new File(dir, "file" + i + (i % 3 == 0 ? ".class" : ".txt")), fileSize, i);
+    files += filesPerDirectory;
+    if (depth > 0) {
+      for (int i = 0; i < width; i++)
+        files += writeTree(new File(dir, "dir" + i), width, depth - 1, filesPerDirectory, fileSize);
+    }
+    return files;
+  }
+
+  /**
+   * Writes a jar of the given number of entries, spread over a few packages.
+   */
+  public static void writeJar(File f, int entries, int entrySize) throws IOException {
+    f.getParentFile().mkdirs();
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(f));
+    try {
+      out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+      out.write("Manifest-Version: 1.0\r\n\r\n".getBytes());
+      for (int i = 0; i < entries; i++) {
+        out.putNextEntry(new ZipEntry("com/example/p" + (i % 16) + "/Class" + i + ".class"));
+        out.write(content(entrySize, i));
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @return A log which drops the info the mojos log on every archive, keeping the measurements
+   *         readable.
+   */
+  public static Log quietLog() {
+    return new SystemStreamLog() {
+      public boolean isInfoEnabled() {
+        return false;
+      }
+
+      public void info(CharSequence content) {
+      }
+    };
+  }
+
+  /**
+   * Sets a field of a mojo which maven would otherwise inject.
+   */
+  public static void inject(Object mojo, String name, Object value) {
+    try {
+      Field f = mojo.getClass().getDeclaredField(name);
+      f.setAccessible(true);
+      f.set(mojo, value);
+    }
+    catch (Exception e) {
+      throw new IllegalStateException("Cannot set " + name, e);
+    }
+  }
+
+}
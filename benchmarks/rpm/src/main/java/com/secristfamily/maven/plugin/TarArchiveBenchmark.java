@@ -0,0 +1,66 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the source tarball rpmbuild is given from a generated staging directory with
+ * {@link RPMMojo#createTARArchive}, compressed as the plugin does by default and not at all.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TarArchiveBenchmark {
+
+  /** The width of the tree: 4 gives 84 files, 10 gives 444 and 24 gives 2400. */
+  @Param({ "4", "10", "24" })
+  public int width;
+
+  @Param({ "gzip", "none" })
+  public String sourceCompression;
+
+  private File work;
+  private File staged;
+  private File tgz;
+  private RPMMojo mojo;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    work = Fixtures.workDirectory("tar");
+    staged = new File(work, "staged");
+    Fixtures.writeTree(staged, width, 2, 4, 16384);
+    tgz = new File(work, "sources.tgz");
+    mojo = new RPMMojo();
+    mojo.setLog(Fixtures.quietLog());
+    Fixtures.inject(mojo, "sourceCompression", sourceCompression);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Fixtures.delete(work);
+  }
+
+  @Benchmark
+  public long createTARArchive() throws Exception {
+    mojo.createTARArchive(tgz, staged, "component/");
+    return tgz.length();
+  }
+
+}
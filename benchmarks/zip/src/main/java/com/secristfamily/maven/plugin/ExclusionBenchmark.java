@@ -0,0 +1,99 @@
+package com.secristfamily.maven.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Deciding whether each of ten thousand paths is excluded, as the mojos do for every file they
+ * stage, with a growing list of <code>excludeRegexList</code> patterns: through the compiled
+ * {@link PathFilter}, and by calling <code>String.matches</code> on the file name for each pattern
+ * as the old <code>Exclusion.exclude</code> did.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ExclusionBenchmark {
+
+  private static final String[] EXTENSIONS = { "java", "class", "html", "css", "js", "png", "xml",
+      "properties", "txt", "jar" };
+
+  @Param({ "1", "10", "60", "250" })
+  public int patterns;
+
+  private List<String> regexes;
+  private PathFilter filter;
+  private String[] paths;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    // Extensions, names, directories and a few true regular expressions
+    regexes = new ArrayList<String>();
+    for (int i = 0; regexes.size() < patterns; i++) {
+      switch (i % 4) {
+        case 0: regexes.add(".*\\.ext" + i); break;
+        case 1: regexes.add("name" + i + "\\.txt"); break;
+        case 2: regexes.add("dir" + i); break;
+        default: regexes.add("gen[0-9]+_" + i + "\\..*"); break;
+      }
+    }
+    filter = PathFilter.compile(regexes, null);
+
+    Random random = new Random(1);
+    paths = new String[10000];
+    for (int i = 0; i < paths.length; i++) {
+      StringBuilder sb = new StringBuilder("web");
+      int depth = 1 + random.nextInt(5);
+      for (int d = 0; d < depth; d++)
+        sb.append("/segment").append(random.nextInt(20));
+      if (i % 10 == 0)
+        sb.append("/name").append(4 * random.nextInt(Math.max(1, patterns / 4)) + 1).append(".txt");
+      else
+        sb.append("/file").append(i).append('.').append(EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+      paths[i] = sb.toString();
+    }
+  }
+
+  @Benchmark
+  public int compiled() {
+    int excluded = 0;
+    for (String path : paths) {
+      if (filter.excludes(path, false))
+        excluded++;
+    }
+    return excluded;
+  }
+
+  @Benchmark
+  public int stringMatches() {
+    int excluded = 0;
+    for (String path : paths) {
+      String name = path.substring(path.lastIndexOf('/') + 1);
+      for (String regex : regexes) {
+        if (name.matches(regex)) {
+          excluded++;
+          break;
+        }
+      }
+    }
+    return excluded;
+  }
+
+}
@@ -0,0 +1,66 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Exploding a jar, as the zip mojo does when merging the project's own dependencies, with
+ * {@link FileUtils#explodeZip}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ExplodeZipBenchmark {
+
+  @Param({ "100", "2000", "20000" })
+  public int entries;
+
+  @Param({ "2048" })
+  public int entrySize;
+
+  private File work;
+  private File jar;
+  private File exploded;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    work = Fixtures.workDirectory("explode");
+    jar = new File(work, "synthetic.jar");
+    Fixtures.writeJar(jar, entries, entrySize);
+    exploded = new File(work, "exploded");
+  }
+
+  @Setup(Level.Invocation)
+  public void clean() {
+    Fixtures.delete(exploded);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Fixtures.delete(work);
+  }
+
+  @Benchmark
+  public File explodeZip() throws Exception {
+    FileUtils.explodeZip(jar, exploded);
+    return exploded;
+  }
+
+}
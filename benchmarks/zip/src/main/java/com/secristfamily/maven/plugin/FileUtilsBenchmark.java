@@ -0,0 +1,77 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copying a file, as the mojos do when staging dependencies, through
+ * {@link FileUtils#copyInputStream} and through {@link FileUtils#copyFile}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FileUtilsBenchmark {
+
+  @Param({ "4096", "1048576", "67108864" })
+  public int size;
+
+  private File work;
+  private File source;
+  private File target;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    work = Fixtures.workDirectory("copy");
+    source = new File(work, "source.jar");
+    Fixtures.writeFile(source, size, 1);
+    target = new File(work, "target.jar");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Fixtures.delete(work);
+  }
+
+  @Benchmark
+  public long copyInputStream() throws Exception {
+    InputStream in = new FileInputStream(source);
+    OutputStream out = new FileOutputStream(target);
+    try {
+      FileUtils.copyInputStream(in, out);
+    }
+    finally {
+      in.close();
+      out.close();
+    }
+    return target.length();
+  }
+
+  @Benchmark
+  public long copyFile() throws Exception {
+    target.delete();
+    FileUtils.copyFile(source, target);
+    return target.length();
+  }
+
+}
@@ -0,0 +1,88 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the executable jar from a generated classes directory with
+ * {@link ZipMojo#createMainJarArchive}, end to end through the maven archiver.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MainJarArchiveBenchmark {
+
+  /** The width of the tree: 4 gives 84 files, 10 gives 444 and 24 gives 2400. */
+  @Param({ "4", "10", "24" })
+  public int width;
+
+  private File work;
+  private File classes;
+  private File jar;
+  private ZipMojo mojo;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    work = Fixtures.workDirectory("main-jar");
+    classes = new File(work, "classes");
+    Fixtures.writeTree(classes, width, 2, 4, 4096);
+    jar = new File(work, "main.jar");
+
+    Model model = new Model();
+    model.setGroupId("com.example");
+    model.setArtifactId("benchmark");
+    model.setVersion("1.0");
+    Build build = new Build();
+    build.setDirectory(work.getAbsolutePath());
+    model.setBuild(build);
+    // The archiver adds the pom and pom.properties to the jar, as it does in a real build
+    File pom = new File(work, "pom.xml");
+    Fixtures.writeFile(pom, 2048, 0);
+    MavenProject project = new MavenProject(model);
+    project.setFile(pom);
+    project.setArtifact(new DefaultArtifact("com.example", "benchmark", VersionRange.createFromVersion("1.0"), "compile",
+        "jar", null, new DefaultArtifactHandler("jar")));
+    mojo = new ZipMojo();
+    mojo.setLog(Fixtures.quietLog());
+    Fixtures.inject(mojo, "project", project);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Fixtures.delete(work);
+  }
+
+  @Benchmark
+  public long createMainJarArchive() throws Exception {
+    jar.delete();
+    // A new archiver each time, as maven gives each execution its own
+    Fixtures.inject(mojo, "jarArchiver", new JarArchiver());
+    mojo.createMainJarArchive(jar, classes);
+    return jar.length();
+  }
+
+}
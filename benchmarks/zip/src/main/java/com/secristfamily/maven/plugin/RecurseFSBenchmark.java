@@ -0,0 +1,64 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Listing a tree with {@link FileUtils#recurseFS}: a wide, shallow tree (a few levels of many
+ * directories) and a narrow, deep one (a dozen levels of two), each of some thousands of files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RecurseFSBenchmark {
+
+  @Param({ "wide", "deep" })
+  public String shape;
+
+  private File work;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    work = Fixtures.workDirectory("recurse-" + shape);
+    if ("wide".equals(shape))
+      Fixtures.writeTree(work, 40, 2, 4, 16);
+    else
+      Fixtures.writeTree(work, 2, 11, 2, 16);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Fixtures.delete(work);
+  }
+
+  @Benchmark
+  public Set<File> files() throws IOException {
+    return FileUtils.recurseFS(work);
+  }
+
+  @Benchmark
+  public Set<File> filesAndDirectories() throws IOException {
+    return FileUtils.recurseFS(true, work, new HashSet<File>());
+  }
+
+}
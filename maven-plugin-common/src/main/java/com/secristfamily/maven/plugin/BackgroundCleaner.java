@@ -0,0 +1,167 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes work directories in the background, so that a build does not wait while a tree of many
+ * thousands of files is removed.
+ * <p>
+ * The directory is first renamed to a tombstone beside it
+ * (<code>.tombstone-&lt;name&gt;-&lt;n&gt;</code>).  That is instant, and the name is free for the
+ * next build at once.  The tombstone is then deleted by fork/join tasks on a pool of daemon
+ * threads, its subdirectories in parallel.  A shutdown hook waits for deletions still running
+ * before the JVM exits.  Tombstones left by a build killed part way through are found by
+ * {@link #sweep} and deleted in the same way.  Symbolic links are deleted, never followed.
+ */
+public class BackgroundCleaner {
+
+  /** The prefix of the name of a tombstone. */
+  public static final String TOMBSTONE = ".tombstone-";
+
+  /** How long the JVM is held up at exit for deletions to finish. */
+  private static final long EXIT_WAIT = TimeUnit.MINUTES.toMillis(2);
+
+  private static final ForkJoinPool POOL = new ForkJoinPool();
+  private static final Set<File> PENDING = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+  private static final AtomicLong COUNT = new AtomicLong();
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread("background-cleaner-exit") {
+      public void run() {
+        await(EXIT_WAIT);
+      }
+    });
+  }
+
+  private BackgroundCleaner() {
+  }
+
+  /**
+   * Renames a directory to a tombstone and deletes it in the background.  When it cannot be
+   * renamed (on Windows, while something has a file in it open, say) it is deleted before this
+   * returns, as far as it can be.
+   *
+   * @param directory The directory, which need not exist.
+   * @return The tombstone being deleted, or null if there was nothing left to delete.
+   */
+  public static File delete(File directory) {
+    if (!directory.exists())
+      return null;
+    File tombstone = new File(directory.getAbsoluteFile().getParentFile(),
+        TOMBSTONE + directory.getName() + "-" + COUNT.incrementAndGet() + "-" + System.nanoTime());
+    try {
+      Files.move(directory.toPath(), tombstone.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException e) {
+      POOL.invoke(new Deletion(directory));
+      return null;
+    }
+    schedule(tombstone);
+    return tombstone;
+  }
+
+  /**
+   * Deletes, in the background, the tombstones a directory holds which are not already being
+   * deleted.
+   *
+   * @param directory The directory, which need not exist.
+   * @return The number of tombstones found.
+   */
+  public static int sweep(File directory) {
+    File[] children = directory.listFiles();
+    if (children == null)
+      return 0;
+    int found = 0;
+    for (File f : children) {
+      if (f.getName().startsWith(TOMBSTONE)) {
+        schedule(f);
+        found++;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Waits for the deletions under way.
+   *
+   * @param timeoutMillis The longest to wait.
+   * @return true if they have all finished.
+   */
+  public static boolean await(long timeoutMillis) {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    synchronized (PENDING) {
+      try {
+        while (!PENDING.isEmpty()) {
+          long remaining = deadline - System.currentTimeMillis();
+          if (remaining <= 0)
+            return false;
+          PENDING.wait(remaining);
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void schedule(final File tombstone) {
+    final File key = tombstone.getAbsoluteFile();
+    if (!PENDING.add(key))
+      return;
+    POOL.execute(new RecursiveAction() {
+      protected void compute() {
+        try {
+          new Deletion(key).compute();
+        }
+        finally {
+          synchronized (PENDING) {
+            PENDING.remove(key);
+            PENDING.notifyAll();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Deletes a directory, its subdirectories in parallel.  Whatever cannot be deleted is left,
+   * for the next sweep.
+   */
+  private static class Deletion extends RecursiveAction {
+    private final File directory;
+
+    Deletion(File directory) {
+      this.directory = directory;
+    }
+
+    protected void compute() {
+      File[] children = directory.listFiles();
+      if (children != null) {
+        List<Deletion> subdirectories = new ArrayList<Deletion>();
+        for (File f : children) {
+          if (f.isDirectory() && !Files.isSymbolicLink(f.toPath()))
+            subdirectories.add(new Deletion(f));
+          else
+            f.delete();
+        }
+        invokeAll(subdirectories);
+      }
+      directory.delete();
+    }
+  }
+
+}
@@ -0,0 +1,167 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The MD5, SHA-256 and SHA-512 digests of an artifact, taken from its bytes as they are written
+ * (or copied) so that nothing has to read the artifact again to checksum it.  The SHA-256 and
+ * SHA-512 digests are written beside the artifact as <code>.sha256</code> and
+ * <code>.sha512</code> files, in the format <code>sha256sum</code> and <code>sha512sum</code>
+ * check.
+ */
+public class Checksums {
+
+  /** The extensions of the files written beside the artifact. */
+  public static final String[] SIDECARS = { "sha256", "sha512" };
+
+  private final MessageDigest md5 = digest("MD5");
+  private final MessageDigest sha256 = digest("SHA-256");
+  private final MessageDigest sha512 = digest("SHA-512");
+  private String md5Hex;
+  private String sha256Hex;
+  private String sha512Hex;
+
+  /**
+   * @return A stream which digests what is written through it.
+   */
+  public OutputStream wrap(OutputStream out) {
+    return new FilterOutputStream(out) {
+      public void write(int b) throws IOException {
+        out.write(b);
+        update(new byte[] { (byte) b }, 0, 1);
+      }
+
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        update(b, off, len);
+      }
+    };
+  }
+
+  public synchronized void update(byte[] b, int off, int len) {
+    if (md5Hex != null)
+      throw new IllegalStateException("The digests are already complete");
+    md5.update(b, off, len);
+    sha256.update(b, off, len);
+    sha512.update(b, off, len);
+  }
+
+  /**
+   * Digests a file which was written some other way.
+   */
+  public void digest(File f) throws IOException {
+    InputStream in = new FileInputStream(f);
+    try {
+      byte[] buffer = new byte[(1 << 10) * 64];
+      int count;
+      while ((count = in.read(buffer)) != -1)
+        update(buffer, 0, count);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Copies a file, digesting it on the way, and gives the copy the modification time of the
+   * original.
+   */
+  public void copy(File from, File to) throws IOException {
+    InputStream in = new FileInputStream(from);
+    try {
+      OutputStream out = new FileOutputStream(to);
+      try {
+        byte[] buffer = new byte[(1 << 10) * 64];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+          out.write(buffer, 0, count);
+          update(buffer, 0, count);
+        }
+      }
+      finally {
+        out.close();
+      }
+    }
+    finally {
+      in.close();
+    }
+    to.setLastModified(from.lastModified());
+  }
+
+  public synchronized String getMD5() {
+    complete();
+    return md5Hex;
+  }
+
+  public synchronized String getSHA256() {
+    complete();
+    return sha256Hex;
+  }
+
+  public synchronized String getSHA512() {
+    complete();
+    return sha512Hex;
+  }
+
+  private void complete() {
+    if (md5Hex != null)
+      return;
+    md5Hex = hex(md5.digest());
+    sha256Hex = hex(sha256.digest());
+    sha512Hex = hex(sha512.digest());
+  }
+
+  /**
+   * Writes the <code>.sha256</code> and <code>.sha512</code> files of an artifact.
+   *
+   * @param artifact The artifact these are the digests of.
+   */
+  public void writeSidecars(File artifact) throws IOException {
+    write(sidecar(artifact, SIDECARS[0]), getSHA256() + "  " + artifact.getName() + "\n");
+    write(sidecar(artifact, SIDECARS[1]), getSHA512() + "  " + artifact.getName() + "\n");
+  }
+
+  /**
+   * @return The file beside an artifact with the given extension, <code>sha256</code> say.
+   */
+  public static File sidecar(File artifact, String extension) {
+    return new File(artifact.getPath() + "." + extension);
+  }
+
+  private static void write(File f, String content) throws IOException {
+    Writer out = new OutputStreamWriter(new FileOutputStream(f), "US-ASCII");
+    try {
+      out.write(content);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static MessageDigest digest(String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes)
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    return sb.toString();
+  }
+
+}
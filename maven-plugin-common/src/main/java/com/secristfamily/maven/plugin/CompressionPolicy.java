@@ -0,0 +1,312 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Decides, entry by entry, whether content is worth deflating.  Archives and media which are
+ * already compressed (dependency jars above all) gain next to nothing from a second deflate, so
+ * they are stored as they are.
+ * <p>
+ * An entry is stored when its extension is listed in <code>storeExtensions</code>, its path
+ * matches one of the <code>store</code> patterns (Ant style), or it is smaller than
+ * <code>storeBelow</code> bytes.  In <code>adaptive</code> mode every other entry has a sample
+ * deflated first and is stored if the sample does not shrink below <code>adaptiveRatio</code>.
+ * <p>
+ * Configured within the plugin configuration as:
+ * <pre>
+ * &lt;compression&gt;
+ *   &lt;level&gt;6&lt;/level&gt;
+ *   &lt;storeExtensions&gt;
+ *     &lt;storeExtension&gt;jar&lt;/storeExtension&gt;
+ *   &lt;/storeExtensions&gt;
+ *   &lt;store&gt;
+ *     &lt;pattern&gt;**&#47;images/**&lt;/pattern&gt;
+ *   &lt;/store&gt;
+ *   &lt;storeBelow&gt;64&lt;/storeBelow&gt;
+ *   &lt;adaptive&gt;true&lt;/adaptive&gt;
+ * &lt;/compression&gt;
+ * </pre>
+ */
+public class CompressionPolicy {
+
+  /** The entry is written without compression. */
+  public static final int STORE = 0;
+
+  /** The entry is deflated. */
+  public static final int DEFLATE = 1;
+
+  /** A sample of the entry must be deflated to decide; see {@link #isWorthDeflating}. */
+  public static final int SAMPLE = 2;
+
+  /** The number of leading bytes deflated to judge an entry in adaptive mode. */
+  public static final int SAMPLE_SIZE = (1 << 10) * 64;
+
+  private static final String[] DEFAULT_STORE_EXTENSIONS = new String[] {
+    "jar", "war", "ear", "zip", "gz", "tgz", "bz2", "xz", "7z", "rpm",
+    "png", "jpg", "jpeg", "gif", "ico", "mp3", "mp4", "woff", "woff2" };
+
+  /**
+   * Deflate cost assumed, in nanoseconds per byte, when too little was deflated to measure it.
+   */
+  private static final double DEFAULT_DEFLATE_COST = 15.0;
+
+  /** The least input deflated for the measured cost to be trusted. */
+  private static final long MIN_MEASURED_BYTES = (1 << 20);
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  /**
+   * The deflate level, 0-9, or -1 for the zlib default.
+   *
+   * @parameter default-value="-1"
+   */
+  private int level = Deflater.DEFAULT_COMPRESSION;
+
+  /**
+   * File extensions (without the dot) which are stored rather than deflated.
+   *
+   * @parameter
+   */
+  private List<String> storeExtensions = Arrays.asList(DEFAULT_STORE_EXTENSIONS);
+
+  /**
+   * Ant style patterns, matched against the path within the archive, of entries to store.
+   *
+   * @parameter
+   */
+  private List<String> store;
+
+  /**
+   * Entries smaller than this many bytes are stored.
+   *
+   * @parameter default-value="0"
+   */
+  private long storeBelow = 0;
+
+  /**
+   * Whether to deflate a sample of each remaining entry and store the entry when the sample
+   * compresses poorly.
+   *
+   * @parameter default-value="false"
+   */
+  private boolean adaptive = false;
+
+  /**
+   * In adaptive mode, entries whose sample deflates to more than this fraction of its size are
+   * stored.
+   *
+   * @parameter default-value="0.9"
+   */
+  private float adaptiveRatio = 0.9f;
+
+  private final Stats stats = new Stats();
+
+  public int getLevel() {
+    return level;
+  }
+
+  public void setLevel(int level) {
+    this.level = level;
+  }
+
+  public void setStoreExtensions(List<String> storeExtensions) {
+    this.storeExtensions = storeExtensions;
+  }
+
+  public void setStore(List<String> store) {
+    this.store = store;
+  }
+
+  public void setStoreBelow(long storeBelow) {
+    this.storeBelow = storeBelow;
+  }
+
+  public void setAdaptive(boolean adaptive) {
+    this.adaptive = adaptive;
+  }
+
+  public void setAdaptiveRatio(float adaptiveRatio) {
+    this.adaptiveRatio = adaptiveRatio;
+  }
+
+  public Stats getStats() {
+    return stats;
+  }
+
+  /**
+   * Chooses how an entry is to be written.
+   *
+   * @param path The path of the entry within the archive.
+   * @param size The uncompressed size of the entry.
+   * @return {@link #STORE}, {@link #DEFLATE} or {@link #SAMPLE}.
+   */
+  public int choose(String path, long size) {
+    if (level == Deflater.NO_COMPRESSION || size < storeBelow)
+      return STORE;
+    if (storeExtensions != null) {
+      String name = path.substring(path.lastIndexOf('/') + 1);
+      int dot = name.lastIndexOf('.');
+      if (dot != -1) {
+        String ext = name.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+        for (String candidate : storeExtensions) {
+          if (ext.equals(candidate.toLowerCase(Locale.ENGLISH)))
+            return STORE;
+        }
+      }
+    }
+    if (store != null) {
+      String osPath = path.replace('/', File.separatorChar);
+      for (String pattern : store) {
+        if (SelectorUtils.matchPath(pattern.replace('/', File.separatorChar), osPath, true))
+          return STORE;
+      }
+    }
+    return adaptive ? SAMPLE : DEFLATE;
+  }
+
+  /**
+   * Deflates a sample of an entry to see whether the whole entry is worth deflating.
+   *
+   * @param sample The leading bytes of the entry.
+   * @param len The number of valid bytes in the sample.
+   * @return true if the sample compressed well enough.
+   */
+  public boolean isWorthDeflating(byte[] sample, int len) {
+    if (len == 0)
+      return false;
+    long start = cpuTime();
+    Deflater def = new Deflater(level, true);
+    try {
+      def.setInput(sample, 0, len);
+      def.finish();
+      byte[] out = new byte[(1 << 10) * 8];
+      long compressed = 0;
+      while (!def.finished()) {
+        compressed += def.deflate(out, 0, out.length);
+      }
+      return compressed < len * adaptiveRatio;
+    }
+    finally {
+      def.end();
+      stats.sampleCpu.addAndGet(cpuTime() - start);
+    }
+  }
+
+  /**
+   * @return The CPU time consumed by the current thread, in nanoseconds, or wall time where the
+   *         JVM does not measure CPU time.
+   */
+  public static long cpuTime() {
+    if (THREADS.isCurrentThreadCpuTimeSupported())
+      return THREADS.getCurrentThreadCpuTime();
+    return System.nanoTime();
+  }
+
+  /**
+   * @return The configuration of the policy.
+   */
+  public String toString() {
+    return "level=" + level + ", storeExtensions=" + storeExtensions + ", store=" + store + ", storeBelow="
+        + storeBelow + ", adaptive=" + adaptive + ", adaptiveRatio=" + adaptiveRatio;
+  }
+
+  /**
+   * Counters describing what the policy decided and what it saved.  Safe for use from several
+   * threads.
+   */
+  public static class Stats {
+    private final AtomicLong storedEntries = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong deflatedEntries = new AtomicLong();
+    private final AtomicLong deflatedBytes = new AtomicLong();
+    private final AtomicLong deflatedOutput = new AtomicLong();
+    private final AtomicLong deflateCpu = new AtomicLong();
+    private final AtomicLong sampleCpu = new AtomicLong();
+
+    /**
+     * Records an entry the policy chose to store.
+     */
+    public void stored(long bytes) {
+      storedEntries.incrementAndGet();
+      storedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Records a deflated entry.
+     *
+     * @param in The uncompressed size.
+     * @param out The compressed size.
+     * @param cpuNanos The CPU time spent deflating.
+     */
+    public void deflated(long in, long out, long cpuNanos) {
+      deflatedEntries.incrementAndGet();
+      deflatedBytes.addAndGet(in);
+      deflatedOutput.addAndGet(out);
+      deflateCpu.addAndGet(cpuNanos);
+    }
+
+    /**
+     * Records output and CPU time of deflated entries which could only be measured together,
+     * as when a stream is deflated block by block on other threads.
+     *
+     * @param out The compressed size.
+     * @param cpuNanos The CPU time spent deflating.
+     */
+    public void deflated(long out, long cpuNanos) {
+      deflatedOutput.addAndGet(out);
+      deflateCpu.addAndGet(cpuNanos);
+    }
+
+    public long getStoredBytes() {
+      return storedBytes.get();
+    }
+
+    public long getStoredEntries() {
+      return storedEntries.get();
+    }
+
+    public long getDeflatedBytes() {
+      return deflatedBytes.get();
+    }
+
+    public long getDeflateCpu() {
+      return deflateCpu.get() + sampleCpu.get();
+    }
+
+    /**
+     * @return The CPU time which deflating the stored entries would have taken, estimated from
+     *         the rate measured on the entries which were deflated, less the time spent on
+     *         samples.
+     */
+    public long getEstimatedCpuSaved() {
+      long bytes = deflatedBytes.get();
+      double cost = bytes < MIN_MEASURED_BYTES ? DEFAULT_DEFLATE_COST : (double) deflateCpu.get() / bytes;
+      return (long) (storedBytes.get() * cost) - sampleCpu.get();
+    }
+
+    public String toString() {
+      return "deflated " + deflatedEntries.get() + " entries (" + kb(deflatedBytes.get()) + " -> "
+          + kb(deflatedOutput.get()) + ", " + ms(getDeflateCpu()) + " CPU); stored "
+          + storedEntries.get() + " entries (" + kb(storedBytes.get()) + ") without deflating, saving ~"
+          + ms(Math.max(0, getEstimatedCpuSaved())) + " CPU";
+    }
+
+    private static String kb(long bytes) {
+      return (bytes >> 10) + " KB";
+    }
+
+    private static String ms(long nanos) {
+      return (nanos / 1000000) + " ms";
+    }
+  }
+
+}
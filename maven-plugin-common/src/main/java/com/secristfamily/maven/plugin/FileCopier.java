@@ -0,0 +1,124 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies files into a staging area without passing their content through the Java heap.
+ * <p>
+ * Content is moved with {@link FileChannel#transferTo}, which the JDK maps onto
+ * <code>sendfile</code> or <code>copy_file_range</code> where the operating system has them, so
+ * the bytes never leave the kernel.  The modification time and permissions of the source are
+ * carried over, so the staged tree looks the same on every build.
+ * <p>
+ * When linking is enabled, a file is hard linked instead of copied.  That costs no I/O at all,
+ * but the staged file then <em>is</em> the source, so linking is only safe for inputs nothing
+ * will write to, such as the jars of the local repository.  Where a link cannot be made (the
+ * staging area is on another file system, for instance) the file is copied.
+ */
+public class FileCopier {
+
+  private final boolean link;
+  private final AtomicLong filesCopied = new AtomicLong();
+  private final AtomicLong bytesCopied = new AtomicLong();
+  private final AtomicLong filesLinked = new AtomicLong();
+  private final AtomicLong bytesLinked = new AtomicLong();
+
+  /**
+   * @param link Whether to hard link files rather than copy them.
+   */
+  public FileCopier(boolean link) {
+    this.link = link;
+  }
+
+  public boolean isLink() {
+    return link;
+  }
+
+  /**
+   * Copies (or links) a single file, replacing the destination if it exists.
+   *
+   * @param in The source file.
+   * @param out The destination file.
+   * @throws IOException if the file cannot be copied.
+   */
+  public void copy(File in, File out) throws IOException {
+    Path source = in.toPath();
+    Path target = out.toPath();
+    long length = in.length();
+    if (link) {
+      try {
+        Files.deleteIfExists(target);
+        Files.createLink(target, source);
+        filesLinked.incrementAndGet();
+        bytesLinked.addAndGet(length);
+        return;
+      }
+      catch (FileSystemException e) { ; }
+      catch (UnsupportedOperationException e) { ; }
+    }
+
+    FileInputStream fis = new FileInputStream(in);
+    try {
+      FileOutputStream fos = new FileOutputStream(out);
+      try {
+        FileChannel src = fis.getChannel();
+        FileChannel dest = fos.getChannel();
+        long size = src.size();
+        long position = 0;
+        while (position < size) {
+          long count = src.transferTo(position, size - position, dest);
+          if (count <= 0)
+            throw new IOException("Unable to transfer " + in.getPath() + " at offset " + position);
+          position += count;
+        }
+        filesCopied.incrementAndGet();
+        bytesCopied.addAndGet(position);
+      }
+      finally {
+        fos.close();
+      }
+    }
+    finally {
+      fis.close();
+    }
+    preserveAttributes(source, target);
+  }
+
+  private static void preserveAttributes(Path source, Path target) throws IOException {
+    try {
+      Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source));
+    }
+    catch (UnsupportedOperationException e) { ; }
+    Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+  }
+
+  public long getFilesCopied() {
+    return filesCopied.get();
+  }
+
+  public long getBytesCopied() {
+    return bytesCopied.get();
+  }
+
+  public long getFilesLinked() {
+    return filesLinked.get();
+  }
+
+  public long getBytesLinked() {
+    return bytesLinked.get();
+  }
+
+  public String toString() {
+    return filesCopied.get() + " files copied (" + (bytesCopied.get() >> 10) + " KB), " + filesLinked.get()
+        + " files linked (" + (bytesLinked.get() >> 10) + " KB)";
+  }
+
+}
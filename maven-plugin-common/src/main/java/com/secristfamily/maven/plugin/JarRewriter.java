@@ -0,0 +1,353 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.archiver.MavenArchiveConfiguration;
+import org.apache.maven.archiver.MavenArchiver;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.archiver.jar.Manifest;
+
+/**
+ * Rewrites a JAR without decompressing it.  Generated entries (a fresh manifest, for instance)
+ * are written first, then every kept entry of the source is copied across with its compressed
+ * bytes untouched.  Entries below an excluded prefix are dropped on the fly, so nothing is ever
+ * extracted to disk.
+ * <p>
+ * Given a source date, the rewritten JAR is the same byte for byte whenever its content is: the
+ * entries are written in order of name, with the source date and normal permissions, and the
+ * manifest attributes which describe the build rather than the JAR (<code>Built-By</code>,
+ * <code>Build-Jdk</code> and the like) and the date <code>pom.properties</code> is stamped with
+ * are left out.
+ */
+public class JarRewriter {
+
+  private final Map<String, byte[]> generated = new LinkedHashMap<String, byte[]>();
+  private final List<String> excludedPrefixes = new ArrayList<String>();
+  private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+  /** The manifest attributes which differ from one build of the same content to the next. */
+  static final List<String> VOLATILE_ATTRIBUTES = Arrays.asList("Built-By", "Build-Jdk", "Build-Jdk-Spec",
+      "Created-By", "Build-Time", "Build-Date", "Bnd-LastModified");
+
+  private long time = System.currentTimeMillis();
+  private long sourceDate = -1;
+
+  /**
+   * Creates a rewriter which replaces the <code>META-INF</code> directory of a JAR with the one
+   * {@link MavenArchiver} would generate for the project: a fresh manifest and, unless disabled,
+   * the maven descriptor.
+   *
+   * @param session The session the build runs in.
+   * @param project The project the JAR belongs to.
+   * @param archive The archive configuration of the mojo.
+   * @return The rewriter.
+   * @throws Exception if the manifest cannot be generated.
+   */
+  public static JarRewriter forProject(MavenSession session, MavenProject project, MavenArchiveConfiguration archive)
+      throws Exception {
+    return forProject(session, project, archive, -1);
+  }
+
+  /**
+   * Creates a rewriter which replaces the <code>META-INF</code> directory of a JAR, as above.
+   *
+   * @param sourceDate The source date of a reproducible build, or -1; see {@link #setSourceDate}.
+   */
+  public static JarRewriter forProject(MavenSession session, MavenProject project, MavenArchiveConfiguration archive,
+      long sourceDate) throws Exception {
+    JarRewriter rewriter = new JarRewriter();
+    rewriter.exclude("META-INF/");
+    rewriter.setSourceDate(sourceDate);
+
+    Manifest manifest = new MavenArchiver().getManifest(session, project, archive);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintWriter writer = new PrintWriter(new OutputStreamWriter(bytes, "UTF-8"));
+    manifest.write(writer);
+    writer.close();
+    rewriter.addEntry(MANIFEST, sourceDate >= 0 ? withoutVolatileAttributes(bytes.toByteArray()) : bytes.toByteArray());
+
+    if (archive.isAddMavenDescriptor()) {
+      String base = "META-INF/maven/" + project.getGroupId() + "/" + project.getArtifactId() + "/";
+      if (project.getFile() != null && project.getFile().isFile())
+        rewriter.addEntry(base + "pom.xml", Files.readAllBytes(project.getFile().toPath()));
+
+      Properties p = new Properties();
+      p.setProperty("groupId", project.getGroupId());
+      p.setProperty("artifactId", project.getArtifactId());
+      p.setProperty("version", project.getArtifact() != null ? project.getArtifact().getVersion() : project.getVersion());
+      bytes = new ByteArrayOutputStream();
+      p.store(bytes, "Generated by Maven");
+      rewriter.addEntry(base + "pom.properties", sourceDate >= 0 ? withoutDate(bytes.toByteArray()) : bytes.toByteArray());
+    }
+    return rewriter;
+  }
+
+  /**
+   * Adds an entry to write ahead of the copied entries.  Its parent directories are added too.
+   *
+   * @param name The name of the entry.
+   * @param content The uncompressed content.
+   */
+  public void addEntry(String name, byte[] content) {
+    generated.put(name, content);
+  }
+
+  /**
+   * Drops every entry of the source whose name starts with the prefix.
+   *
+   * @param prefix For example <code>META-INF/</code>.
+   */
+  public void exclude(String prefix) {
+    excludedPrefixes.add(prefix);
+  }
+
+  /**
+   * Sets the modification time given to generated entries.
+   */
+  public void setTime(long time) {
+    this.time = time;
+  }
+
+  /**
+   * Makes the rewritten JAR depend on nothing but its content, as described above.
+   *
+   * @param sourceDate The time given to every entry, or -1 to keep their times.
+   */
+  public void setSourceDate(long sourceDate) {
+    this.sourceDate = sourceDate;
+    if (sourceDate >= 0)
+      time = sourceDate;
+  }
+
+  /**
+   * Rewrites a JAR in place so that it is the same byte for byte whenever its content is, as
+   * described above.  Meant for JARs written by the plexus archiver, whose entries carry the
+   * times of their files and follow the order of the directory listing.
+   *
+   * @param jar The JAR to rewrite.
+   * @param sourceDate The time given to every entry.
+   * @return The number of entries carried over unchanged.
+   * @throws IOException if the JAR cannot be rewritten; it is then left as it was.
+   */
+  public static int normalize(File jar, long sourceDate) throws IOException {
+    JarRewriter rewriter = new JarRewriter();
+    rewriter.setSourceDate(sourceDate);
+    List<String> properties = new ArrayList<String>();
+    ZipFile zip = new ZipFile(jar);
+    try {
+      ZipEntry manifest = zip.getEntry(MANIFEST);
+      if (manifest != null)
+        rewriter.addEntry(MANIFEST, withoutVolatileAttributes(read(zip, manifest)));
+      for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+        String name = e.nextElement().getName();
+        if (name.startsWith("META-INF/maven/") && name.endsWith("/pom.properties"))
+          properties.add(name);
+      }
+      Collections.sort(properties);
+      for (String name : properties)
+        rewriter.addEntry(name, withoutDate(read(zip, zip.getEntry(name))));
+    }
+    finally {
+      zip.close();
+    }
+    return rewriter.rewrite(jar);
+  }
+
+  /**
+   * Removes the {@link #VOLATILE_ATTRIBUTES} from a manifest, with their continuation lines.
+   */
+  static byte[] withoutVolatileAttributes(byte[] manifest) throws IOException {
+    String text = new String(manifest, "UTF-8");
+    StringBuilder sb = new StringBuilder(text.length());
+    boolean dropping = false;
+    int start = 0;
+    while (start < text.length()) {
+      int end = text.indexOf('\n', start);
+      end = end == -1 ? text.length() : end + 1;
+      String line = text.substring(start, end);
+      if (!line.startsWith(" ")) {
+        int colon = line.indexOf(':');
+        dropping = colon != -1 && VOLATILE_ATTRIBUTES.contains(line.substring(0, colon));
+      }
+      if (!dropping)
+        sb.append(line);
+      start = end;
+    }
+    return sb.toString().getBytes("UTF-8");
+  }
+
+  /**
+   * Removes the date {@link Properties#store} writes as the last line of its leading comment.
+   */
+  static byte[] withoutDate(byte[] properties) throws IOException {
+    String text = new String(properties, "ISO-8859-1");
+    int last = -1;
+    int end = 0;
+    while (end < text.length() && text.charAt(end) == '#') {
+      last = end;
+      int newline = text.indexOf('\n', end);
+      end = newline == -1 ? text.length() : newline + 1;
+    }
+    if (last == -1)
+      return properties;
+    return (text.substring(0, last) + text.substring(end)).getBytes("ISO-8859-1");
+  }
+
+  private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+    InputStream in = zip.getInputStream(entry);
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[(1 << 10) * 8];
+      int count;
+      while ((count = in.read(buffer)) != -1)
+        bytes.write(buffer, 0, count);
+      return bytes.toByteArray();
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Rewrites the source JAR into the destination file.
+   *
+   * @param source The JAR to copy entries from.
+   * @param dest The JAR to create; may not be the source.
+   * @return The number of entries copied from the source.
+   * @throws IOException if the source cannot be read or the destination cannot be written.
+   */
+  public int rewrite(File source, File dest) throws IOException {
+    RawZipFile in = new RawZipFile(source);
+    OutputStream out = null;
+    int copied = 0;
+    try {
+      out = new BufferedOutputStream(new FileOutputStream(dest), (1 << 10) * 64);
+      ZipWriter zip = new ZipWriter(out);
+      if (sourceDate >= 0)
+        zip.setSourceDate(sourceDate);
+
+      List<String> dirs = new ArrayList<String>();
+      for (String name : generated.keySet()) {
+        for (int slash = name.indexOf('/'); slash != -1; slash = name.indexOf('/', slash + 1)) {
+          String dir = name.substring(0, slash + 1);
+          if (!dirs.contains(dir)) {
+            dirs.add(dir);
+            zip.writeDirectory(dir, time, 0755);
+          }
+        }
+        writeGenerated(zip, name, generated.get(name));
+      }
+
+      List<RawZipFile.Entry> entries = new ArrayList<RawZipFile.Entry>(in.getEntries());
+      if (sourceDate >= 0) {
+        Collections.sort(entries, new Comparator<RawZipFile.Entry>() {
+          public int compare(RawZipFile.Entry a, RawZipFile.Entry b) {
+            return a.getName().compareTo(b.getName());
+          }
+        });
+      }
+      for (RawZipFile.Entry e : entries) {
+        if (isExcluded(e.getName()) || generated.containsKey(e.getName()) || dirs.contains(e.getName()))
+          continue;
+        if (e.isEncrypted())
+          throw new IOException("Cannot copy encrypted entry " + e.getName() + " from " + source.getName());
+        InputStream data = in.openRaw(e);
+        try {
+          zip.writeEntry(e.toHeader(), data);
+        }
+        finally {
+          data.close();
+        }
+        copied++;
+      }
+      zip.finish();
+      out.close();
+      out = null;
+    }
+    finally {
+      try { if (out != null) { out.close(); out = null; } } catch (IOException e) { ; }
+      in.close();
+    }
+    return copied;
+  }
+
+  /**
+   * Rewrites a JAR in place, through a temporary file in the same directory.
+   *
+   * @param jar The JAR to rewrite.
+   * @return The number of entries carried over.
+   * @throws IOException if the JAR cannot be rewritten; it is then left as it was.
+   */
+  public int rewrite(File jar) throws IOException {
+    File tmp = File.createTempFile(jar.getName(), ".tmp", jar.getAbsoluteFile().getParentFile());
+    try {
+      int copied = rewrite(jar, tmp);
+      if (!jar.delete() || !tmp.renameTo(jar))
+        throw new IOException("Unable to replace " + jar.getPath());
+      return copied;
+    }
+    finally {
+      tmp.delete();
+    }
+  }
+
+  private boolean isExcluded(String name) {
+    for (String prefix : excludedPrefixes) {
+      if (name.startsWith(prefix))
+        return true;
+    }
+    return false;
+  }
+
+  private void writeGenerated(ZipWriter zip, String name, byte[] content) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+    Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      def.setInput(content);
+      def.finish();
+      byte[] buffer = new byte[(1 << 10) * 8];
+      while (!def.finished()) {
+        int n = def.deflate(buffer, 0, buffer.length);
+        deflated.write(buffer, 0, n);
+      }
+    }
+    finally {
+      def.end();
+    }
+    ZipWriter.Header h = new ZipWriter.Header(name);
+    h.setMethod(ZipEntry.DEFLATED);
+    h.setTime(time);
+    h.setMode(0644);
+    h.setCrc(crc.getValue());
+    h.setSize(content.length);
+    h.setCompressedSize(deflated.size());
+    zip.writeEntry(h, new ByteArrayInputStream(deflated.toByteArray()));
+  }
+
+}
@@ -0,0 +1,335 @@
+package com.secristfamily.maven.plugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which files and directories are left out of an archive.  Patterns are compiled once,
+ * when they are added, and then matched against the path of each candidate relative to the root
+ * of the archive.
+ * <p>
+ * Two kinds of pattern are understood:
+ * <ul>
+ * <li>Regular expressions, as given to <code>excludeRegexList</code>, which must match the whole
+ * name (the last path segment) of a file or directory.  A matching directory is excluded with
+ * everything below it.</li>
+ * <li>Ant style patterns, as given to <code>excludes</code>, which are matched against the
+ * relative path: <code>*</code> and <code>?</code> match within a segment and <code>**</code>
+ * matches any number of segments.  A pattern ending in <code>/**</code> excludes a directory with
+ * everything below it; other patterns only exclude files.</li>
+ * </ul>
+ * Most patterns in practice are literals in disguise: a file name, an extension or a directory.
+ * Those never reach the regular expression engine; names are looked up in a hash set, extensions
+ * and other literal suffixes in a trie walked backwards from the end of the name, and literal
+ * directory prefixes in a trie walked forwards along the path.  Only the remaining patterns are
+ * matched as regular expressions.
+ * <p>
+ * Paths are expected to be offered top down, and excluded directories to be pruned by the
+ * caller: once {@link #excludes(String, boolean)} returns true for a directory, nothing below it
+ * is looked at.  Name patterns are only tested against the last segment of the path offered.
+ */
+public class PathFilter {
+
+  private static final String REGEX_META = "\\^$.|?*+()[]{}";
+
+  /** Names excluded whether file or directory. */
+  private final Set<String> names = new HashSet<String>();
+
+  /** Names excluded only as files. */
+  private final Set<String> fileNames = new HashSet<String>();
+
+  /** Name suffixes excluded whether file or directory, stored reversed. */
+  private final Trie suffixes = new Trie();
+
+  /** Name suffixes excluded only as files, stored reversed. */
+  private final Trie fileSuffixes = new Trie();
+
+  /** Literal relative paths excluded with everything below them. */
+  private final Trie prefixes = new Trie();
+
+  /** Regular expressions matched against the name. */
+  private final List<Pattern> nameRegexes = new ArrayList<Pattern>();
+
+  /** Compiled Ant patterns which exclude directories as well as files. */
+  private final List<Pattern> treeGlobs = new ArrayList<Pattern>();
+
+  /** Compiled Ant patterns which exclude only files. */
+  private final List<Pattern> fileGlobs = new ArrayList<Pattern>();
+
+  private int size = 0;
+
+  /**
+   * Creates a filter from the regular expressions and Ant style patterns of a mojo
+   * configuration.
+   *
+   * @param regexes Regular expressions matched against names, may be null.
+   * @param globs Ant style patterns matched against relative paths, may be null.
+   * @return The compiled filter.
+   */
+  public static PathFilter compile(List<String> regexes, List<String> globs) {
+    PathFilter filter = new PathFilter();
+    if (regexes != null) {
+      for (String regex : regexes) {
+        filter.addRegex(regex);
+      }
+    }
+    if (globs != null) {
+      for (String glob : globs) {
+        filter.addGlob(glob);
+      }
+    }
+    return filter;
+  }
+
+  /**
+   * Adds a regular expression which must match the whole name of a file or directory.
+   */
+  public void addRegex(String regex) {
+    size++;
+    String literal = unescape(regex);
+    if (literal != null) {
+      names.add(literal);
+      return;
+    }
+    if (regex.startsWith(".*")) {
+      literal = unescape(regex.substring(2));
+      if (literal != null && literal.length() > 0) {
+        suffixes.add(reverse(literal));
+        return;
+      }
+    }
+    nameRegexes.add(Pattern.compile(regex));
+  }
+
+  /**
+   * Adds an Ant style pattern matched against the relative path.  A trailing slash stands for
+   * <code>/**</code>, as in Ant.
+   */
+  public void addGlob(String glob) {
+    size++;
+    String pattern = glob.replace('\\', '/');
+    while (pattern.startsWith("/"))
+      pattern = pattern.substring(1);
+    if (pattern.endsWith("/"))
+      pattern = pattern + "**";
+
+    boolean tree = pattern.endsWith("/**");
+    String stem = tree ? pattern.substring(0, pattern.length() - 3) : pattern;
+
+    if (!hasWildcard(stem) && stem.length() > 0) {
+      if (tree)
+        prefixes.add(stem);
+      else
+        prefixes.addExact(stem);
+      return;
+    }
+    if (stem.startsWith("**/")) {
+      String name = stem.substring(3);
+      if (name.indexOf('/') == -1) {
+        if (!hasWildcard(name)) {
+          (tree ? names : fileNames).add(name);
+          return;
+        }
+        if (name.startsWith("*") && !hasWildcard(name.substring(1)) && name.length() > 1) {
+          (tree ? suffixes : fileSuffixes).add(reverse(name.substring(1)));
+          return;
+        }
+      }
+    }
+    (tree ? treeGlobs : fileGlobs).add(Pattern.compile(globToRegex(pattern)));
+  }
+
+  /**
+   * @return The number of patterns added.
+   */
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Tells whether a file or directory is excluded.  For a directory, true means the directory
+   * and everything below it.
+   *
+   * @param path The path relative to the root of the archive, using forward slashes.
+   * @param directory Whether the path names a directory.
+   * @return true if the path is excluded.
+   */
+  public boolean excludes(String path, boolean directory) {
+    if (size == 0)
+      return false;
+    String name = path.substring(path.lastIndexOf('/') + 1);
+    if (names.contains(name) || suffixes.matchesSuffix(name))
+      return true;
+    if (!directory && (fileNames.contains(name) || fileSuffixes.matchesSuffix(name)))
+      return true;
+    if (prefixes.matchesPrefix(path, directory))
+      return true;
+    for (Pattern p : nameRegexes) {
+      if (p.matcher(name).matches())
+        return true;
+    }
+    for (Pattern p : treeGlobs) {
+      if (p.matcher(path).matches())
+        return true;
+    }
+    if (!directory) {
+      for (Pattern p : fileGlobs) {
+        if (p.matcher(path).matches())
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Translates an Ant style pattern into a regular expression over a whole relative path.
+   */
+  static String globToRegex(String glob) {
+    StringBuilder sb = new StringBuilder();
+    String[] segments = glob.split("/");
+    boolean separator = false;
+    for (int i = 0; i < segments.length; i++) {
+      String segment = segments[i];
+      boolean last = i == segments.length - 1;
+      if (segment.equals("**")) {
+        if (last)
+          sb.append(separator ? "(?:/.*)?" : ".*");
+        else
+          sb.append(separator ? "(?:/.*)?/" : "(?:.*/)?");
+        separator = false;
+        continue;
+      }
+      if (separator)
+        sb.append('/');
+      for (int j = 0; j < segment.length(); j++) {
+        char c = segment.charAt(j);
+        if (c == '*')
+          sb.append("[^/]*");
+        else if (c == '?')
+          sb.append("[^/]");
+        else if (REGEX_META.indexOf(c) != -1)
+          sb.append('\\').append(c);
+        else
+          sb.append(c);
+      }
+      separator = true;
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return The literal a regular expression matches, or null if it is not a plain literal.
+   */
+  static String unescape(String regex) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        if (i + 1 >= regex.length())
+          return null;
+        char next = regex.charAt(++i);
+        if (Character.isLetterOrDigit(next))
+          return null;
+        sb.append(next);
+      }
+      else if (REGEX_META.indexOf(c) != -1) {
+        return null;
+      }
+      else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static boolean hasWildcard(String s) {
+    return s.indexOf('*') != -1 || s.indexOf('?') != -1;
+  }
+
+  private static String reverse(String s) {
+    return new StringBuilder(s).reverse().toString();
+  }
+
+  /**
+   * A character trie holding literal prefixes (or reversed suffixes).
+   */
+  private static class Trie {
+    private final Node root = new Node();
+    private boolean empty = true;
+
+    /** Adds a key which matches itself and anything below it, as a path. */
+    void add(String key) {
+      node(key).tree = true;
+    }
+
+    /** Adds a key which matches only itself, and only as a file. */
+    void addExact(String key) {
+      node(key).exact = true;
+    }
+
+    private Node node(String key) {
+      empty = false;
+      Node n = root;
+      for (int i = 0; i < key.length(); i++) {
+        char c = key.charAt(i);
+        Node child = n.children.get(c);
+        if (child == null) {
+          child = new Node();
+          n.children.put(c, child);
+        }
+        n = child;
+      }
+      return n;
+    }
+
+    /**
+     * @return true if a reversed key is a suffix of the name.
+     */
+    boolean matchesSuffix(String name) {
+      if (empty)
+        return false;
+      Node n = root;
+      for (int i = name.length() - 1; i >= 0; i--) {
+        n = n.children.get(name.charAt(i));
+        if (n == null)
+          return false;
+        if (n.tree)
+          return true;
+      }
+      return false;
+    }
+
+    /**
+     * @return true if the path equals a key, or lies below a key added with {@link #add}.
+     */
+    boolean matchesPrefix(String path, boolean directory) {
+      if (empty)
+        return false;
+      Node n = root;
+      for (int i = 0; i < path.length(); i++) {
+        n = n.children.get(path.charAt(i));
+        if (n == null)
+          return false;
+        if (n.tree && (i + 1 == path.length() || path.charAt(i + 1) == '/'))
+          return true;
+      }
+      return n.exact && !directory;
+    }
+  }
+
+  private static class Node {
+    final Map<Character, Node> children = new HashMap<Character, Node>(4);
+    boolean tree;
+    boolean exact;
+  }
+
+}
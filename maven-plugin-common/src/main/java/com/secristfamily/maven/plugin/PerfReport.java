@@ -0,0 +1,227 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the time of a mojo execution goes, phase by phase, written as JSON for CI to trend.
+ * <p>
+ * Each phase records its wall time, the CPU time of the thread which ran it (plus any CPU time
+ * the caller reports for work done on other threads, such as parallel deflating), the bytes it
+ * read and wrote and the files it handled.  A phase run more than once (once per package, say)
+ * is reported once, with its figures added up and the number of runs.  Phases may run inside
+ * one another and on several threads at once, so their times need not add up to the total.
+ */
+public class PerfReport {
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final String goal;
+  private final long started = System.currentTimeMillis();
+  private final long start = System.nanoTime();
+  private final Map<String, Totals> totals = new LinkedHashMap<String, Totals>();
+
+  /**
+   * @param goal The goal being measured, <code>rpm</code> or <code>zip</code>.
+   */
+  public PerfReport(String goal) {
+    this.goal = goal;
+  }
+
+  /**
+   * Starts timing a phase; the caller must {@link Phase#end end} it, in a finally block.
+   */
+  public Phase start(String name) {
+    return new Phase(name);
+  }
+
+  /**
+   * Records a phase timed elsewhere, such as one of rpmbuild's.
+   */
+  public synchronized void add(String name, long wallMillis) {
+    totals(name).add(1, TimeUnit.MILLISECONDS.toNanos(wallMillis), 0, 0, 0, 0);
+  }
+
+  private Totals totals(String name) {
+    Totals t = totals.get(name);
+    if (t == null) {
+      t = new Totals();
+      totals.put(name, t);
+    }
+    return t;
+  }
+
+  private static long cpuTime() {
+    return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+  }
+
+  /**
+   * @return A line for the log: the total and the phases which took longest.
+   */
+  public synchronized String getSummary() {
+    List<Map.Entry<String, Totals>> phases = new ArrayList<Map.Entry<String, Totals>>(totals.entrySet());
+    Collections.sort(phases, new Comparator<Map.Entry<String, Totals>>() {
+      public int compare(Map.Entry<String, Totals> a, Map.Entry<String, Totals> b) {
+        return Long.valueOf(b.getValue().wall).compareTo(a.getValue().wall);
+      }
+    });
+    StringBuilder sb = new StringBuilder();
+    sb.append(goal).append(" took ").append(millis(System.nanoTime() - start)).append(" ms");
+    for (int i = 0; i < phases.size() && i < 4; i++) {
+      sb.append(i == 0 ? ": " : ", ");
+      sb.append(phases.get(i).getKey()).append(' ').append(millis(phases.get(i).getValue().wall)).append(" ms");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Writes the report as JSON.
+   *
+   * @param f The file to write, whose directory is created if need be.
+   * @param project The project the report is about, as <code>groupId:artifactId:version</code>.
+   */
+  public synchronized void write(File f, String project) throws IOException {
+    SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\n");
+    sb.append("  \"goal\": ").append(quote(goal)).append(",\n");
+    sb.append("  \"project\": ").append(quote(project)).append(",\n");
+    sb.append("  \"started\": ").append(quote(iso.format(new Date(started)))).append(",\n");
+    sb.append("  \"wallMillis\": ").append(millis(System.nanoTime() - start)).append(",\n");
+    sb.append("  \"phases\": [");
+    boolean first = true;
+    for (Map.Entry<String, Totals> e : totals.entrySet()) {
+      Totals t = e.getValue();
+      sb.append(first ? "\n" : ",\n");
+      first = false;
+      sb.append("    {\"name\": ").append(quote(e.getKey()));
+      sb.append(", \"count\": ").append(t.count);
+      sb.append(", \"wallMillis\": ").append(millis(t.wall));
+      sb.append(", \"cpuMillis\": ").append(millis(t.cpu));
+      sb.append(", \"bytesRead\": ").append(t.bytesRead);
+      sb.append(", \"bytesWritten\": ").append(t.bytesWritten);
+      sb.append(", \"files\": ").append(t.files).append('}');
+    }
+    sb.append(first ? "]\n" : "\n  ]\n");
+    sb.append("}\n");
+
+    f.getParentFile().mkdirs();
+    Writer out = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+    try {
+      out.write(sb.toString());
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static long millis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  static String quote(String s) {
+    if (s == null)
+      return "null";
+    StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\')
+        sb.append('\\').append(c);
+      else if (c < 0x20)
+        sb.append(String.format("\\u%04x", (int) c));
+      else
+        sb.append(c);
+    }
+    return sb.append('"').toString();
+  }
+
+  /**
+   * One run of a phase, measured from its start until {@link #end}.
+   */
+  public class Phase {
+    private final String name;
+    private final long wallStart = System.nanoTime();
+    private final long cpuStart = cpuTime();
+    private long cpu = 0;
+    private long bytesRead = 0;
+    private long bytesWritten = 0;
+    private long files = 0;
+    private boolean ended = false;
+
+    Phase(String name) {
+      this.name = name;
+    }
+
+    public Phase read(long bytes) {
+      bytesRead += bytes;
+      return this;
+    }
+
+    public Phase wrote(long bytes) {
+      bytesWritten += bytes;
+      return this;
+    }
+
+    public Phase files(long count) {
+      files += count;
+      return this;
+    }
+
+    /**
+     * Adds CPU time spent for this phase on other threads.
+     */
+    public Phase cpu(long nanos) {
+      cpu += nanos;
+      return this;
+    }
+
+    /**
+     * Records the phase; only the first call counts.
+     */
+    public void end() {
+      if (ended)
+        return;
+      ended = true;
+      long wall = System.nanoTime() - wallStart;
+      long threadCpu = cpuTime() - cpuStart;
+      synchronized (PerfReport.this) {
+        totals(name).add(1, wall, threadCpu + cpu, bytesRead, bytesWritten, files);
+      }
+    }
+  }
+
+  private static class Totals {
+    int count;
+    long wall;
+    long cpu;
+    long bytesRead;
+    long bytesWritten;
+    long files;
+
+    void add(int count, long wall, long cpu, long bytesRead, long bytesWritten, long files) {
+      this.count += count;
+      this.wall += wall;
+      this.cpu += cpu;
+      this.bytesRead += bytesRead;
+      this.bytesWritten += bytesWritten;
+      this.files += files;
+    }
+  }
+
+}
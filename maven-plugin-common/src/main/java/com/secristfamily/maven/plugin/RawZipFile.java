@@ -0,0 +1,318 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a ZIP (or JAR) file and gives access to the compressed bytes of
+ * each entry exactly as they are stored, without inflating them.  Together with
+ * {@link ZipWriter} this allows entries to be carried from one archive to another without being
+ * decompressed and compressed again.
+ * <p>
+ * Reads are positional, so several threads may open entries of the same file at once.
+ */
+public class RawZipFile implements Closeable {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final int LOCAL_HEADER_SIG = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+  private static final int END_SIG = 0x06054b50;
+  private static final int ZIP64_END_SIG = 0x06064b50;
+  private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+  private static final int END_LENGTH = 22;
+  private static final int MAX_COMMENT = 0xFFFF;
+
+  private final File file;
+  private final RandomAccessFile raf;
+  private final FileChannel channel;
+  private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+  public RawZipFile(File file) throws IOException {
+    this.file = file;
+    this.raf = new RandomAccessFile(file, "r");
+    this.channel = raf.getChannel();
+    try {
+      readCentralDirectory();
+    }
+    catch (IOException e) {
+      close();
+      throw e;
+    }
+    catch (RuntimeException e) {
+      close();
+      throw new ZipException("Invalid ZIP file " + file.getName() + ": " + e);
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return The entries, in central directory order.
+   */
+  public List<Entry> getEntries() {
+    return Collections.unmodifiableList(new ArrayList<Entry>(entries.values()));
+  }
+
+  public Entry getEntry(String name) {
+    return entries.get(name);
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Opens the stored (still compressed) bytes of an entry.
+   *
+   * @param e An entry of this file.
+   * @return A stream of exactly {@link Entry#getCompressedSize()} bytes.
+   * @throws IOException if the local header of the entry cannot be read.
+   */
+  public InputStream openRaw(Entry e) throws IOException {
+    ByteBuffer local = read(e.localHeaderOffset, 30);
+    if (local.getInt(0) != LOCAL_HEADER_SIG)
+      throw new ZipException("Bad local header for " + e.name + " in " + file.getName());
+    long dataOffset = e.localHeaderOffset + 30 + (local.getShort(26) & 0xffff) + (local.getShort(28) & 0xffff);
+    return new RawInputStream(dataOffset, e.compressedSize);
+  }
+
+  public void close() throws IOException {
+    raf.close();
+  }
+
+  private void readCentralDirectory() throws IOException {
+    long length = channel.size();
+    if (length < END_LENGTH)
+      throw new ZipException(file.getName() + " is too short to be a ZIP file");
+
+    // Find the end of central directory record, searching back over any comment
+    int tailLength = (int) Math.min(length, END_LENGTH + MAX_COMMENT);
+    ByteBuffer tail = read(length - tailLength, tailLength);
+    int end = -1;
+    for (int i = tailLength - END_LENGTH; i >= 0; i--) {
+      if (tail.getInt(i) == END_SIG) {
+        end = i;
+        break;
+      }
+    }
+    if (end == -1)
+      throw new ZipException("No central directory found in " + file.getName());
+    long endOffset = length - tailLength + end;
+    long count = tail.getShort(end + 10) & 0xffff;
+    long cdSize = tail.getInt(end + 12) & 0xffffffffL;
+    long cdOffset = tail.getInt(end + 16) & 0xffffffffL;
+
+    // ZIP64 end of central directory, if there is a locator before the end record
+    if (endOffset >= 20) {
+      ByteBuffer locator = read(endOffset - 20, 20);
+      if (locator.getInt(0) == ZIP64_LOCATOR_SIG) {
+        ByteBuffer end64 = read(locator.getLong(8), 56);
+        if (end64.getInt(0) != ZIP64_END_SIG)
+          throw new ZipException("Bad ZIP64 end of central directory in " + file.getName());
+        count = end64.getLong(32);
+        cdSize = end64.getLong(40);
+        cdOffset = end64.getLong(48);
+      }
+    }
+    if (cdSize > Integer.MAX_VALUE)
+      throw new ZipException("Central directory of " + file.getName() + " is too large");
+
+    ByteBuffer cd = read(cdOffset, (int) cdSize);
+    int pos = 0;
+    for (long i = 0; i < count; i++) {
+      if (cd.getInt(pos) != CENTRAL_HEADER_SIG)
+        throw new ZipException("Bad central directory entry in " + file.getName());
+      Entry e = new Entry();
+      e.madeBy = cd.getShort(pos + 4) & 0xffff;
+      e.flags = cd.getShort(pos + 8) & 0xffff;
+      e.method = cd.getShort(pos + 10) & 0xffff;
+      e.dosTime = cd.getInt(pos + 12) & 0xffffffffL;
+      e.crc = cd.getInt(pos + 16) & 0xffffffffL;
+      e.compressedSize = cd.getInt(pos + 20) & 0xffffffffL;
+      e.size = cd.getInt(pos + 24) & 0xffffffffL;
+      int nameLength = cd.getShort(pos + 28) & 0xffff;
+      int extraLength = cd.getShort(pos + 30) & 0xffff;
+      int commentLength = cd.getShort(pos + 32) & 0xffff;
+      e.externalAttributes = cd.getInt(pos + 38) & 0xffffffffL;
+      e.localHeaderOffset = cd.getInt(pos + 42) & 0xffffffffL;
+      byte[] name = new byte[nameLength];
+      cd.position(pos + 46);
+      cd.get(name);
+      e.name = new String(name, UTF8);
+      readZip64Extra(e, cd, pos + 46 + nameLength, extraLength);
+      entries.put(e.name, e);
+      pos += 46 + nameLength + extraLength + commentLength;
+    }
+  }
+
+  private static void readZip64Extra(Entry e, ByteBuffer cd, int pos, int length) {
+    int end = pos + length;
+    while (pos + 4 <= end) {
+      int id = cd.getShort(pos) & 0xffff;
+      int size = cd.getShort(pos + 2) & 0xffff;
+      if (id == 0x0001) {
+        int p = pos + 4;
+        if (e.size == 0xffffffffL) {
+          e.size = cd.getLong(p);
+          p += 8;
+        }
+        if (e.compressedSize == 0xffffffffL) {
+          e.compressedSize = cd.getLong(p);
+          p += 8;
+        }
+        if (e.localHeaderOffset == 0xffffffffL)
+          e.localHeaderOffset = cd.getLong(p);
+        return;
+      }
+      pos += 4 + size;
+    }
+  }
+
+  private ByteBuffer read(long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      int count = channel.read(buffer, position + buffer.position());
+      if (count == -1)
+        throw new EOFException("Unexpected end of " + file.getName());
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * A bounded stream over a region of the file, read with positional reads.
+   */
+  private class RawInputStream extends InputStream {
+    private long position;
+    private long remaining;
+
+    RawInputStream(long position, long length) {
+      this.position = position;
+      this.remaining = length;
+    }
+
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0)
+        return -1;
+      int count = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+      if (count == -1)
+        throw new EOFException("Unexpected end of " + file.getName());
+      position += count;
+      remaining -= count;
+      return count;
+    }
+
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, remaining));
+      position += skipped;
+      remaining -= skipped;
+      return skipped;
+    }
+
+    public int available() {
+      return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+  }
+
+  /**
+   * A central directory record.
+   */
+  public static class Entry {
+    String name;
+    int madeBy;
+    int flags;
+    int method;
+    long dosTime;
+    long crc;
+    long compressedSize;
+    long size;
+    long externalAttributes;
+    long localHeaderOffset;
+
+    public String getName() {
+      return name;
+    }
+
+    public int getMethod() {
+      return method;
+    }
+
+    public long getDosTime() {
+      return dosTime;
+    }
+
+    public long getCrc() {
+      return crc;
+    }
+
+    public long getCompressedSize() {
+      return compressedSize;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public boolean isDirectory() {
+      return name.endsWith("/");
+    }
+
+    /**
+     * @return Whether the entry is encrypted, in which case its bytes cannot be carried over.
+     */
+    public boolean isEncrypted() {
+      return (flags & 1) != 0;
+    }
+
+    /**
+     * @param def The permissions to assume when the archive was not made on a unix host.
+     * @return The unix permission bits of the entry.
+     */
+    public int getMode(int def) {
+      int mode = (int) ((externalAttributes >> 16) & 07777);
+      return ((madeBy >> 8) == 3 && mode != 0) ? mode : def;
+    }
+
+    /**
+     * Creates a header which copies this entry, unchanged, into a {@link ZipWriter}.
+     */
+    public ZipWriter.Header toHeader() {
+      ZipWriter.Header h = new ZipWriter.Header(name);
+      h.setMethod(method);
+      h.setDosTime(dosTime);
+      h.setCrc(crc);
+      h.setSize(size);
+      h.setCompressedSize(compressedSize);
+      h.setMode(getMode(isDirectory() ? 0755 : 0644));
+      h.directory = isDirectory();
+      return h;
+    }
+
+    public String toString() {
+      return name;
+    }
+  }
+
+}
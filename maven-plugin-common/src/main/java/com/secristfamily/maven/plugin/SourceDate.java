@@ -0,0 +1,75 @@
+package com.secristfamily.maven.plugin;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * The time a reproducible build gives everything it writes in place of the time it ran, so that
+ * the same inputs always give the same bytes.
+ * <p>
+ * It is the <code>outputTimestamp</code> of the mojo, which defaults to the
+ * <code>project.build.outputTimestamp</code> property the maven plugins read, or failing that
+ * the <code>SOURCE_DATE_EPOCH</code> environment variable of reproducible-builds.org.  Either is
+ * given in seconds since the epoch or as an ISO 8601 time, <code>2020-01-01T00:00:00Z</code>; an
+ * <code>outputTimestamp</code> of a single character turns it off, as it does for maven.
+ */
+public class SourceDate {
+
+  public static final String ENVIRONMENT = "SOURCE_DATE_EPOCH";
+
+  private static final String ISO_8601 = "yyyy-MM-dd'T'HH:mm:ssXXX";
+
+  private SourceDate() {
+  }
+
+  /**
+   * @param outputTimestamp The <code>outputTimestamp</code> of the mojo, may be null.
+   * @return The time in milliseconds, a whole number of seconds, or -1 if none is set.
+   * @throws MojoExecutionException if the time cannot be read.
+   */
+  public static long resolve(String outputTimestamp) throws MojoExecutionException {
+    return resolve(outputTimestamp, System.getenv(ENVIRONMENT));
+  }
+
+  static long resolve(String outputTimestamp, String environment) throws MojoExecutionException {
+    if (outputTimestamp != null && outputTimestamp.trim().length() > 0) {
+      if (outputTimestamp.trim().length() == 1)
+        return -1;
+      return parse("outputTimestamp", outputTimestamp.trim());
+    }
+    if (environment != null && environment.trim().length() > 0)
+      return parse(ENVIRONMENT, environment.trim());
+    return -1;
+  }
+
+  private static long parse(String name, String value) throws MojoExecutionException {
+    try {
+      if (value.matches("\\d+"))
+        return Long.parseLong(value) * 1000;
+      SimpleDateFormat iso = new SimpleDateFormat(ISO_8601);
+      iso.setLenient(false);
+      return iso.parse(value).getTime() / 1000 * 1000;
+    }
+    catch (NumberFormatException e) {
+      throw new MojoExecutionException("Invalid " + name + " " + value + ": " + e.getMessage(), e);
+    }
+    catch (ParseException e) {
+      throw new MojoExecutionException("Invalid " + name + " " + value
+          + ": expected seconds since the epoch or an ISO 8601 time such as 2020-01-01T00:00:00Z", e);
+    }
+  }
+
+  /**
+   * @return The time as ISO 8601, in UTC, for the log.
+   */
+  public static String format(long time) {
+    SimpleDateFormat iso = new SimpleDateFormat(ISO_8601);
+    iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return iso.format(new Date(time));
+  }
+
+}
@@ -0,0 +1,214 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walks a directory tree in parallel and streams what it finds to a single consumer.
+ * <p>
+ * Directories are listed by fork/join tasks, so the work stealing pool keeps every worker busy
+ * on wide and deep trees alike.  Entries are passed to the {@link Visitor} through a bounded
+ * queue and the visitor runs on the calling thread: it needs no synchronisation, and no more than
+ * the queue capacity is held in memory however large the tree is.  A directory is always visited
+ * before anything below it, although siblings may arrive in any order.
+ * <p>
+ * Files and directories excluded by the {@link PathFilter} are skipped; excluded directories are
+ * never listed.
+ */
+public class TreeWalker {
+
+  /** The default number of entries held between the walk and the visitor. */
+  public static final int DEFAULT_QUEUE_SIZE = 4096;
+
+  private static final Item END = new Item(null, null, false);
+
+  private final int threads;
+  private final int queueSize;
+
+  /**
+   * Receives the entries of a tree.
+   */
+  public interface Visitor {
+    /**
+     * @param file The file or directory.
+     * @param path Its path relative to the root of the walk, using forward slashes.
+     * @param directory Whether it is a directory.
+     * @throws IOException to stop the walk.
+     */
+    void visit(File file, String path, boolean directory) throws IOException;
+  }
+
+  public TreeWalker() {
+    this(0, DEFAULT_QUEUE_SIZE);
+  }
+
+  /**
+   * @param threads The number of walker threads, or zero (or less) for one per processor.
+   * @param queueSize The most entries held waiting for the visitor.
+   */
+  public TreeWalker(int threads, int queueSize) {
+    this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    this.queueSize = Math.max(1, queueSize);
+  }
+
+  /**
+   * Walks everything below a directory.  The directory itself is not visited.
+   *
+   * @param root The directory to walk.
+   * @param path The path given to the root; entries are visited as <code>path/child</code>.  May
+   *            be empty.
+   * @param filter Decides which entries are skipped, matching their paths; may be null.
+   * @param visitor Receives each entry, on the calling thread.
+   * @throws IOException if the visitor fails, or the walk is interrupted.
+   */
+  public void walk(File root, String path, PathFilter filter, Visitor visitor) throws IOException {
+    Walk walk = new Walk(filter);
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      pool.execute(walk.new Root(root, path));
+      while (true) {
+        Item item;
+        try {
+          item = walk.queue.take();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while walking " + root.getPath(), e);
+        }
+        if (item == END)
+          break;
+        visitor.visit(item.file, item.path, item.directory);
+      }
+    }
+    finally {
+      walk.cancelled = true;
+      walk.queue.clear();
+      pool.shutdownNow();
+    }
+    if (walk.failure != null)
+      throw new IOException("Unable to walk " + root.getPath() + ": " + walk.failure, walk.failure);
+  }
+
+  /**
+   * The state shared by the tasks of a single walk.
+   */
+  private class Walk {
+    final BlockingQueue<Item> queue = new ArrayBlockingQueue<Item>(queueSize);
+    final PathFilter filter;
+    volatile boolean cancelled = false;
+    volatile Throwable failure;
+
+    Walk(PathFilter filter) {
+      this.filter = filter;
+    }
+
+    void put(final Item item) throws InterruptedException {
+      // Let the pool make up for a worker blocked on a full queue
+      ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+        boolean done = false;
+
+        public boolean block() throws InterruptedException {
+          while (!done && !cancelled)
+            done = queue.offer(item, 100, TimeUnit.MILLISECONDS);
+          return true;
+        }
+
+        public boolean isReleasable() {
+          return done || cancelled || (done = queue.offer(item));
+        }
+      });
+    }
+
+    /**
+     * Walks the tree, then tells the consumer the walk is over.
+     */
+    class Root extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      final File dir;
+      final String path;
+
+      Root(File dir, String path) {
+        this.dir = dir;
+        this.path = path;
+      }
+
+      protected void compute() {
+        try {
+          new Directory(dir, path).invoke();
+        }
+        catch (Throwable t) {
+          failure = t;
+        }
+        finally {
+          try {
+            put(END);
+          }
+          catch (InterruptedException e) {
+            failure = e;
+            cancelled = true;
+          }
+        }
+      }
+    }
+
+    /**
+     * Lists one directory, queues its entries and forks a task for each subdirectory.
+     */
+    class Directory extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      final File dir;
+      final String path;
+
+      Directory(File dir, String path) {
+        this.dir = dir;
+        this.path = path;
+      }
+
+      protected void compute() {
+        if (cancelled || failure != null)
+          return;
+        File[] children = dir.listFiles();
+        if (children == null)
+          return;
+        List<Directory> subdirs = new ArrayList<Directory>();
+        try {
+          for (File f : children) {
+            String name = f.getName();
+            String child = path.length() == 0 ? name : path + "/" + name;
+            boolean isDirectory = f.isDirectory();
+            if (filter != null && filter.excludes(child, isDirectory))
+              continue;
+            put(new Item(f, child, isDirectory));
+            if (isDirectory)
+              subdirs.add(new Directory(f, child));
+          }
+        }
+        catch (InterruptedException e) {
+          failure = e;
+          return;
+        }
+        invokeAll(subdirs);
+      }
+    }
+  }
+
+  private static class Item {
+    final File file;
+    final String path;
+    final boolean directory;
+
+    Item(File file, String path, boolean directory) {
+      this.file = file;
+      this.path = path;
+      this.directory = directory;
+    }
+  }
+
+}
@@ -0,0 +1,276 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Extracts a ZIP (or JAR) file into a directory using several threads.
+ * <p>
+ * The central directory is read once, and every directory the archive needs is created in a
+ * single pass before any content is written, so the workers never race to create (or re-check)
+ * parent directories.  The workers then inflate entries straight from the archive: reads are
+ * positional, so they share one {@link RawZipFile} and each keeps only its own
+ * {@link Inflater} and buffers.  The CRC of every entry is checked.
+ * <p>
+ * Entries whose names would place them outside the target directory (absolute names, or names
+ * containing <code>..</code>) are rejected before anything is written.
+ */
+public class ZipExtractor {
+
+  private static final int BUFFER_SIZE = (1 << 10) * 64;
+
+  private final int threads;
+
+  /**
+   * @param threads The number of workers, or zero (or less) for one per processor.
+   */
+  public ZipExtractor(int threads) {
+    this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Extracts every file of an archive, replacing any that already exist.
+   *
+   * @param zipped The archive.
+   * @param directory The directory to extract into; created if need be.
+   * @return The number of files extracted.
+   * @throws ZipException if the archive is not a valid ZIP file, or holds an entry that would be
+   *            written outside of the directory.
+   * @throws IOException if an entry cannot be written.
+   */
+  public int extract(File zipped, File directory) throws IOException {
+    RawZipFile zip = new RawZipFile(zipped);
+    try {
+      final List<RawZipFile.Entry> files = new ArrayList<RawZipFile.Entry>();
+      final List<File> targets = new ArrayList<File>();
+      TreeSet<File> dirs = new TreeSet<File>();
+      File root = directory.getCanonicalFile();
+      dirs.add(root);
+      for (RawZipFile.Entry e : zip.getEntries()) {
+        File target = resolve(root, e.getName(), zipped);
+        if (e.isDirectory()) {
+          dirs.add(target);
+          continue;
+        }
+        if (e.isEncrypted())
+          throw new ZipException(e.getName() + " in " + zipped.getName() + " is encrypted");
+        dirs.add(target.getParentFile());
+        files.add(e);
+        targets.add(target);
+      }
+
+      // Create the directories in one pass; a directory sorts before any below it
+      for (File dir : dirs) {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+          throw new IOException("Unable to create directory " + dir.getPath());
+      }
+
+      int poolSize = Math.max(1, Math.min(threads, files.size()));
+      if (poolSize == 1) {
+        new Worker(zip, files, targets, new AtomicInteger()).call();
+        return files.size();
+      }
+      ExecutorService pool = Executors.newFixedThreadPool(poolSize, new WorkerFactory());
+      try {
+        AtomicInteger next = new AtomicInteger();
+        List<Future<Void>> workers = new ArrayList<Future<Void>>();
+        for (int i = 0; i < poolSize; i++)
+          workers.add(pool.submit(new Worker(zip, files, targets, next)));
+        for (Future<Void> f : workers)
+          await(f);
+      }
+      finally {
+        pool.shutdownNow();
+      }
+      return files.size();
+    }
+    finally {
+      zip.close();
+    }
+  }
+
+  /**
+   * Maps an entry name to a file below the root, refusing names that would escape it.
+   */
+  static File resolve(File root, String name, File zipped) throws IOException {
+    String path = name.replace('\\', '/');
+    if (path.startsWith("/") || (path.length() > 1 && path.charAt(1) == ':'))
+      throw new ZipException("Entry " + name + " in " + zipped.getName() + " has an absolute path");
+    for (String segment : path.split("/")) {
+      if (segment.equals(".."))
+        throw new ZipException("Entry " + name + " in " + zipped.getName() + " would be extracted outside of "
+            + root.getPath());
+    }
+    File target = new File(root, path);
+    String canonical = target.getCanonicalPath();
+    if (!canonical.equals(root.getPath()) && !canonical.startsWith(root.getPath() + File.separator))
+      throw new ZipException("Entry " + name + " in " + zipped.getName() + " would be extracted outside of "
+          + root.getPath());
+    return target;
+  }
+
+  private static void await(Future<Void> future) throws IOException {
+    try {
+      future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while extracting", e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Takes entries off the shared list until there are none left.
+   */
+  private static class Worker implements Callable<Void> {
+    private final RawZipFile zip;
+    private final List<RawZipFile.Entry> files;
+    private final List<File> targets;
+    private final AtomicInteger next;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] input = new byte[BUFFER_SIZE];
+    private final byte[] output = new byte[BUFFER_SIZE];
+
+    Worker(RawZipFile zip, List<RawZipFile.Entry> files, List<File> targets, AtomicInteger next) {
+      this.zip = zip;
+      this.files = files;
+      this.targets = targets;
+      this.next = next;
+    }
+
+    public Void call() throws IOException {
+      try {
+        int i;
+        while ((i = next.getAndIncrement()) < files.size()) {
+          if (Thread.interrupted())
+            throw new IOException("Interrupted while extracting");
+          extract(files.get(i), targets.get(i));
+        }
+        return null;
+      }
+      finally {
+        inflater.end();
+      }
+    }
+
+    private void extract(RawZipFile.Entry e, File target) throws IOException {
+      crc.reset();
+      InputStream in = zip.openRaw(e);
+      try {
+        OutputStream out = new FileOutputStream(target);
+        try {
+          long written;
+          if (e.getMethod() == ZipEntry.STORED)
+            written = copy(in, out);
+          else if (e.getMethod() == ZipEntry.DEFLATED)
+            written = inflate(in, out, e);
+          else
+            throw new ZipException("Unsupported compression method " + e.getMethod() + " for " + e.getName());
+          if (written != e.getSize() || crc.getValue() != e.getCrc())
+            throw new ZipException("Corrupt entry " + e.getName() + " in " + zip.getFile().getName());
+        }
+        finally {
+          out.close();
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+
+    private long copy(InputStream in, OutputStream out) throws IOException {
+      long total = 0;
+      int count;
+      while ((count = in.read(output)) != -1) {
+        crc.update(output, 0, count);
+        out.write(output, 0, count);
+        total += count;
+      }
+      return total;
+    }
+
+    private long inflate(InputStream in, OutputStream out, RawZipFile.Entry e) throws IOException {
+      inflater.reset();
+      long total = 0;
+      boolean padded = false;
+      try {
+        while (!inflater.finished()) {
+          if (inflater.needsInput()) {
+            int count = in.read(input);
+            if (count == -1) {
+              // A raw inflater may want one byte past the end of the stored data, but no more
+              if (padded)
+                throw new ZipException("Truncated entry " + e.getName() + " in " + zip.getFile().getName());
+              padded = true;
+              input[0] = 0;
+              count = 1;
+            }
+            inflater.setInput(input, 0, count);
+          }
+          int count = inflater.inflate(output);
+          if (count == 0 && inflater.needsDictionary())
+            throw new ZipException("Corrupt entry " + e.getName() + " in " + zip.getFile().getName());
+          if (count > 0) {
+            crc.update(output, 0, count);
+            out.write(output, 0, count);
+            total += count;
+          }
+          if (total > e.getSize())
+            break;
+        }
+      }
+      catch (DataFormatException ex) {
+        throw new ZipException("Corrupt entry " + e.getName() + " in " + zip.getFile().getName() + ": "
+            + ex.getMessage());
+      }
+      return total;
+    }
+  }
+
+  /**
+   * Names the extract workers and keeps them from holding up JVM exit.
+   */
+  private static class WorkerFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "zip-extract-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+}
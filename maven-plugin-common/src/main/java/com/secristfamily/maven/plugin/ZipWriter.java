@@ -0,0 +1,460 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes the ZIP file format around entries whose data has already been compressed.  Unlike
+ * {@link java.util.zip.ZipOutputStream} the caller supplies the method, CRC and sizes of each
+ * entry up front, so entries can be deflated elsewhere (in parallel, or by a previous build) and
+ * their bytes copied in unchanged.  An entry too large to hold until it is compressed may instead
+ * be written as it is produced, with its CRC and sizes following the data in a data descriptor.
+ * ZIP64 records are written when sizes, offsets or the entry count exceed the limits of the
+ * original format.
+ */
+public class ZipWriter {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final long LOCAL_HEADER_SIG = 0x04034b50L;
+  private static final long DATA_DESCRIPTOR_SIG = 0x08074b50L;
+  private static final long CENTRAL_HEADER_SIG = 0x02014b50L;
+  private static final long END_SIG = 0x06054b50L;
+  private static final long ZIP64_END_SIG = 0x06064b50L;
+  private static final long ZIP64_LOCATOR_SIG = 0x07064b50L;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+  private static final int DESCRIPTOR_FLAG = 1 << 3;
+  private static final int EFS_FLAG = 1 << 11;
+
+  /** Version made by: UNIX host, specification 2.0 (or 4.5 with ZIP64). */
+  private static final int UNIX_HOST = 3 << 8;
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+  private final OutputStream out;
+  private final List<Header> central = new ArrayList<Header>();
+  private long written = 0;
+  private boolean finished = false;
+  private long sourceDosTime = -1;
+  private Header open;
+  private long openStart;
+
+  public ZipWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Gives every entry written from now on the same time, taken in UTC so that the bytes do not
+   * depend on the time zone of the build, and the normal permissions of {@link #normalMode}, so
+   * that the archive depends on nothing but the names and content of its entries.
+   *
+   * @param time The time in milliseconds; see {@link SourceDate}.
+   */
+  public void setSourceDate(long time) {
+    sourceDosTime = toDosTime(time, UTC);
+  }
+
+  /**
+   * @return 0755 for a directory or a file anyone may execute, otherwise 0644.
+   */
+  static int normalMode(int mode, boolean directory) {
+    return directory || (mode & 0111) != 0 ? 0755 : 0644;
+  }
+
+  /**
+   * Writes a directory entry.
+   *
+   * @param name The name of the directory, a trailing slash is added if missing.
+   * @param time The modification time in milliseconds.
+   * @param mode The unix permission bits.
+   * @throws IOException if the entry cannot be written.
+   */
+  public void writeDirectory(String name, long time, int mode) throws IOException {
+    if (!name.endsWith("/"))
+      name = name + "/";
+    Header h = new Header(name);
+    h.method = ZipEntry.STORED;
+    h.time = time;
+    h.mode = mode;
+    h.directory = true;
+    writeEntry(h, null);
+  }
+
+  /**
+   * Writes an entry whose data is supplied already in its final (stored or deflated) form.
+   *
+   * @param h The header of the entry; method, crc and both sizes must be set.
+   * @param data The compressed data, exactly {@link Header#compressedSize} bytes long.
+   * @throws IOException if the entry cannot be written.
+   */
+  public void writeEntry(Header h, InputStream data) throws IOException {
+    h.descriptor = false;
+    writeLocalHeader(h, h.size >= ZIP64_MAGIC || h.compressedSize >= ZIP64_MAGIC);
+    if (data != null) {
+      long copied = copy(data, h.compressedSize);
+      if (copied != h.compressedSize)
+        throw new IOException("Expected " + h.compressedSize + " bytes of data for " + h.name + " but found " + copied);
+    }
+    central.add(h);
+  }
+
+  /**
+   * Starts a deflated entry whose data is not yet known.  The data is then written with
+   * {@link #writeData} as it is produced, and the entry completed with {@link #endEntry}, which
+   * writes the CRC and sizes in a data descriptor after it.
+   *
+   * @param h The header of the entry; its size is the expected uncompressed size, used only to
+   *     decide whether the entry needs ZIP64 sizes.
+   * @throws IOException if the header cannot be written.
+   */
+  public void startEntry(Header h) throws IOException {
+    if (h.method != ZipEntry.DEFLATED)
+      throw new IOException("Only deflated entries may be written ahead of their sizes: " + h.name);
+    h.descriptor = true;
+    // Deflate adds at most a few bytes per 16k block to incompressible data
+    writeLocalHeader(h, h.size + (h.size >>> 10) + 64 >= ZIP64_MAGIC);
+    h.crc = 0;
+    h.size = 0;
+    h.compressedSize = 0;
+    open = h;
+    openStart = written;
+  }
+
+  /**
+   * Writes part of the compressed data of the entry started by {@link #startEntry}.
+   */
+  public void writeData(byte[] b, int off, int len) throws IOException {
+    if (open == null)
+      throw new IOException("No entry has been started");
+    writeBytes(b, off, len);
+  }
+
+  /**
+   * Completes the entry started by {@link #startEntry}.
+   *
+   * @param crc The CRC of the uncompressed data.
+   * @param size The uncompressed size.
+   * @throws IOException if the data descriptor cannot be written.
+   */
+  public void endEntry(long crc, long size) throws IOException {
+    Header h = open;
+    if (h == null)
+      throw new IOException("No entry has been started");
+    open = null;
+    h.crc = crc;
+    h.size = size;
+    h.compressedSize = written - openStart;
+    writeInt(DATA_DESCRIPTOR_SIG);
+    writeInt(crc);
+    if (size >= ZIP64_MAGIC || h.compressedSize >= ZIP64_MAGIC) {
+      writeLong(h.compressedSize);
+      writeLong(size);
+    }
+    else {
+      writeInt(h.compressedSize);
+      writeInt(size);
+    }
+    central.add(h);
+  }
+
+  private void writeLocalHeader(Header h, boolean zip64) throws IOException {
+    if (finished)
+      throw new IOException("ZIP has already been finished");
+    if (open != null)
+      throw new IOException("Entry " + open.name + " has not been ended");
+    h.offset = written;
+    if (sourceDosTime >= 0) {
+      h.dosTime = sourceDosTime;
+      h.mode = normalMode(h.mode, h.directory);
+    }
+    byte[] name = h.name.getBytes(UTF8);
+    // The sizes of an entry with a data descriptor are left as zero until the descriptor
+    long crc = h.descriptor ? 0 : h.crc;
+    long size = h.descriptor ? 0 : h.size;
+    long compressedSize = h.descriptor ? 0 : h.compressedSize;
+
+    writeInt(LOCAL_HEADER_SIG);
+    writeShort(zip64 ? 45 : (h.method == ZipEntry.DEFLATED || h.directory ? 20 : 10));
+    writeShort(h.getFlags());
+    writeShort(h.method);
+    writeInt(h.getDosTime());
+    writeInt(crc);
+    writeInt(zip64 ? ZIP64_MAGIC : compressedSize);
+    writeInt(zip64 ? ZIP64_MAGIC : size);
+    writeShort(name.length);
+    writeShort(zip64 ? 20 : 0);
+    writeBytes(name, 0, name.length);
+    if (zip64) {
+      writeShort(ZIP64_EXTRA_ID);
+      writeShort(16);
+      writeLong(size);
+      writeLong(compressedSize);
+    }
+  }
+
+  /**
+   * Writes the central directory.  The underlying stream is flushed but not closed.
+   *
+   * @throws IOException if the central directory cannot be written.
+   */
+  public void finish() throws IOException {
+    if (finished)
+      return;
+    if (open != null)
+      throw new IOException("Entry " + open.name + " has not been ended");
+    finished = true;
+    long cdOffset = written;
+    for (Header h : central) {
+      writeCentralHeader(h);
+    }
+    long cdSize = written - cdOffset;
+    int count = central.size();
+
+    if (count >= ZIP64_MAGIC_COUNT || cdOffset >= ZIP64_MAGIC || cdSize >= ZIP64_MAGIC) {
+      long zip64End = written;
+      writeInt(ZIP64_END_SIG);
+      writeLong(44);
+      writeShort(UNIX_HOST | 45);
+      writeShort(45);
+      writeInt(0);
+      writeInt(0);
+      writeLong(count);
+      writeLong(count);
+      writeLong(cdSize);
+      writeLong(cdOffset);
+
+      writeInt(ZIP64_LOCATOR_SIG);
+      writeInt(0);
+      writeLong(zip64End);
+      writeInt(1);
+    }
+
+    writeInt(END_SIG);
+    writeShort(0);
+    writeShort(0);
+    writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+    writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+    writeInt(Math.min(cdSize, ZIP64_MAGIC));
+    writeInt(Math.min(cdOffset, ZIP64_MAGIC));
+    writeShort(0);
+    out.flush();
+  }
+
+  /**
+   * @return The number of bytes written so far.
+   */
+  public long getBytesWritten() {
+    return written;
+  }
+
+  /**
+   * @return The number of entries written so far.
+   */
+  public int getEntryCount() {
+    return central.size();
+  }
+
+  private void writeCentralHeader(Header h) throws IOException {
+    byte[] name = h.name.getBytes(UTF8);
+    boolean sizes64 = h.size >= ZIP64_MAGIC || h.compressedSize >= ZIP64_MAGIC;
+    boolean offset64 = h.offset >= ZIP64_MAGIC;
+    int extra = (sizes64 ? 16 : 0) + (offset64 ? 8 : 0);
+    int version = (sizes64 || offset64) ? 45 : 20;
+
+    writeInt(CENTRAL_HEADER_SIG);
+    writeShort(UNIX_HOST | version);
+    writeShort(version);
+    writeShort(h.getFlags());
+    writeShort(h.method);
+    writeInt(h.getDosTime());
+    writeInt(h.crc);
+    writeInt(sizes64 ? ZIP64_MAGIC : h.compressedSize);
+    writeInt(sizes64 ? ZIP64_MAGIC : h.size);
+    writeShort(name.length);
+    writeShort(extra > 0 ? extra + 4 : 0);
+    writeShort(0);
+    writeShort(0);
+    writeShort(0);
+    writeInt(((long) h.getUnixMode() << 16) | (h.directory ? 0x10 : 0));
+    writeInt(offset64 ? ZIP64_MAGIC : h.offset);
+    writeBytes(name, 0, name.length);
+    if (extra > 0) {
+      writeShort(ZIP64_EXTRA_ID);
+      writeShort(extra);
+      if (sizes64) {
+        writeLong(h.size);
+        writeLong(h.compressedSize);
+      }
+      if (offset64)
+        writeLong(h.offset);
+    }
+  }
+
+  private long copy(InputStream in, long limit) throws IOException {
+    byte[] buffer = new byte[(1 << 10) * 64];
+    long total = 0;
+    while (total < limit) {
+      int count = in.read(buffer, 0, (int) Math.min(buffer.length, limit - total));
+      if (count == -1)
+        break;
+      writeBytes(buffer, 0, count);
+      total += count;
+    }
+    return total;
+  }
+
+  private void writeBytes(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+    written += len;
+  }
+
+  private void writeShort(int v) throws IOException {
+    out.write(v & 0xff);
+    out.write((v >>> 8) & 0xff);
+    written += 2;
+  }
+
+  private void writeInt(long v) throws IOException {
+    writeShort((int) (v & 0xffff));
+    writeShort((int) ((v >>> 16) & 0xffff));
+  }
+
+  private void writeLong(long v) throws IOException {
+    writeInt(v & 0xffffffffL);
+    writeInt(v >>> 32);
+  }
+
+  /**
+   * Converts a java time into the MS-DOS date and time format used by ZIP headers, which has no
+   * time zone; the local one is used.
+   */
+  static long toDosTime(long time) {
+    return toDosTime(time, TimeZone.getDefault());
+  }
+
+  /**
+   * Converts a java time into the MS-DOS date and time format, in the given time zone.
+   */
+  static long toDosTime(long time, TimeZone zone) {
+    Calendar c = Calendar.getInstance(zone);
+    c.setTimeInMillis(time);
+    int year = c.get(Calendar.YEAR);
+    if (year < 1980)
+      return (1 << 21) | (1 << 16);
+    return ((long) (year - 1980) << 25) | ((long) (c.get(Calendar.MONTH) + 1) << 21)
+        | ((long) c.get(Calendar.DAY_OF_MONTH) << 16) | ((long) c.get(Calendar.HOUR_OF_DAY) << 11)
+        | ((long) c.get(Calendar.MINUTE) << 5) | ((long) c.get(Calendar.SECOND) >> 1);
+  }
+
+  /**
+   * The information recorded for a single entry in both the local and central headers.
+   */
+  public static class Header {
+    final String name;
+    int method = ZipEntry.DEFLATED;
+    long time;
+    long dosTime = -1;
+    long crc;
+    long size;
+    long compressedSize;
+    int mode;
+    boolean directory;
+    boolean descriptor;
+    long offset;
+
+    public Header(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getMethod() {
+      return method;
+    }
+
+    public void setMethod(int method) {
+      this.method = method;
+    }
+
+    public long getTime() {
+      return time;
+    }
+
+    public void setTime(long time) {
+      this.time = time;
+    }
+
+    /**
+     * Sets the time in the MS-DOS format used by ZIP headers, as read from another archive.  This
+     * takes precedence over {@link #setTime(long)}.
+     */
+    public void setDosTime(long dosTime) {
+      this.dosTime = dosTime;
+    }
+
+    long getDosTime() {
+      return dosTime >= 0 ? dosTime : toDosTime(time);
+    }
+
+    public long getCrc() {
+      return crc;
+    }
+
+    public void setCrc(long crc) {
+      this.crc = crc;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public void setSize(long size) {
+      this.size = size;
+    }
+
+    public long getCompressedSize() {
+      return compressedSize;
+    }
+
+    public void setCompressedSize(long compressedSize) {
+      this.compressedSize = compressedSize;
+    }
+
+    public int getMode() {
+      return mode;
+    }
+
+    public void setMode(int mode) {
+      this.mode = mode;
+    }
+
+    public boolean isDirectory() {
+      return directory;
+    }
+
+    int getUnixMode() {
+      return (directory ? 040000 : 0100000) | (mode & 07777);
+    }
+
+    int getFlags() {
+      int flags = descriptor ? DESCRIPTOR_FLAG : 0;
+      for (int i = 0; i < name.length(); i++) {
+        if (name.charAt(i) > 0x7f)
+          return flags | EFS_FLAG;
+      }
+      return flags;
+    }
+  }
+
+}
@@ -0,0 +1,82 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+
+public class BackgroundCleanerTest extends TestCase {
+  private File work;
+
+  protected void setUp() throws Exception {
+    work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+    work.mkdirs();
+  }
+
+  public void testDelete() throws Exception {
+    File dir = new File(work, "temp");
+    int files = tree(dir, 3, 4);
+    assertEquals(4 * (1 + 3 + 9 + 27), files);
+    File outside = new File(work, "outside");
+    outside.mkdirs();
+    write(new File(outside, "keep.txt"));
+    Files.createSymbolicLink(new File(dir, "link").toPath(), outside.getAbsoluteFile().toPath());
+
+    File tombstone = BackgroundCleaner.delete(dir);
+    assertFalse(dir.exists());
+    assertNotNull(tombstone);
+    assertEquals(work.getAbsoluteFile(), tombstone.getParentFile());
+    assertTrue(tombstone.getName().startsWith(BackgroundCleaner.TOMBSTONE + "temp-"));
+    // The name is free straight away
+    assertTrue(dir.mkdirs());
+
+    assertTrue(BackgroundCleaner.await(30000));
+    assertFalse(tombstone.exists());
+    assertTrue(new File(outside, "keep.txt").isFile());
+    assertTrue(dir.isDirectory());
+    assertNull(BackgroundCleaner.delete(new File(work, "absent")));
+  }
+
+  public void testSweep() throws Exception {
+    tree(new File(work, BackgroundCleaner.TOMBSTONE + "temp-1"), 2, 3);
+    tree(new File(work, BackgroundCleaner.TOMBSTONE + "rpm-2"), 2, 3);
+    tree(new File(work, "temp"), 1, 1);
+
+    assertEquals(2, BackgroundCleaner.sweep(work));
+    assertTrue(BackgroundCleaner.await(30000));
+    String[] left = work.list();
+    assertEquals(1, left.length);
+    assertEquals("temp", left[0]);
+    assertEquals(0, BackgroundCleaner.sweep(new File(work, "absent")));
+  }
+
+  /**
+   * Writes a tree of the given depth, each directory with three subdirectories.
+   */
+  private static int tree(File dir, int depth, int filesPerDirectory) throws IOException {
+    dir.mkdirs();
+    for (int i = 0; i < filesPerDirectory; i++)
+      write(new File(dir, "file" + i));
+    int files = filesPerDirectory;
+    for (int i = 0; depth > 0 && i < 3; i++)
+      files += tree(new File(dir, "dir" + i), depth - 1, filesPerDirectory);
+    return files;
+  }
+
+  private static void write(File f) throws IOException {
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(f.getName().getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+  }
+
+}
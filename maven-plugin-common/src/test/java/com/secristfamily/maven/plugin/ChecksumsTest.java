@@ -0,0 +1,78 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+
+public class ChecksumsTest extends TestCase {
+  private File work;
+
+  protected void setUp() throws Exception {
+    work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+    work.mkdirs();
+  }
+
+  public void testWrap() throws Exception {
+    byte[] content = content(300000);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Checksums sums = new Checksums();
+    OutputStream out = sums.wrap(bytes);
+    out.write(content[0]);
+    out.write(content, 1, content.length - 1);
+    out.close();
+
+    assertTrue(java.util.Arrays.equals(content, bytes.toByteArray()));
+    assertEquals(hex("MD5", content), sums.getMD5());
+    assertEquals(hex("SHA-256", content), sums.getSHA256());
+    assertEquals(hex("SHA-512", content), sums.getSHA512());
+  }
+
+  public void testCopyAndSidecars() throws Exception {
+    byte[] content = content(200000);
+    File from = new File(work, "from.bin");
+    FileOutputStream out = new FileOutputStream(from);
+    out.write(content);
+    out.close();
+    from.setLastModified(1400000000000L);
+
+    File to = new File(work, "app-1.0.zip");
+    Checksums sums = new Checksums();
+    sums.copy(from, to);
+    assertTrue(java.util.Arrays.equals(content, Files.readAllBytes(to.toPath())));
+    assertEquals(from.lastModified(), to.lastModified());
+
+    Checksums read = new Checksums();
+    read.digest(to);
+    assertEquals(read.getSHA512(), sums.getSHA512());
+
+    sums.writeSidecars(to);
+    assertEquals(hex("SHA-256", content) + "  app-1.0.zip\n",
+        new String(Files.readAllBytes(new File(work, "app-1.0.zip.sha256").toPath()), "US-ASCII"));
+    assertEquals(hex("SHA-512", content) + "  app-1.0.zip\n",
+        new String(Files.readAllBytes(new File(work, "app-1.0.zip.sha512").toPath()), "US-ASCII"));
+  }
+
+  private static byte[] content(int size) {
+    byte[] b = new byte[size];
+    for (int i = 0; i < size; i++)
+      b[i] = (byte) (i * 31 + (i >> 7));
+    return b;
+  }
+
+  private static String hex(String algorithm, byte[] content) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : MessageDigest.getInstance(algorithm).digest(content))
+      sb.append(String.format("%02x", b & 0xff));
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,33 @@
+package com.secristfamily.maven.plugin;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class CompressionPolicyTest extends TestCase {
+  public void testChoose() {
+    CompressionPolicy policy = new CompressionPolicy();
+    assertEquals(CompressionPolicy.STORE, policy.choose("lib/commons-cli-1.0.jar", 30000));
+    assertEquals(CompressionPolicy.STORE, policy.choose("web/logo.PNG", 30000));
+    assertEquals(CompressionPolicy.DEFLATE, policy.choose("web/index.html", 30000));
+
+    policy.setStore(Arrays.asList("**/data/**"));
+    policy.setStoreBelow(64);
+    assertEquals(CompressionPolicy.STORE, policy.choose("web/data/table.csv", 30000));
+    assertEquals(CompressionPolicy.STORE, policy.choose("web/tiny.txt", 10));
+
+    policy.setAdaptive(true);
+    assertEquals(CompressionPolicy.SAMPLE, policy.choose("web/index.html", 30000));
+  }
+
+  public void testSample() {
+    CompressionPolicy policy = new CompressionPolicy();
+    byte[] text = new byte[4096];
+    Arrays.fill(text, (byte) 'a');
+    byte[] noise = new byte[4096];
+    new Random(7).nextBytes(noise);
+    assertTrue(policy.isWorthDeflating(text, text.length));
+    assertFalse(policy.isWorthDeflating(noise, noise.length));
+  }
+}
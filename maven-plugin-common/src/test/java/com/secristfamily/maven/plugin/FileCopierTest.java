@@ -0,0 +1,54 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+
+public class FileCopierTest extends TestCase {
+  private File work;
+  private File source;
+  private byte[] content;
+
+  protected void setUp() throws Exception {
+    work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+    work.mkdirs();
+    source = new File(work, "source.jar");
+    content = new byte[(1 << 10) * 300];
+    for (int i = 0; i < content.length; i++)
+      content[i] = (byte) i;
+    Files.write(source.toPath(), content);
+    Files.setPosixFilePermissions(source.toPath(), PosixFilePermissions.fromString("rwxr-x---"));
+    source.setLastModified(1262304000000L);
+  }
+
+  public void testCopy() throws Exception {
+    File dest = new File(work, "copy.jar");
+    FileCopier copier = new FileCopier(false);
+    copier.copy(source, dest);
+    assertTrue(Arrays.equals(content, Files.readAllBytes(dest.toPath())));
+    assertFalse(Files.isSameFile(source.toPath(), dest.toPath()));
+    assertEquals(source.lastModified(), dest.lastModified());
+    assertEquals("rwxr-x---", PosixFilePermissions.toString(Files.getPosixFilePermissions(dest.toPath())));
+    assertEquals(1, copier.getFilesCopied());
+    assertEquals(content.length, copier.getBytesCopied());
+    assertEquals(0, copier.getBytesLinked());
+  }
+
+  public void testLink() throws Exception {
+    File dest = new File(work, "link.jar");
+    Files.write(dest.toPath(), new byte[] { 1 });
+    FileCopier copier = new FileCopier(true);
+    copier.copy(source, dest);
+    assertTrue(Files.isSameFile(source.toPath(), dest.toPath()));
+    assertEquals(1, copier.getFilesLinked());
+    assertEquals(content.length, copier.getBytesLinked());
+    assertEquals(0, copier.getBytesCopied());
+  }
+}
@@ -0,0 +1,153 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+public class JarRewriterTest extends TestCase {
+  private File work;
+
+  protected void setUp() throws Exception {
+    work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+    work.mkdirs();
+  }
+
+  public void testRewrite() throws IOException {
+    Random random = new Random(7);
+    byte[] text = new byte[(1 << 10) * 40];
+    for (int i = 0; i < text.length; i++)
+      text[i] = (byte) ('a' + random.nextInt(8));
+    byte[] noise = new byte[(1 << 10) * 8];
+    random.nextBytes(noise);
+
+    File jar = new File(work, "primary.jar");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      put(out, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\nOld: yes\r\n\r\n".getBytes("UTF-8"), false);
+      put(out, "META-INF/maven/g/a/pom.xml", "<project/>".getBytes("UTF-8"), false);
+      out.putNextEntry(new ZipEntry("com/example/"));
+      out.closeEntry();
+      put(out, "com/example/Text.txt", text, false);
+      put(out, "com/example/Noise.bin", noise, true);
+    }
+    finally {
+      out.close();
+    }
+
+    ZipFile original = new ZipFile(jar);
+    long textCompressed;
+    try {
+      textCompressed = original.getEntry("com/example/Text.txt").getCompressedSize();
+    }
+    finally {
+      original.close();
+    }
+
+    JarRewriter rewriter = new JarRewriter();
+    rewriter.exclude("META-INF/");
+    rewriter.addEntry("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\nNew: yes\r\n\r\n".getBytes("UTF-8"));
+    assertEquals(3, rewriter.rewrite(jar));
+
+    ZipFile zf = new ZipFile(jar);
+    try {
+      assertNotNull(zf.getEntry("META-INF/"));
+      assertNull(zf.getEntry("META-INF/maven/g/a/pom.xml"));
+      assertTrue(new String(read(zf.getInputStream(zf.getEntry("META-INF/MANIFEST.MF"))), "UTF-8").contains("New: yes"));
+      assertNotNull(zf.getEntry("com/example/"));
+
+      ZipEntry e = zf.getEntry("com/example/Text.txt");
+      assertEquals(ZipEntry.DEFLATED, e.getMethod());
+      assertEquals(textCompressed, e.getCompressedSize());
+      assertTrue(Arrays.equals(text, read(zf.getInputStream(e))));
+
+      e = zf.getEntry("com/example/Noise.bin");
+      assertEquals(ZipEntry.STORED, e.getMethod());
+      assertTrue(Arrays.equals(noise, read(zf.getInputStream(e))));
+    }
+    finally {
+      zf.close();
+    }
+  }
+
+  /**
+   * Two JARs of the same content, built at different times by different people with their
+   * entries in a different order, come out the same.
+   */
+  public void testNormalize() throws IOException {
+    File[] jars = { new File(work, "a.jar"), new File(work, "b.jar") };
+    for (int i = 0; i < jars.length; i++) {
+      String manifest = "Manifest-Version: 1.0\r\nBuilt-By: user" + i + "\r\nCreated-By: Apache Maven 3." + i
+          + "\r\nMain-Class: com.example.Main\r\nBuild-Jdk: 1.7.0_8" + i + "\r\n  0\r\n\r\n";
+      String properties = "#Generated by Maven\n#Mon Oct 1" + i + " 10:00:00 UTC 2026\nversion=1.0\n";
+      String[] order = i == 0 ? new String[] { "com/example/A.class", "com/example/B.class" }
+          : new String[] { "com/example/B.class", "com/example/A.class" };
+      ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jars[i]));
+      try {
+        put(out, "META-INF/MANIFEST.MF", manifest.getBytes("UTF-8"), false);
+        put(out, "META-INF/maven/g/a/pom.properties", properties.getBytes("UTF-8"), false);
+        for (String name : order) {
+          ZipEntry e = new ZipEntry(name);
+          e.setTime(1400000000000L + i * 86400000L);
+          out.putNextEntry(e);
+          out.write(name.getBytes("UTF-8"));
+          out.closeEntry();
+        }
+      }
+      finally {
+        out.close();
+      }
+      JarRewriter.normalize(jars[i], 1500000000000L);
+    }
+
+    assertTrue(Arrays.equals(Files.readAllBytes(jars[0].toPath()), Files.readAllBytes(jars[1].toPath())));
+    ZipFile zip = new ZipFile(jars[0]);
+    try {
+      assertEquals("Manifest-Version: 1.0\r\nMain-Class: com.example.Main\r\n\r\n",
+          new String(read(zip.getInputStream(zip.getEntry("META-INF/MANIFEST.MF"))), "UTF-8"));
+      assertEquals("#Generated by Maven\nversion=1.0\n",
+          new String(read(zip.getInputStream(zip.getEntry("META-INF/maven/g/a/pom.properties"))), "UTF-8"));
+      assertEquals("com/example/A.class", new String(read(zip.getInputStream(zip.getEntry("com/example/A.class"))), "UTF-8"));
+    }
+    finally {
+      zip.close();
+    }
+  }
+
+  private static void put(ZipOutputStream out, String name, byte[] content, boolean stored) throws IOException {
+    ZipEntry e = new ZipEntry(name);
+    if (stored) {
+      CRC32 crc = new CRC32();
+      crc.update(content);
+      e.setMethod(ZipEntry.STORED);
+      e.setSize(content.length);
+      e.setCrc(crc.getValue());
+    }
+    out.putNextEntry(e);
+    out.write(content);
+    out.closeEntry();
+  }
+
+  private static byte[] read(InputStream in) throws IOException {
+    try {
+      return IOUtil.toByteArray(in);
+    }
+    finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.secristfamily.maven.plugin;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class PathFilterTest extends TestCase {
+
+  public void testRegexes() {
+    PathFilter filter = PathFilter.compile(Arrays.asList("\\.svn", ".*\\.bak", "Thumbs\\.db", "te?mp[0-9]+"), null);
+    assertTrue(filter.excludes("web/.svn", true));
+    assertTrue(filter.excludes("web/index.html.bak", false));
+    assertTrue(filter.excludes("old.bak", true));
+    assertTrue(filter.excludes("web/images/Thumbs.db", false));
+    assertTrue(filter.excludes("tmp42", true));
+    assertFalse(filter.excludes("web/index.html", false));
+    assertFalse(filter.excludes("web/bak", false));
+    assertFalse(filter.excludes("web/Thumbs.dbx", false));
+    assertFalse(filter.excludes("temp", false));
+  }
+
+  public void testGlobs() {
+    PathFilter filter = PathFilter.compile(null, Arrays.asList("**/*.log", "web/tmp/**", "**/CVS/", "conf/local.properties",
+        "web/*/cache/**", "**/test?.txt", "docs/**/draft-*"));
+    assertTrue(filter.excludes("server.log", false));
+    assertTrue(filter.excludes("logs/2010/server.log", false));
+    assertFalse(filter.excludes("logs/archive.log", true));
+    assertTrue(filter.excludes("web/tmp", true));
+    assertTrue(filter.excludes("web/tmp/a/b.html", false));
+    assertFalse(filter.excludes("web/tmpfiles", true));
+    assertTrue(filter.excludes("src/CVS", true));
+    assertTrue(filter.excludes("conf/local.properties", false));
+    assertFalse(filter.excludes("conf/local.properties.sample", false));
+    assertFalse(filter.excludes("other/conf/local.properties", false));
+    assertTrue(filter.excludes("web/en/cache", true));
+    assertFalse(filter.excludes("web/en/fr/cache", true));
+    assertTrue(filter.excludes("a/test1.txt", false));
+    assertFalse(filter.excludes("a/test12.txt", false));
+    assertTrue(filter.excludes("docs/draft-1.html", false));
+    assertTrue(filter.excludes("docs/a/b/draft-2.html", false));
+    assertFalse(filter.excludes("docs/a/final.html", false));
+  }
+
+  public void testGlobToRegex() {
+    assertEquals("(?:.*/)?[^/]*\\.java", PathFilter.globToRegex("**/*.java"));
+    assertEquals("a(?:/.*)?/b", PathFilter.globToRegex("a/**/b"));
+    assertEquals("a/b(?:/.*)?", PathFilter.globToRegex("a/b/**"));
+  }
+
+  public void testEmpty() {
+    PathFilter filter = PathFilter.compile(null, null);
+    assertTrue(filter.isEmpty());
+    assertFalse(filter.excludes("anything", false));
+  }
+}
@@ -0,0 +1,46 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+
+public class PerfReportTest extends TestCase {
+
+  public void testWrite() throws Exception {
+    File work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+
+    PerfReport report = new PerfReport("zip");
+    report.start("plan").files(3).end();
+    PerfReport.Phase zip = report.start("zip").read(100).wrote(40);
+    zip.end();
+    zip.end();
+    report.start("zip").read(50).end();
+    report.add("rpmbuild %install", 7);
+
+    File f = new File(work, "perf.json");
+    report.write(f, "g:a:1.0");
+    String json = new String(Files.readAllBytes(f.toPath()), "UTF-8");
+    assertTrue(json, json.contains("\"goal\": \"zip\""));
+    assertTrue(json, json.contains("\"project\": \"g:a:1.0\""));
+    assertTrue(json, json.contains("{\"name\": \"plan\", \"count\": 1,"));
+    assertTrue(json, json.contains("\"files\": 3}"));
+    assertTrue(json, json.contains("{\"name\": \"zip\", \"count\": 2,"));
+    assertTrue(json, json.contains("\"bytesRead\": 150, \"bytesWritten\": 40,"));
+    assertTrue(json, json.contains("{\"name\": \"rpmbuild %install\", \"count\": 1, \"wallMillis\": 7,"));
+    assertTrue(json.indexOf("\"plan\"") < json.indexOf("\"zip\", \"count\""));
+
+    assertTrue(report.getSummary(), report.getSummary().startsWith("zip took "));
+    assertTrue(report.getSummary(), report.getSummary().contains("rpmbuild %install 7 ms"));
+  }
+
+  public void testQuote() {
+    assertEquals("null", PerfReport.quote(null));
+    assertEquals("\"a\\\"b\\\\c\\u000a\"", PerfReport.quote("a\"b\\c\n"));
+  }
+
+}
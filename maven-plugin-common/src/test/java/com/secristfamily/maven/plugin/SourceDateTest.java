@@ -0,0 +1,31 @@
+package com.secristfamily.maven.plugin;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+public class SourceDateTest extends TestCase {
+
+  public void testResolve() throws Exception {
+    assertEquals(-1, SourceDate.resolve(null, null));
+    assertEquals(-1, SourceDate.resolve("", " "));
+    assertEquals(1500000000000L, SourceDate.resolve("1500000000", null));
+    assertEquals(1500000000000L, SourceDate.resolve(null, "1500000000"));
+    assertEquals(1500000000000L, SourceDate.resolve("2017-07-14T02:40:00Z", "1"));
+    assertEquals(1500000000000L, SourceDate.resolve("2017-07-14T04:40:00+02:00", null));
+    // A single character turns it off, whatever the environment says
+    assertEquals(-1, SourceDate.resolve("x", "1500000000"));
+    assertEquals("2017-07-14T02:40:00Z", SourceDate.format(1500000000000L));
+  }
+
+  public void testInvalid() throws Exception {
+    try {
+      SourceDate.resolve("yesterday", null);
+      fail();
+    }
+    catch (MojoExecutionException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("outputTimestamp"));
+    }
+  }
+
+}
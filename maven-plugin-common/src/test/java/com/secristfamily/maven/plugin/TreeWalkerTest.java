@@ -0,0 +1,59 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+
+public class TreeWalkerTest extends TestCase {
+  private File work;
+
+  protected void setUp() throws Exception {
+    work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+    for (int i = 0; i < 20; i++) {
+      File dir = new File(work, "tree/d" + (i % 4) + "/e" + (i % 3));
+      dir.mkdirs();
+      new File(dir, "f" + i + ".txt").createNewFile();
+    }
+    new File(work, "tree/d1/skip").mkdirs();
+    new File(work, "tree/d1/skip/hidden.txt").createNewFile();
+  }
+
+  public void testWalk() throws IOException {
+    final Set<String> seen = new HashSet<String>();
+    PathFilter filter = PathFilter.compile(Arrays.asList("skip"), null);
+    // A tiny queue forces the walkers to block on the visitor
+    new TreeWalker(4, 2).walk(new File(work, "tree"), "root", filter, new TreeWalker.Visitor() {
+      public void visit(File file, String path, boolean directory) throws IOException {
+        String parent = path.substring(0, path.lastIndexOf('/'));
+        assertTrue("parent of " + path + " visited first", parent.equals("root") || seen.contains(parent + "/"));
+        assertTrue(seen.add(path + (directory ? "/" : "")));
+        assertEquals(directory, file.isDirectory());
+      }
+    });
+    assertEquals(4 + 12 + 20, seen.size());
+    assertTrue(seen.contains("root/d1/e1/f13.txt"));
+    assertFalse(seen.contains("root/d1/skip/"));
+  }
+
+  public void testVisitorFailure() {
+    try {
+      new TreeWalker(2, 1).walk(new File(work, "tree"), "", null, new TreeWalker.Visitor() {
+        public void visit(File file, String path, boolean directory) throws IOException {
+          throw new IOException("stop");
+        }
+      });
+      fail();
+    }
+    catch (IOException e) {
+      assertEquals("stop", e.getMessage());
+    }
+  }
+}
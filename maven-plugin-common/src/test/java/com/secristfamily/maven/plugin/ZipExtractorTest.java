@@ -0,0 +1,87 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+
+public class ZipExtractorTest extends TestCase {
+  private File work;
+
+  protected void setUp() throws Exception {
+    work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+    work.mkdirs();
+  }
+
+  public void testExtract() throws Exception {
+    File zip = new File(work, "in.jar");
+    Random random = new Random(7);
+    byte[][] contents = new byte[200][];
+    ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip));
+    try {
+      zos.putNextEntry(new ZipEntry("empty/"));
+      for (int i = 0; i < contents.length; i++) {
+        contents[i] = new byte[random.nextInt(1 << 16)];
+        if (i % 2 == 0)
+          random.nextBytes(contents[i]);
+        ZipEntry entry = new ZipEntry("d" + (i % 7) + "/e" + (i % 3) + "/f" + i + ".bin");
+        if (i % 5 == 0) {
+          CRC32 crc = new CRC32();
+          crc.update(contents[i]);
+          entry.setMethod(ZipEntry.STORED);
+          entry.setSize(contents[i].length);
+          entry.setCrc(crc.getValue());
+        }
+        zos.putNextEntry(entry);
+        zos.write(contents[i]);
+      }
+    }
+    finally {
+      zos.close();
+    }
+
+    File dest = new File(work, "out");
+    assertEquals(contents.length, new ZipExtractor(4).extract(zip, dest));
+    assertTrue(new File(dest, "empty").isDirectory());
+    for (int i = 0; i < contents.length; i++) {
+      File f = new File(dest, "d" + (i % 7) + "/e" + (i % 3) + "/f" + i + ".bin");
+      assertTrue(f.getPath(), Arrays.equals(contents[i], Files.readAllBytes(f.toPath())));
+    }
+  }
+
+  public void testRejectsEscapingEntries() throws Exception {
+    for (String name : new String[] { "../evil.txt", "a/../../evil.txt", "/tmp/evil.txt" }) {
+      File zip = new File(work, "evil.zip");
+      ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip));
+      try {
+        zos.putNextEntry(new ZipEntry("fine.txt"));
+        zos.putNextEntry(new ZipEntry(name));
+        zos.write(1);
+      }
+      finally {
+        zos.close();
+      }
+      File dest = new File(work, "out");
+      try {
+        new ZipExtractor(2).extract(zip, dest);
+        fail(name + " was extracted");
+      }
+      catch (ZipException e) {
+        ;
+      }
+      assertFalse(new File(work, "evil.txt").exists());
+      assertFalse(new File(dest, "fine.txt").exists());
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written through it.
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+  private long count = 0;
+
+  CountingOutputStream(OutputStream out) {
+    super(out);
+  }
+
+  public void write(int b) throws IOException {
+    out.write(b);
+    count++;
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+    count += len;
+  }
+
+  long getCount() {
+    return count;
+  }
+
+}
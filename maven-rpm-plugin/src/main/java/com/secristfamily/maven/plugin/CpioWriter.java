@@ -0,0 +1,145 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Writes a cpio stream in the SVR4 "newc" format (magic <code>070701</code>), the payload format
+ * of an RPM.  Unlike tar, each header is padded only to a multiple of four bytes.
+ */
+public class CpioWriter {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String MAGIC = "070701";
+  private static final String TRAILER = "TRAILER!!!";
+
+  public static final int S_IFDIR = 0040000;
+  public static final int S_IFREG = 0100000;
+
+  private final OutputStream out;
+  private long written = 0;
+  private long remaining = 0;
+
+  public CpioWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Starts a new entry.  For regular files exactly <code>size</code> bytes must then be written
+   * with {@link #write(byte[], int, int)} before the next entry.
+   *
+   * @param name The name of the entry, as it is to be unpacked (RPM payloads use <code>./path</code>).
+   * @param mode The file type and permission bits, as in <code>st_mode</code>.
+   * @param size The size of the content; zero for directories.
+   * @param mtime The modification time, in seconds.
+   * @param inode The inode number, unique within the stream.
+   * @param nlink The number of links.
+   * @throws IOException if the header cannot be written.
+   */
+  public void putEntry(String name, int mode, long size, long mtime, int inode, int nlink) throws IOException {
+    closeEntry();
+    if (size > 0xffffffffL)
+      throw new IOException(name + " is too large for a cpio archive");
+    byte[] nameBytes = name.getBytes(UTF8);
+    StringBuilder h = new StringBuilder(110);
+    h.append(MAGIC);
+    hex(h, inode);
+    hex(h, mode);
+    hex(h, 0); // uid
+    hex(h, 0); // gid
+    hex(h, nlink);
+    hex(h, mtime);
+    hex(h, size);
+    hex(h, 0); // dev major
+    hex(h, 1); // dev minor
+    hex(h, 0); // rdev major
+    hex(h, 0); // rdev minor
+    hex(h, nameBytes.length + 1);
+    hex(h, 0); // check
+    byte[] header = h.toString().getBytes(UTF8);
+    writeBytes(header, 0, header.length);
+    writeBytes(nameBytes, 0, nameBytes.length);
+    writeBytes(new byte[1], 0, 1);
+    pad();
+    remaining = size;
+  }
+
+  /**
+   * Writes entry data.
+   */
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (len > remaining)
+      throw new IOException("Entry data exceeds the size given in its header");
+    writeBytes(b, off, len);
+    remaining -= len;
+  }
+
+  /**
+   * Writes the content of a regular file, streaming it from disk.  The entry must have been
+   * started with the size of the file.
+   *
+   * @throws IOException if the file is not the size given in the header.
+   */
+  public void copy(File src) throws IOException {
+    byte[] buffer = new byte[(1 << 10) * 64];
+    InputStream in = new FileInputStream(src);
+    try {
+      int count;
+      while (remaining > 0 && (count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1)
+        write(buffer, 0, count);
+      if (remaining == 0 && in.read() != -1)
+        throw new IOException(src.getPath() + " is longer than the size given in its header");
+    }
+    finally {
+      in.close();
+    }
+    closeEntry();
+  }
+
+  /**
+   * Pads the current entry to a four byte boundary.
+   *
+   * @throws IOException if fewer bytes were written than the header promised.
+   */
+  public void closeEntry() throws IOException {
+    if (remaining > 0)
+      throw new IOException("Entry is " + remaining + " bytes short of the size given in its header");
+    pad();
+  }
+
+  /**
+   * Writes the trailer entry.  The underlying stream is flushed but not closed.
+   */
+  public void finish() throws IOException {
+    putEntry(TRAILER, 0, 0, 0, 0, 1);
+    closeEntry();
+    out.flush();
+  }
+
+  public long getBytesWritten() {
+    return written;
+  }
+
+  private void pad() throws IOException {
+    int tail = (int) (written % 4);
+    if (tail != 0)
+      writeBytes(new byte[4 - tail], 0, 4 - tail);
+  }
+
+  private void writeBytes(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+    written += len;
+  }
+
+  private static void hex(StringBuilder h, long value) {
+    String s = Long.toHexString(value & 0xffffffffL);
+    for (int i = s.length(); i < 8; i++)
+      h.append('0');
+    h.append(s);
+  }
+
+}
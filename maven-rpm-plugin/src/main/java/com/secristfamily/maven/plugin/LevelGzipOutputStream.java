@@ -0,0 +1,21 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A gzip stream whose deflate level can be changed between entries.
+ */
+class LevelGzipOutputStream extends GZIPOutputStream {
+
+  LevelGzipOutputStream(OutputStream out, int level) throws IOException {
+    super(out, (1 << 10) * 64);
+    def.setLevel(level);
+  }
+
+  void setLevel(int level) {
+    def.setLevel(level);
+  }
+
+}
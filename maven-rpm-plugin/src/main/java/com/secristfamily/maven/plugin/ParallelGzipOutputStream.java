@@ -0,0 +1,279 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip stream which deflates on several threads, in the manner of <code>pigz</code>.
+ * <p>
+ * The data is cut into blocks which are deflated in parallel.  Each block is primed with the
+ * last 32 KB of the block before it, so matches reach back across block boundaries and the
+ * compression is close to that of a single deflate stream.  Every block but the last ends with a
+ * sync flush, which byte-aligns it, so the blocks simply follow one another in a single, ordinary
+ * gzip member that any gzip reader accepts.  The CRC is computed as the data is written.
+ * <p>
+ * The level may be changed between writes, as with {@link LevelGzipOutputStream}: the
+ * block being filled is closed and the next block is deflated at the new level.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+  /** The default amount of data deflated by each task. */
+  public static final int DEFAULT_BLOCK_SIZE = (1 << 10) * 128;
+
+  private static final int DICTIONARY_SIZE = (1 << 10) * 32;
+  private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+  private final OutputStream out;
+  private final int blockSize;
+  private final int maxPending;
+  private final ExecutorService pool;
+  private final Deque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+  private final CRC32 crc = new CRC32();
+  private byte[] block;
+  private int count = 0;
+  private byte[] dictionary;
+  private int level;
+  private long totalIn = 0;
+  private long deflatedOut = 0;
+  private long deflateCpu = 0;
+  private boolean finished = false;
+
+  /**
+   * @param out The stream the gzip data is written to.
+   * @param level The deflate level, 0-9 or -1 for the zlib default.
+   * @param threads The number of deflate workers, or zero (or less) for one per processor.
+   */
+  public ParallelGzipOutputStream(OutputStream out, int level, int threads) throws IOException {
+    this(out, level, threads, DEFAULT_BLOCK_SIZE);
+  }
+
+  /**
+   * @param out The stream the gzip data is written to.
+   * @param level The deflate level, 0-9 or -1 for the zlib default.
+   * @param threads The number of deflate workers, or zero (or less) for one per processor.
+   * @param blockSize The amount of data deflated by each task.
+   */
+  public ParallelGzipOutputStream(OutputStream out, int level, int threads, int blockSize) throws IOException {
+    this.out = out;
+    this.level = level;
+    this.blockSize = Math.max(DICTIONARY_SIZE, blockSize);
+    int workers = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    this.maxPending = workers * 2;
+    this.pool = Executors.newFixedThreadPool(workers, new WorkerFactory());
+    this.block = new byte[this.blockSize];
+    out.write(HEADER);
+  }
+
+  /**
+   * Sets the level of the data written from now on.
+   */
+  public void setLevel(int level) throws IOException {
+    if (level == this.level)
+      return;
+    if (count > 0)
+      submit(false);
+    this.level = level;
+  }
+
+  public void write(int b) throws IOException {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (finished)
+      throw new IOException("Stream is finished");
+    crc.update(b, off, len);
+    totalIn += len;
+    while (len > 0) {
+      int n = Math.min(len, blockSize - count);
+      System.arraycopy(b, off, block, count, n);
+      count += n;
+      off += n;
+      len -= n;
+      if (count == blockSize)
+        submit(false);
+    }
+  }
+
+  /**
+   * Deflates what remains, and writes it and the gzip trailer.  The underlying stream is flushed
+   * but not closed.
+   */
+  public void finish() throws IOException {
+    if (finished)
+      return;
+    try {
+      submit(true);
+      while (!pending.isEmpty())
+        writeBlock(pending.removeFirst());
+      byte[] trailer = new byte[8];
+      writeInt(trailer, 0, (int) crc.getValue());
+      writeInt(trailer, 4, (int) totalIn);
+      out.write(trailer);
+      out.flush();
+      finished = true;
+    }
+    finally {
+      if (!finished) {
+        for (Future<Block> f : pending)
+          f.cancel(true);
+        pending.clear();
+      }
+      pool.shutdownNow();
+    }
+  }
+
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  public void close() throws IOException {
+    try {
+      finish();
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @return The compressed size of the data which was written at a level other than zero.
+   */
+  public long getDeflatedOutput() {
+    return deflatedOut;
+  }
+
+  /**
+   * @return The CPU time, in nanoseconds, the workers spent deflating at levels other than zero.
+   */
+  public long getDeflateCpu() {
+    return deflateCpu;
+  }
+
+  private void submit(boolean last) throws IOException {
+    final byte[] input = block;
+    final int length = count;
+    final byte[] dict = dictionary;
+    final int blockLevel = level;
+    final boolean finish = last;
+
+    // The next block is primed with the end of this one (or of those before, if this is short)
+    if (length >= DICTIONARY_SIZE || dict == null) {
+      int n = Math.min(length, DICTIONARY_SIZE);
+      dictionary = new byte[n];
+      System.arraycopy(input, length - n, dictionary, 0, n);
+    }
+    else if (length > 0) {
+      int keep = Math.min(dict.length, DICTIONARY_SIZE - length);
+      dictionary = new byte[keep + length];
+      System.arraycopy(dict, dict.length - keep, dictionary, 0, keep);
+      System.arraycopy(input, 0, dictionary, keep, length);
+    }
+    block = new byte[blockSize];
+    count = 0;
+
+    while (pending.size() >= maxPending)
+      writeBlock(pending.removeFirst());
+    pending.addLast(pool.submit(new Callable<Block>() {
+      public Block call() {
+        long start = CompressionPolicy.cpuTime();
+        Deflater deflater = new Deflater(blockLevel, true);
+        try {
+          if (dict != null && dict.length > 0)
+            deflater.setDictionary(dict);
+          deflater.setInput(input, 0, length);
+          ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+          byte[] buffer = new byte[(1 << 10) * 64];
+          int n;
+          if (finish) {
+            deflater.finish();
+            while (!deflater.finished()) {
+              n = deflater.deflate(buffer);
+              compressed.write(buffer, 0, n);
+            }
+          }
+          else {
+            // A sync flush ends the block on a byte boundary, ready for the next to follow
+            do {
+              n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+              compressed.write(buffer, 0, n);
+            }
+            while (n == buffer.length);
+          }
+          return new Block(compressed.toByteArray(), blockLevel != Deflater.NO_COMPRESSION,
+              CompressionPolicy.cpuTime() - start);
+        }
+        finally {
+          deflater.end();
+        }
+      }
+    }));
+  }
+
+  private void writeBlock(Future<Block> future) throws IOException {
+    Block b;
+    try {
+      b = future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while deflating", e);
+    }
+    catch (ExecutionException e) {
+      throw new IOException("Unable to deflate", e.getCause());
+    }
+    out.write(b.data);
+    if (b.deflated) {
+      deflatedOut += b.data.length;
+      deflateCpu += b.cpuNanos;
+    }
+  }
+
+  private static void writeInt(byte[] b, int off, int value) {
+    b[off] = (byte) value;
+    b[off + 1] = (byte) (value >>> 8);
+    b[off + 2] = (byte) (value >>> 16);
+    b[off + 3] = (byte) (value >>> 24);
+  }
+
+  /**
+   * A deflated block, ready to be written.
+   */
+  private static class Block {
+    final byte[] data;
+    final boolean deflated;
+    final long cpuNanos;
+
+    Block(byte[] data, boolean deflated, long cpuNanos) {
+      this.data = data;
+      this.deflated = deflated;
+      this.cpuNanos = cpuNanos;
+    }
+  }
+
+  /**
+   * Names the deflate workers and keeps them from holding up JVM exit.
+   */
+  private static class WorkerFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "gzip-deflate-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+}
@@ -3,7 +3,10 @@ package com.secristfamily.maven.plugin;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Map;
+import java.util.Properties;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -11,12 +14,18 @@ import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.util.cli.CommandLineException;
 import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.codehaus.plexus.util.cli.Commandline;
-import org.codehaus.plexus.util.cli.StreamConsumer;
 
 public class RPMBuild {
 
   private Log log;
   private File workarea;
+  private String sourceExtension = ".tgz";
+  private File stagedDirectory;
+  private boolean copyStaged = false;
+  private String logPrefix = "";
+  private Properties properties;
+  private RPMBuildOutput output;
+  private long sourceDate = -1;
 
   public RPMBuild(File workarea, Log log) {
     this.workarea = workarea;
@@ -27,6 +36,52 @@ public class RPMBuild {
     return log;
   }
 
+  /**
+   * @param sourceExtension The extension of the source tarball: <code>.tgz</code> (the default) or
+   *            <code>.tar</code>.
+   */
+  protected void setSourceExtension(String sourceExtension) {
+    this.sourceExtension = sourceExtension;
+  }
+
+  /**
+   * Builds from a staged directory rather than a source tarball: the spec file then has no
+   * <code>Source</code> and its <code>%install</code> starts by linking the directory into the
+   * buildroot.
+   *
+   * @param stagedDirectory The staged content, within the work area's <code>BUILD</code>
+   *            directory, or null to build from the source tarball.
+   */
+  protected void setStagedDirectory(File stagedDirectory) {
+    this.stagedDirectory = stagedDirectory;
+  }
+
+  /**
+   * Has <code>%install</code> copy the staged directory into the buildroot rather than hard link
+   * it.  Needed when the staged files are themselves links to the originals, since the scripts
+   * rpmbuild runs over the buildroot (stripping binaries, compressing man pages) change files in
+   * place.
+   */
+  protected void setCopyStaged(boolean copyStaged) {
+    this.copyStaged = copyStaged;
+  }
+
+  /**
+   * @param properties The project properties, for the <code>${...}</code> references of the
+   *            scripts; may be null.
+   */
+  protected void setProperties(Properties properties) {
+    this.properties = properties;
+  }
+
+  /**
+   * @param logPrefix Put before each line of rpmbuild's output, to tell apart the output of
+   *            packages built at the same time.
+   */
+  protected void setLogPrefix(String logPrefix) {
+    this.logPrefix = logPrefix;
+  }
+
   /**
    * Build the structure of the work area.
    * 
@@ -58,25 +113,54 @@ public class RPMBuild {
     }
   }
   
-  protected void writeSpecFile(String filename, Map<String,String> params, String[] requires) throws MojoExecutionException {
+  /**
+   * @return The text written to the spec file.
+   */
+  protected String writeSpecFile(String filename, Map<String,String> params, String[] requires) throws MojoExecutionException {
     File f = new File(workarea, "SPECS");
     File specf = new File(f, filename + ".spec");
-    PrintWriter spec = null;
+    Writer out = null;
     try {
       getLog().info("Creating SPEC File: " + specf.getAbsolutePath());
-      spec = new PrintWriter(new FileWriter(specf));
+      StringWriter text = new StringWriter();
+      PrintWriter spec = new PrintWriter(text);
       this.writeSpecHeader(spec, params, requires);
       this.writeSpecBody(spec, params);
+      spec.flush();
+      out = new FileWriter(specf);
+      out.write(text.toString());
+      return text.toString();
     }
     catch (Throwable t) {
       throw new MojoExecutionException("Unable to write "
           + specf.getAbsolutePath(), t);
     }
     finally {
-      if (spec != null) {
-        spec.close();
+      try { if (out != null) out.close(); } catch (Throwable t) { ; }
+    }
+  }
+
+  private static String version;
+
+  /**
+   * @return What <code>rpmbuild --version</code> prints, or <code>unknown</code> if it cannot be
+   *         run.  It is asked once per JVM.
+   */
+  protected static synchronized String getVersion() {
+    if (version == null) {
+      Commandline cl = new Commandline();
+      cl.setExecutable( "rpmbuild" );
+      cl.createArgument().setValue( "--version" );
+      CommandLineUtils.StringStreamConsumer stdout = new CommandLineUtils.StringStreamConsumer();
+      try {
+        int result = CommandLineUtils.executeCommandLine( cl, stdout, new CommandLineUtils.StringStreamConsumer() );
+        version = result == 0 ? stdout.getOutput().trim() : "unknown";
+      }
+      catch ( CommandLineException e ) {
+        version = "unknown";
       }
     }
+    return version;
   }
 
   private void writeSpecHeader(PrintWriter spec, Map<String,String> params, String[] requires) {
@@ -125,7 +209,8 @@ public class RPMBuild {
       spec.printf("Requires: %s\n", req);
     }
 
-    spec.printf("Source: %%{name}.tgz\n");
+    if (stagedDirectory == null)
+      spec.printf("Source: %%{name}%s\n", sourceExtension);
     spec.printf("BuildRoot: %%{_tmppath}/%%{name}-%%{version}-%%{release}\n");
 
     if (params.containsKey("description")) {
@@ -135,7 +220,7 @@ public class RPMBuild {
 
   private void writeSpecBody(PrintWriter spec, Map<String,String> params) {
     ScriptLoader loader = new ScriptLoader(getLog());
-    loader.init(params);
+    loader.init(params, properties);
 
     // PREP
     String component_name = RPMMojo.getComponentName(params);
@@ -145,11 +230,14 @@ public class RPMBuild {
     }
     spec.printf("%%define component_name %s\n", component_name);
     spec.printf("%%define install_dir %s\n", install_dir);
-    spec.printf("%%define pom_buildroot %s\n", RPMMojo.getPOMBR());
-    spec.printf("%%define _prefix %s\n\n", params.get("prefix"));
+    spec.printf("%%define pom_buildroot %s\n", new File(params.get("pombr"), "src/buildroot"));
+    spec.printf("%%define _prefix %s\n", params.get("prefix"));
+    if (stagedDirectory != null)
+      spec.printf("%%define staged_dir %s\n", stagedDirectory.getAbsolutePath());
+    spec.printf("\n");
 
     spec.printf("%s\n\n", loader.getPreInstall());
-    spec.printf("%s\n\n", loader.getInstall());
+    spec.printf("%s\n\n", stagedDirectory != null ? installStaged(loader.getInstall(), copyStaged) : loader.getInstall());
     spec.printf("%s\n\n", loader.getPostInstall());
     spec.printf("%s\n\n", loader.getPreRemove());
     spec.printf("%s\n\n", loader.getPostRemove());
@@ -157,11 +245,68 @@ public class RPMBuild {
     spec.printf("%s\n\n", loader.getClean());
   }
 
+  /**
+   * Starts the install script by hard linking the staged directory into the buildroot (or
+   * copying it, should the buildroot be on another file system).  Whatever a failed link left is
+   * removed before the copy, which would otherwise write through the links into the staged files.
+   * The paths are quoted, since either may hold spaces.
+   *
+   * @param copy Whether to always copy the staged directory; see {@link #setCopyStaged}.
+   */
+  static String installStaged(String install, boolean copy) {
+    String source = "\"%{staged_dir}\"/.";
+    String target = "\"$RPM_BUILD_ROOT%{_prefix}%{install_dir}\"";
+    String commands = "mkdir -p " + target + "\n";
+    if (copy)
+      commands += "cp -a " + source + " " + target + "/\n";
+    else
+      commands += "cp -al " + source + " " + target + "/ || { rm -rf " + target + " && mkdir -p " + target
+          + " && cp -a " + source + " " + target + "/; }\n";
+    if (install == null)
+      return "%install\n" + commands;
+    int header = install.indexOf("%install");
+    if (header == -1)
+      return "%install\n" + commands + install;
+    int eol = install.indexOf('\n', header);
+    if (eol == -1)
+      return install + "\n" + commands;
+    return install.substring(0, eol + 1) + commands + install.substring(eol + 1);
+  }
+
+  /**
+   * Has rpmbuild give the package the source date of a reproducible build: it is passed as
+   * <code>SOURCE_DATE_EPOCH</code>, which rpm 4.14 and later use as the build time, and to
+   * which they clamp the times of the files, given the macros defined for it here.  The build
+   * host is given as <code>localhost</code>.
+   *
+   * @param time The time in milliseconds, or -1 to leave rpmbuild to its defaults.
+   */
+  public void setSourceDate(long time) {
+    this.sourceDate = time;
+  }
+
+  /**
+   * @return The output of the last rpmbuild run, with its phase times and the packages it wrote,
+   *         or null if rpmbuild has not been run.
+   */
+  protected RPMBuildOutput getOutput() {
+    return output;
+  }
+
   /**
    * Run the external command to build the package.
    * @throws MojoExecutionException if an error occurs
    */
   protected void execute(String name, boolean needarch) throws MojoExecutionException {
+    execute(name, needarch ? null : "noarch");
+  }
+
+  /**
+   * Run the external command to build the package.
+   * @param target The architecture to build for, or null for rpmbuild's default.
+   * @throws MojoExecutionException if an error occurs
+   */
+  protected void execute(String name, String target) throws MojoExecutionException {
     File f = new File( workarea, "SPECS" );
 
     Commandline cl = new Commandline();
@@ -170,73 +315,40 @@ public class RPMBuild {
     cl.createArgument().setValue( "-ba" );
     cl.createArgument().setValue( "--define" );
     cl.createArgument().setValue( "_topdir " + workarea.getAbsolutePath() );
-    if ( !needarch ) {
+    if ( sourceDate >= 0 ) {
+      cl.addEnvironment( SourceDate.ENVIRONMENT, Long.toString( sourceDate / 1000 ) );
+      for ( String define : new String[] { "use_source_date_epoch_as_buildtime 1",
+          "clamp_mtime_to_source_date_epoch 1", "_buildhost localhost" } ) {
+        cl.createArgument().setValue( "--define" );
+        cl.createArgument().setValue( define );
+      }
+    }
+    if ( target != null ) {
       cl.createArgument().setValue( "--target" );
-      cl.createArgument().setValue( "noarch" );
+      cl.createArgument().setValue( target );
     }
     cl.createArgument().setValue( name + ".spec" );
 
-    StreamConsumer stdout = new StdoutConsumer( getLog() );
-    StreamConsumer stderr = new StderrConsumer( getLog() );
+    RPMBuildOutput output = new RPMBuildOutput( getLog(), logPrefix );
+    this.output = output;
     try {
       getLog().info("RPMCMD: " + cl.toString());
-      int result = CommandLineUtils.executeCommandLine( cl, stdout, stderr );
+      int result = CommandLineUtils.executeCommandLine( cl, output.getStdout(), output.getStderr() );
+      output.close();
       if ( result != 0 ) {
-        throw new MojoExecutionException( "RPM build execution returned: \'" + result + "\'." );
+        StringBuilder report = new StringBuilder( "RPM build execution returned: \'" + result + "\'." );
+        report.append( " Last lines of output:" );
+        for ( String line : output.getRecentLines() )
+          report.append( "\n  " ).append( line );
+        throw new MojoExecutionException( report.toString() );
       }
+      getLog().info( logPrefix + "rpmbuild phases: " + output );
     }
     catch ( CommandLineException e ) {
       throw new MojoExecutionException( "Unable to build the RPM", e );
     }
-  }
-
-  /**
-   * Consumer to receive lines sent to stdout.  The lines are logged
-   * as info.
-   */
-  private class StdoutConsumer  implements StreamConsumer {
-    /** Logger to receive the lines. */
-    private Log logger;
-
-    /**
-     * Constructor.
-     * @param log The logger to receive the lines
-     */
-    public StdoutConsumer( Log log ) {
-      logger = log;
-    }
-
-    /**
-     * Consume a line.
-     * @param string The line to consume
-     */
-    public void consumeLine( String string ) {
-      logger.info( string );
-    }
-  }
-
-  /**
-   * Consumer to receive lines sent to stderr.  The lines are logged
-   * as warnings.
-   */
-  private class StderrConsumer  implements StreamConsumer {
-    /** Logger to receive the lines. */
-    private Log logger;
-
-    /**
-     * Constructor.
-     * @param log The logger to receive the lines
-     */
-    public StderrConsumer( Log log ) {
-      logger = log;
-    }
-
-    /**
-     * Consume a line.
-     * @param string The line to consume
-     */
-    public void consumeLine( String string ) {
-      logger.warn( string );
+    finally {
+      output.close();
     }
   }
 }
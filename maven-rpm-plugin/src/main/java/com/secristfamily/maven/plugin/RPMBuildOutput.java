@@ -0,0 +1,247 @@
+package com.secristfamily.maven.plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Takes the output of rpmbuild off the threads reading it, so that a slow console never holds up
+ * the process, and makes sense of it as it goes.
+ * <p>
+ * Lines are handed to a bounded queue and logged by a thread of their own, a batch of lines of
+ * the same kind to each call of the log: standard output as info, standard error as warnings.
+ * The last few lines are kept for the report of a failed build.  rpmbuild's markers
+ * (<code>Executing(%prep)</code> and the other sections, <code>Processing files:</code>,
+ * <code>Checking for unpackaged file(s)</code>) are timed as they arrive, giving the time spent in
+ * each phase, and the packages named by <code>Wrote:</code> are collected.
+ */
+public class RPMBuildOutput {
+
+  private static final int QUEUE_SIZE = 4096;
+  private static final int BATCH_SIZE = 256;
+  private static final int RECENT_LINES = 50;
+
+  private static final Line END = new Line(false, null);
+
+  private final Log log;
+  private final String prefix;
+  private final BlockingQueue<Line> queue = new ArrayBlockingQueue<Line>(QUEUE_SIZE);
+  private final Thread drainer;
+
+  /** The last lines read, oldest first from <code>recentStart</code>. */
+  private final String[] recent = new String[RECENT_LINES];
+  private int recentStart = 0;
+  private int recentCount = 0;
+
+  private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+  private final List<String> written = new ArrayList<String>();
+  private final long start = System.nanoTime();
+  private String phase = "startup";
+  private long phaseStart = start;
+  private long end;
+
+  /**
+   * Starts the thread which logs the lines.
+   *
+   * @param log Where the lines are logged.
+   * @param prefix Put before each line logged.
+   */
+  public RPMBuildOutput(Log log, String prefix) {
+    this.log = log;
+    this.prefix = prefix != null ? prefix : "";
+    this.drainer = new Thread(new Runnable() {
+      public void run() {
+        drain();
+      }
+    }, "rpmbuild-output");
+    drainer.setDaemon(true);
+    drainer.start();
+  }
+
+  /**
+   * @return The consumer of standard output.
+   */
+  public StreamConsumer getStdout() {
+    return new StreamConsumer() {
+      public void consumeLine(String line) {
+        accept(false, line);
+      }
+    };
+  }
+
+  /**
+   * @return The consumer of standard error.
+   */
+  public StreamConsumer getStderr() {
+    return new StreamConsumer() {
+      public void consumeLine(String line) {
+        accept(true, line);
+      }
+    };
+  }
+
+  private void accept(boolean error, String line) {
+    long now = System.nanoTime();
+    synchronized (this) {
+      recent[(recentStart + recentCount) % RECENT_LINES] = line;
+      if (recentCount < RECENT_LINES)
+        recentCount++;
+      else
+        recentStart = (recentStart + 1) % RECENT_LINES;
+      mark(line, now);
+    }
+    try {
+      queue.put(new Line(error, line));
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Notes a marker, if the line is one.
+   */
+  private void mark(String line, long now) {
+    String next = null;
+    if (line.startsWith("Executing(")) {
+      int close = line.indexOf(')');
+      if (close != -1)
+        next = line.substring("Executing(".length(), close);
+    }
+    else if (line.startsWith("Processing files:"))
+      next = "%files";
+    else if (line.startsWith("Checking for unpackaged file"))
+      next = "package";
+    else if (line.startsWith("Wrote:"))
+      written.add(line.substring("Wrote:".length()).trim());
+    if (next != null)
+      beginPhase(next, now);
+  }
+
+  private void beginPhase(String next, long now) {
+    Long spent = phases.get(phase);
+    phases.put(phase, (spent != null ? spent : 0L) + (now - phaseStart));
+    phase = next;
+    phaseStart = now;
+  }
+
+  /**
+   * Waits for everything read to be logged and closes the last phase.  Call once the process has
+   * ended and its output has been read; calling it again does nothing.
+   */
+  public void close() {
+    synchronized (this) {
+      if (end != 0)
+        return;
+      end = System.nanoTime();
+      beginPhase(null, end);
+    }
+    try {
+      queue.put(END);
+      drainer.join(TimeUnit.SECONDS.toMillis(30));
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void drain() {
+    List<Line> batch = new ArrayList<Line>(BATCH_SIZE);
+    StringBuilder sb = new StringBuilder();
+    try {
+      while (true) {
+        batch.add(queue.take());
+        queue.drainTo(batch, BATCH_SIZE - 1);
+        boolean done = false;
+        int i = 0;
+        while (i < batch.size()) {
+          Line first = batch.get(i);
+          if (first == END) {
+            done = true;
+            break;
+          }
+          // Consecutive lines of the same kind go to the log together
+          sb.setLength(0);
+          sb.append(prefix).append(first.text);
+          int j = i + 1;
+          while (j < batch.size() && batch.get(j) != END && batch.get(j).error == first.error) {
+            sb.append('\n').append(prefix).append(batch.get(j).text);
+            j++;
+          }
+          if (first.error)
+            log.warn(sb.toString());
+          else
+            log.info(sb.toString());
+          i = j;
+        }
+        batch.clear();
+        if (done)
+          return;
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return The last lines read, oldest first.
+   */
+  public synchronized List<String> getRecentLines() {
+    List<String> lines = new ArrayList<String>(recentCount);
+    for (int i = 0; i < recentCount; i++)
+      lines.add(recent[(recentStart + i) % RECENT_LINES]);
+    return lines;
+  }
+
+  /**
+   * @return The time spent in each phase, in milliseconds, in the order the phases began.  Time
+   *         before the first marker is counted as <code>startup</code>.
+   */
+  public synchronized Map<String, Long> getPhaseTimes() {
+    Map<String, Long> millis = new LinkedHashMap<String, Long>();
+    for (Map.Entry<String, Long> e : phases.entrySet())
+      millis.put(e.getKey(), TimeUnit.NANOSECONDS.toMillis(e.getValue()));
+    return millis;
+  }
+
+  /**
+   * @return The paths of the packages rpmbuild reported writing.
+   */
+  public synchronized List<String> getWrittenFiles() {
+    return Collections.unmodifiableList(new ArrayList<String>(written));
+  }
+
+  /**
+   * @return The phases and their durations, as logged after the build.
+   */
+  public synchronized String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, Long> e : getPhaseTimes().entrySet()) {
+      if (sb.length() > 0)
+        sb.append(", ");
+      sb.append(e.getKey()).append(' ').append(e.getValue()).append(" ms");
+    }
+    long total = (end != 0 ? end : System.nanoTime()) - start;
+    return sb.append(" (total ").append(TimeUnit.NANOSECONDS.toMillis(total)).append(" ms)").toString();
+  }
+
+  private static class Line {
+    final boolean error;
+    final String text;
+
+    Line(boolean error, String text) {
+      this.error = error;
+      this.text = text;
+    }
+  }
+
+}
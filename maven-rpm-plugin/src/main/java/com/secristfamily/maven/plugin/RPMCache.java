@@ -0,0 +1,216 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Keeps the packages rpmbuild produced, keyed by a digest of everything that went into them, so
+ * that a build whose inputs have not changed reuses the package rather than running rpmbuild.
+ * <p>
+ * The key covers the path, type, permissions and content of every staged file, the files below
+ * <code>src/buildroot</code> (which the scripts may copy from), the spec file text (and with it
+ * the params, requires and resolved scripts) and the version of rpmbuild.  Symbolic links below
+ * <code>src/buildroot</code> are covered by their target, and not followed.  Packages are kept as
+ * <code>&lt;package&gt;/&lt;key&gt;/&lt;file&gt;.rpm</code> below the cache directory, under the
+ * name rpmbuild gave them, only the latest key of each package being kept.
+ */
+public class RPMCache {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final File directory;
+  private final Log log;
+
+  /**
+   * @param directory Where the packages are kept.
+   * @param log Told of hits and misses, may be null.
+   */
+  public RPMCache(File directory, Log log) {
+    this.directory = directory;
+    this.log = log;
+  }
+
+  /**
+   * Works out the key of a package.
+   *
+   * @param workspace The staged workspace.
+   * @param paths The paths within the workspace which go into the package.
+   * @param buildroot The <code>src/buildroot</code> directory, which need not exist.
+   * @param spec The text of the spec file.
+   * @param tool The version of rpmbuild.
+   * @return The key, as hex.
+   */
+  public String key(File workspace, List<String> paths, File buildroot, String spec, String tool) throws IOException {
+    MessageDigest md = sha256();
+    update(md, "tool", tool);
+    update(md, "spec", spec);
+    ByteBuffer buffer = ByteBuffer.allocate((1 << 10) * 64);
+    List<String> sorted = new ArrayList<String>(paths);
+    Collections.sort(sorted);
+    for (String path : sorted)
+      update(md, "staged", path, new File(workspace, path), buffer);
+    if (buildroot != null && buildroot.isDirectory()) {
+      List<String> files = new ArrayList<String>();
+      list(buildroot, "", files);
+      Collections.sort(files);
+      for (String path : files)
+        update(md, "buildroot", path, new File(buildroot, path), buffer);
+    }
+    return hex(md.digest());
+  }
+
+  /**
+   * Copies the package kept under a key into a directory, under the name it was kept under: the
+   * name rpmbuild gave it, which the build cannot always work out beforehand (without
+   * <code>BuildArch</code>, say, or with a release which expands a macro).
+   *
+   * @param name The name (and architecture) of the package.
+   * @param key The key of its inputs.
+   * @param directory The directory the package is wanted in.
+   * @return The package restored, or null on a miss.
+   */
+  public File restore(String name, String key, File directory) throws IOException {
+    return restore(name, key, directory, null);
+  }
+
+  /**
+   * Copies the package kept under a key into a directory, digesting it on the way.
+   *
+   * @param sums Given the digests of the package on a hit, may be null.
+   * @see #restore(String, String, File)
+   */
+  public File restore(String name, String key, File directory, Checksums sums) throws IOException {
+    File kept = find(new File(this.directory, name + "/" + key));
+    if (kept == null) {
+      if (log != null)
+        log.info("Package cache miss for " + name + " (" + key.substring(0, Math.min(12, key.length())) + ")");
+      return null;
+    }
+    File dest = new File(directory, kept.getName());
+    // The destination may be a link to what is kept, which writing to it would overwrite
+    Files.deleteIfExists(dest.toPath());
+    if (sums != null)
+      sums.copy(kept, dest);
+    else
+      new FileCopier(false).copy(kept, dest);
+    if (log != null)
+      log.info("Package cache hit for " + name + " (" + key.substring(0, Math.min(12, key.length())) + "), rpmbuild skipped");
+    return dest;
+  }
+
+  /**
+   * Keeps a package under a key, in place of whatever was kept for it before.
+   *
+   * @param name The name (and architecture) of the package.
+   * @param key The key of its inputs.
+   * @param rpm The package rpmbuild produced.
+   */
+  public void store(String name, String key, File rpm) throws IOException {
+    File entries = new File(directory, name);
+    File[] old = entries.listFiles();
+    if (old != null) {
+      for (File f : old) {
+        if (!f.getName().equals(key))
+          FileUtils.deleteDirectory(f);
+      }
+    }
+    File entry = new File(entries, key);
+    entry.mkdirs();
+    // Written under another name first, so an interrupted build never leaves half a package
+    File tmp = new File(entry, rpm.getName() + ".part");
+    new FileCopier(true).copy(rpm, tmp);
+    Files.move(tmp.toPath(), new File(entry, rpm.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * @return The package kept in an entry, or null if there is none.
+   */
+  private static File find(File entry) {
+    File[] files = entry.listFiles();
+    if (files == null)
+      return null;
+    for (File f : files) {
+      if (f.isFile() && f.getName().endsWith(".rpm"))
+        return f;
+    }
+    return null;
+  }
+
+  private static void list(File dir, String prefix, List<String> paths) {
+    File[] children = dir.listFiles();
+    if (children == null)
+      return;
+    for (File f : children) {
+      String path = prefix + f.getName();
+      paths.add(path);
+      // A link to a directory may lead back up the tree
+      if (f.isDirectory() && !Files.isSymbolicLink(f.toPath()))
+        list(f, path + "/", paths);
+    }
+  }
+
+  private static void update(MessageDigest md, String kind, String path, File f, ByteBuffer buffer) throws IOException {
+    update(md, kind, path.replace(File.separatorChar, '/'));
+    if (Files.isSymbolicLink(f.toPath())) {
+      update(md, "l", Files.readSymbolicLink(f.toPath()).toString());
+      return;
+    }
+    if (f.isDirectory()) {
+      update(md, "d", Integer.toOctalString(FileUtils.getPermissions(f, 0755)));
+      return;
+    }
+    int mode = FileUtils.getPermissions(f, f.canExecute() ? 0755 : 0644);
+    update(md, "f", Integer.toOctalString(mode) + " " + f.length());
+    FileInputStream in = new FileInputStream(f);
+    try {
+      FileChannel channel = in.getChannel();
+      buffer.clear();
+      while (channel.read(buffer) != -1) {
+        buffer.flip();
+        md.update(buffer);
+        buffer.clear();
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private static void update(MessageDigest md, String kind, String value) {
+    md.update(kind.getBytes(UTF8));
+    md.update((byte) 0);
+    if (value != null)
+      md.update(value.getBytes(UTF8));
+    md.update((byte) 0);
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes)
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,163 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An RPM header structure: an index of tagged entries followed by the store holding their data.
+ * Both the signature and the main header of a package take this form.
+ * <p>
+ * Entries are written in tag order, each aligned for its type, and are preceded by a region tag
+ * whose trailer closes the store, as <code>rpm</code> expects of the headers it verifies.
+ */
+public class RPMHeader {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final byte[] MAGIC = { (byte) 0x8e, (byte) 0xad, (byte) 0xe8, 0x01 };
+
+  public static final int INT16 = 3;
+  public static final int INT32 = 4;
+  public static final int STRING = 6;
+  public static final int BIN = 7;
+  public static final int STRING_ARRAY = 8;
+  public static final int I18NSTRING = 9;
+
+  /** The region tag of the signature header. */
+  public static final int HEADER_SIGNATURES = 62;
+  /** The region tag of the main header. */
+  public static final int HEADER_IMMUTABLE = 63;
+
+  private final int regionTag;
+  private final Map<Integer, Entry> entries = new TreeMap<Integer, Entry>();
+
+  /**
+   * @param regionTag {@link #HEADER_SIGNATURES} or {@link #HEADER_IMMUTABLE}.
+   */
+  public RPMHeader(int regionTag) {
+    this.regionTag = regionTag;
+  }
+
+  public void addString(int tag, String value) {
+    entries.put(tag, new Entry(tag, STRING, 1, cstring(value)));
+  }
+
+  /**
+   * Adds a string which could be translated; only the untranslated (<code>C</code> locale) value
+   * is written.
+   */
+  public void addI18NString(int tag, String value) {
+    entries.put(tag, new Entry(tag, I18NSTRING, 1, cstring(value)));
+  }
+
+  public void addStringArray(int tag, String... values) {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    for (String v : values) {
+      byte[] b = cstring(v);
+      data.write(b, 0, b.length);
+    }
+    entries.put(tag, new Entry(tag, STRING_ARRAY, values.length, data.toByteArray()));
+  }
+
+  public void addInt32(int tag, int... values) {
+    byte[] data = new byte[values.length * 4];
+    for (int i = 0; i < values.length; i++) {
+      data[i * 4] = (byte) (values[i] >>> 24);
+      data[i * 4 + 1] = (byte) (values[i] >>> 16);
+      data[i * 4 + 2] = (byte) (values[i] >>> 8);
+      data[i * 4 + 3] = (byte) values[i];
+    }
+    entries.put(tag, new Entry(tag, INT32, values.length, data));
+  }
+
+  public void addInt16(int tag, short... values) {
+    byte[] data = new byte[values.length * 2];
+    for (int i = 0; i < values.length; i++) {
+      data[i * 2] = (byte) (values[i] >>> 8);
+      data[i * 2 + 1] = (byte) values[i];
+    }
+    entries.put(tag, new Entry(tag, INT16, values.length, data));
+  }
+
+  public void addBinary(int tag, byte[] value) {
+    entries.put(tag, new Entry(tag, BIN, value.length, value.clone()));
+  }
+
+  public boolean contains(int tag) {
+    return entries.containsKey(tag);
+  }
+
+  /**
+   * @return The header in its on disk form, starting with the header magic.
+   */
+  public byte[] toBytes() {
+    try {
+      ByteArrayOutputStream store = new ByteArrayOutputStream();
+      int count = entries.size() + 1;
+      int[] offsets = new int[entries.size()];
+      int i = 0;
+      for (Entry e : entries.values()) {
+        int align = e.type == INT16 ? 2 : e.type == INT32 ? 4 : 1;
+        while (store.size() % align != 0)
+          store.write(0);
+        offsets[i++] = store.size();
+        store.write(e.data);
+      }
+      int trailerOffset = store.size();
+      DataOutputStream trailer = new DataOutputStream(store);
+      trailer.writeInt(regionTag);
+      trailer.writeInt(BIN);
+      trailer.writeInt(-count * 16);
+      trailer.writeInt(16);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + count * 16 + store.size());
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.write(MAGIC);
+      out.writeInt(0);
+      out.writeInt(count);
+      out.writeInt(store.size());
+      out.writeInt(regionTag);
+      out.writeInt(BIN);
+      out.writeInt(trailerOffset);
+      out.writeInt(16);
+      i = 0;
+      for (Entry e : entries.values()) {
+        out.writeInt(e.tag);
+        out.writeInt(e.type);
+        out.writeInt(offsets[i++]);
+        out.writeInt(e.count);
+      }
+      store.writeTo(out);
+      out.flush();
+      return bytes.toByteArray();
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static byte[] cstring(String value) {
+    byte[] b = (value == null ? "" : value).getBytes(UTF8);
+    byte[] c = new byte[b.length + 1];
+    System.arraycopy(b, 0, c, 0, b.length);
+    return c;
+  }
+
+  private static class Entry {
+    final int tag;
+    final int type;
+    final int count;
+    final byte[] data;
+
+    Entry(int tag, int type, int count, byte[] data) {
+      this.tag = tag;
+      this.type = type;
+      this.count = count;
+      this.data = data;
+    }
+  }
+
+}
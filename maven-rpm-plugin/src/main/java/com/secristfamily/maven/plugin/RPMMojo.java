@@ -1,15 +1,41 @@
 package com.secristfamily.maven.plugin;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 import org.apache.maven.archiver.MavenArchiveConfiguration;
 import org.apache.maven.archiver.MavenArchiver;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -17,11 +43,11 @@ import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
 import org.codehaus.plexus.archiver.jar.JarArchiver;
 import org.codehaus.plexus.archiver.manager.ArchiverManager;
-import org.codehaus.plexus.archiver.tar.TarArchiver;
-import org.codehaus.plexus.archiver.tar.TarArchiver.TarCompressionMethod;
+import org.codehaus.plexus.util.DirectoryScanner;
 
 /**
  * @goal rpm
+ * @threadSafe
  * @author Randy Secrist
  */
 public class RPMMojo extends AbstractMojo {
@@ -35,6 +61,15 @@ public class RPMMojo extends AbstractMojo {
    */
   private MavenProject project;
 
+  /**
+   * The Maven session, which the manifest of a rewritten primary artifact is generated in.
+   * 
+   * @parameter default-value="${session}"
+   * @required
+   * @readonly
+   */
+  private MavenSession session;
+
   /**
    * @component
    */
@@ -51,10 +86,11 @@ public class RPMMojo extends AbstractMojo {
   /**
    * Directory containing the project.
    * 
-   * @parameter default=value="${project.basedir}"
+   * @parameter default-value="${project.basedir}"
    * @required
+   * @readonly
    */
-  private static File baseDirectory;
+  private File baseDirectory;
 
   /**
    * Directory containing the generated RPM. (target/)
@@ -85,6 +121,15 @@ public class RPMMojo extends AbstractMojo {
    * @parameter
    */
   private List<String> excludeRegexList;
+
+  /**
+   * Ant style patterns (<code>**&#47;*.bak</code>, <code>web/tmp/**</code>) matched against the
+   * path of each file or directory within the workspace.  Anything matching one of them is left
+   * out; a pattern ending in <code>/**</code> leaves out a whole directory.
+   * 
+   * @parameter
+   */
+  private List<String> excludes;
   private static final String[] DEFAULT_EXCLUDES = new String[] { "**/package.html" };
   private static final String[] DEFAULT_INCLUDES = new String[] { "**/**" };
 
@@ -143,12 +188,29 @@ public class RPMMojo extends AbstractMojo {
   private JarArchiver jarArchiver;
 
   /**
-   * The TAR archiver.
+   * Decides which entries of the TAR are deflated and which are stored; by default archives and
+   * media which are already compressed, such as the dependency jars, are stored.  See
+   * {@link CompressionPolicy}.
    * 
-   * @component role="org.codehaus.plexus.archiver.Archiver" roleHint="tar"
-   * @required
+   * @parameter
+   */
+  private CompressionPolicy compression = new CompressionPolicy();
+
+  /**
+   * How the source tarball handed to rpmbuild is compressed: <code>gzip</code>, or
+   * <code>none</code> for a plain tar, which saves deflating what rpmbuild unpacks straight away.
+   * 
+   * @parameter default-value="gzip"
+   */
+  private String sourceCompression = "gzip";
+
+  /**
+   * The number of threads deflating the source tarball, or 0 for one per processor.  The level is
+   * the <code>level</code> of <code>compression</code>.
+   * 
+   * @parameter default-value="0"
    */
-  private TarArchiver tarArchiver;
+  private int compressionThreads;
 
   /**
    * The maven archiver to use.
@@ -171,6 +233,50 @@ public class RPMMojo extends AbstractMojo {
    */
   private String version;
 
+  /**
+   * Whether files are hard linked into the workspace rather than copied.  Saves the I/O of
+   * copying every dependency jar on each build, but the staged files are then the originals, so
+   * nothing may modify them.  Files on another file system are still copied, and with
+   * <code>directBuildroot</code> the workspace is copied, not linked, into the buildroot.
+   * @parameter default-value="false"
+   */
+  private boolean linkStagedFiles;
+
+  /**
+   * Whether to write the RPM in Java rather than with <code>rpmbuild</code>.  No spec file or
+   * source tarball is written and <code>rpm</code> need not be installed.  The staged files are
+   * installed below <code>prefix/InstallDir</code> and the files in <code>src/buildroot</code> are
+   * installed relative to the root; the <code>%install</code> and <code>%clean</code> scripts are
+   * not run.
+   * @parameter default-value="false"
+   */
+  private boolean nativeBuild;
+
+  /**
+   * Whether to hand rpmbuild the workspace directly rather than as a source tarball.  The
+   * workspace is moved to <code>BUILD/ComponentName</code> within the work area, the spec file has
+   * no <code>Source</code>, and <code>%install</code> starts by linking the workspace into
+   * <code>$RPM_BUILD_ROOT%{_prefix}%{install_dir}</code>, where it can also be reached as
+   * <code>%{staged_dir}</code>.  Saves compressing the workspace only for rpmbuild to unpack it.
+   * @parameter default-value="false"
+   */
+  private boolean directBuildroot;
+
+  /**
+   * Whether to keep built packages, keyed by a digest of their staged files, spec file, scripts
+   * and rpmbuild version, and reuse them rather than run rpmbuild when nothing has changed; see
+   * {@link RPMCache}.  The work area is then kept between builds too, and with
+   * <code>directBuildroot</code> only changed files are staged into it again.
+   * @parameter default-value="false"
+   */
+  private boolean buildCache;
+
+  /**
+   * Where the packages are kept when <code>buildCache</code> is enabled.
+   * @parameter default-value="${project.build.directory}/rpm-cache"
+   */
+  private File cacheDirectory;
+
   /**
    * RPM Parameters
    * @parameter
@@ -183,51 +289,158 @@ public class RPMMojo extends AbstractMojo {
    */
   private String[] requires;
 
+  /**
+   * Several packages to build from the one workspace, each from the part of it its patterns
+   * select and with its own params, requires and architecture; see {@link RPMPackage}.  The
+   * packages are built concurrently, each in a work area of its own.  When none are given a
+   * single package is built from <code>params</code> and <code>requires</code>.
+   * @parameter
+   */
+  private RPMPackage[] packages;
+
+  /**
+   * The number of packages built at once, or 0 for one per processor.
+   * @parameter default-value="0"
+   */
+  private int packageThreads;
+
+  /**
+   * The number of dependencies copied into the workspace at once, or 0 for one per processor.
+   * Copying from a local repository on a network mount waits on the network more than the disk,
+   * so more threads than processors can pay off there; 1 copies them one at a time.
+   * @parameter default-value="0"
+   */
+  private int stagingThreads;
+
+  /**
+   * Where the JSON report of the time, CPU, I/O and files of each phase is written; see
+   * {@link PerfReport}.
+   * @parameter default-value="${project.build.directory}/rpm-perf.json"
+   */
+  private File perfReport;
+
+  /**
+   * Whether to take the MD5, SHA-256 and SHA-512 digests of each package once it is in the
+   * target directory, log them, and write and attach <code>.sha256</code> and
+   * <code>.sha512</code> files beside it.
+   * @parameter default-value="true"
+   */
+  private boolean checksums;
+
+  /**
+   * The time of a reproducible build, in seconds since the epoch or ISO 8601; see
+   * {@link SourceDate}.  When it (or the <code>SOURCE_DATE_EPOCH</code> environment variable) is
+   * set, the source tarball and a package written by <code>nativeBuild</code> are the same byte
+   * for byte whenever their content is: every entry is given this time, normal permissions and
+   * root as its owner, and entries are written in order of path.  rpmbuild is given the time as
+   * <code>SOURCE_DATE_EPOCH</code>.
+   * @parameter default-value="${project.build.outputTimestamp}"
+   */
+  private String outputTimestamp;
+
+  private long sourceDate = -1;
+
+  private final PerfReport perf = new PerfReport("rpm");
+
   public void execute() throws MojoExecutionException, MojoFailureException {
     getLog().info("Creating RPM...");
 
-    File tempDir = createTempDir();
-    File rpmFile = createPackage(tempDir);
+    try {
+      // Tombstones of work directories whose deletion an earlier build did not live to finish
+      int swept = BackgroundCleaner.sweep(targetDirectory) + BackgroundCleaner.sweep(new File(targetDirectory, "rpm"));
+      if (swept > 0)
+        getLog().debug("Deleting " + swept + " work directories left by an earlier build");
+      sourceDate = SourceDate.resolve(outputTimestamp);
+      if (sourceDate >= 0)
+        getLog().info("Reproducible build, entries dated " + SourceDate.format(sourceDate));
+      File tempDir = createTempDir();
+      if (packages != null && packages.length > 0) {
+        createPackages(tempDir);
+        return;
+      }
+      File rpmFile = createPackage(tempDir);
 
         if (classifier != null)
             projectHelper.attachArtifact(project, "rpm", classifier, rpmFile);
         else
             project.getArtifact().setFile(rpmFile);
+        attachChecksums(rpmFile, classifier);
+    }
+    finally {
+      writePerfReport();
+    }
+  }
+
+  /**
+   * Logs the summary of the performance report and writes it out.
+   */
+  private void writePerfReport() {
+    getLog().info(perf.getSummary());
+    if (perfReport == null)
+      return;
+    try {
+      perf.write(perfReport, project != null ? project.getId() : artifactId);
+    }
+    catch (IOException e) {
+      getLog().warn("Unable to write " + perfReport + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Deletes a directory in the background (see {@link BackgroundCleaner}), timed as cleanup.
+   */
+  private void cleanUp(File directory) {
+    PerfReport.Phase phase = perf.start("cleanup");
+    try {
+      BackgroundCleaner.delete(directory);
+    }
+    finally {
+      phase.end();
+    }
   }
 
   public File createTempDir() throws MojoExecutionException, MojoFailureException {
-    // Create Workspace
-    File tempDir = new File(targetDirectory, "temp");
-    if (!tempDir.exists())
-      tempDir.mkdirs();
+    // Create Workspace, one per execution so that concurrent executions never share one
+    File tempDir;
+    try {
+      targetDirectory.mkdirs();
+      tempDir = Files.createTempDirectory(targetDirectory.toPath(), "temp-").toFile();
+    }
+    catch (IOException e) {
+      throw new MojoExecutionException("Unable to create a workspace in " + targetDirectory, e);
+    }
     boolean addTempDir = false;
+    copier = new FileCopier(linkStagedFiles);
+    PerfReport.Phase staging = perf.start("staging");
 
     // Generates a primary artifact (from the current project) and adds it to the RPM.
     // Only compatibile with JAR artifacts, (Utilizes the JAR plugin)
     if (generatePrimaryArtifact == true) {
       addTempDir = true;
       File jarFile = getJarFile(tempDir, finalName, classifier);
-      this.createJARArchive(jarFile, classesDirectory);
+      PerfReport.Phase phase = perf.start("primary-jar");
+      try {
+        this.createJARArchive(jarFile, classesDirectory);
+      }
+      finally {
+        phase.wrote(jarFile.length()).files(1).end();
+      }
     }
 
     // Copy artifacts to temp/lib directory (primaryDependency to temp)
     if (addDependencies) {
-      Set<Artifact> dependencies = this.getDependencies();
+      PerfReport.Phase phase = perf.start("dependencies");
+      Set<Artifact> dependencies;
+      try {
+        dependencies = this.getDependencies();
+        phase.files(dependencies.size());
+      }
+      finally {
+        phase.end();
+      }
       if (dependencies != null && dependencies.size() > 0) {
         addTempDir = true;
-        for (Artifact a : dependencies) {
-          if (primaryArtifactId != null && a.getArtifactId().equals(primaryArtifactId)) {
-            // add runtime dependencies not declared in primaryArtifact due to circular nature
-            if (project.getDependencies().size() > 1) {
-              addLocalDependencies(a.getFile(), tempDir);
-            }
-            this.copyArtifact(a, tempDir); // copy primaryArtifact to tempDir
-          }
-          else if (!a.getScope().equals("test")) { // only adds non test dependencies.
-            File lib = new File(tempDir, "lib");
-            this.copyArtifact(a, lib); // copy dependencies into lib
-          }
-        }
+        stageDependencies(dependencies, tempDir);
       }
     }
 
@@ -249,14 +462,105 @@ public class RPMMojo extends AbstractMojo {
         }
       }
     }
+    getLog().info("Staged workspace: " + copier);
+    staging.read(copier.getBytesCopied()).wrote(copier.getBytesCopied())
+        .files(copier.getFilesCopied() + copier.getFilesLinked()).end();
     return tempDir;
   }
 
+  /**
+   * Copies the dependencies into the workspace, several at a time: the primary artifact to its
+   * root (merged with the project's own dependencies first) and the rest, test scope aside, to
+   * <code>lib</code>.  Artifacts bound for the same file are copied one after another in the order
+   * given, so the layout is just what copying them one at a time gives.  Every copy is waited
+   * for; if any failed, the failure of the first of them in that order is thrown.
+   */
+  private void stageDependencies(Set<Artifact> dependencies, final File tempDir) throws MojoExecutionException {
+    // The primary artifacts go together, since merging uses a scratch directory of the workspace
+    Map<File, List<Artifact>> groups = new LinkedHashMap<File, List<Artifact>>();
+    for (Artifact a : dependencies) {
+      File dest;
+      if (isPrimaryArtifact(a))
+        dest = tempDir;
+      else if (!a.getScope().equals("test")) // only adds non test dependencies.
+        dest = new File(tempDir, "lib/" + a.getFile().getName());
+      else
+        continue;
+      List<Artifact> group = groups.get(dest);
+      if (group == null) {
+        group = new ArrayList<Artifact>();
+        groups.put(dest, group);
+      }
+      group.add(a);
+    }
+    if (groups.isEmpty())
+      return;
+
+    int workers = Math.min(groups.size(), stagingThreads > 0 ? stagingThreads : Runtime.getRuntime().availableProcessors());
+    ExecutorService pool = Executors.newFixedThreadPool(workers, new WorkerFactory("rpm-staging-"));
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    try {
+      for (final List<Artifact> group : groups.values()) {
+        results.add(pool.submit(new Callable<Void>() {
+          public Void call() throws Exception {
+            for (Artifact a : group)
+              stageDependency(a, tempDir);
+            return null;
+          }
+        }));
+      }
+      Throwable failure = null;
+      for (Future<Void> result : results) {
+        try {
+          result.get();
+        }
+        catch (ExecutionException e) {
+          if (failure == null)
+            failure = e.getCause();
+        }
+      }
+      if (failure instanceof MojoExecutionException)
+        throw (MojoExecutionException) failure;
+      if (failure != null)
+        throw new MojoExecutionException("Problem staging dependencies: ", failure);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while staging dependencies", e);
+    }
+    finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private boolean isPrimaryArtifact(Artifact a) {
+    return primaryArtifactId != null && a.getArtifactId().equals(primaryArtifactId);
+  }
+
+  private void stageDependency(Artifact a, File tempDir) throws MojoExecutionException {
+    if (!isPrimaryArtifact(a)) {
+      this.copyArtifact(a, new File(tempDir, "lib")); // copy dependencies into lib
+      return;
+    }
+    // add runtime dependencies not declared in primaryArtifact due to circular nature
+    if (project.getDependencies().size() > 1) {
+      PerfReport.Phase merge = perf.start("merge-local-dependencies");
+      merge.read(a.getFile().length());
+      try {
+        addLocalDependencies(a.getFile(), tempDir);
+      }
+      finally {
+        merge.wrote(a.getFile().length()).files(1).end();
+      }
+    }
+    this.copyArtifact(a, tempDir); // copy primaryArtifact to tempDir
+  }
+
   private void copyArtifact(Artifact a, File targetDir) throws MojoExecutionException {
     if (!targetDir.exists())
       targetDir.mkdirs();
     File artifactDestFile = new File(targetDir, a.getFile().getName());
-    FileUtils.copyFile(a.getFile(), artifactDestFile);
+    FileUtils.copyFile(a.getFile(), artifactDestFile, copier);
   }
 
   /**
@@ -265,13 +569,168 @@ public class RPMMojo extends AbstractMojo {
    * @todo Add license files in META-INF directory.
    */
   public File createPackage(File tempDir) throws MojoExecutionException, MojoFailureException {
+    try {
+      return buildPackage(tempDir, null, params, requires, new File(targetDirectory, "rpm"), true);
+    }
+    finally {
+      if (!params.containsKey("debug") && tempDir.exists())
+        cleanUp(tempDir);
+    }
+  }
+
+  /**
+   * Generates each of the configured packages from the one workspace, several at a time, and
+   * attaches them to the project.  Assumes tempDir has been setup properly.
+   */
+  public List<File> createPackages(File tempDir) throws MojoExecutionException, MojoFailureException {
+    final File workspace = tempDir;
+    final List<String> paths = scanDirectory(tempDir);
+    final Set<String> directories = new HashSet<String>();
+    for (String path : paths) {
+      if (new File(tempDir, path).isDirectory())
+        directories.add(path);
+    }
+
+    // Each package gets a work area (rpmbuild's _topdir) of its own, named for its name and arch
+    Set<String> keys = new HashSet<String>();
+    int workers = Math.min(packages.length, packageThreads > 0 ? packageThreads : Runtime.getRuntime().availableProcessors());
+    ExecutorService pool = Executors.newFixedThreadPool(workers, new WorkerFactory("rpm-package-"));
+    List<Future<File>> results = new ArrayList<Future<File>>();
+    List<File> rpmFiles = new ArrayList<File>();
+    boolean debug = params != null && params.containsKey("debug");
+    try {
+      for (int i = 0; i < packages.length; i++) {
+        final RPMPackage pkg = packages[i];
+        final Map<String,String> pkgParams = pkg.mergeParams(params);
+        final String[] pkgRequires = pkg.mergeRequires(requires);
+        final boolean first = i == 0;
+        String key = getComponentName(pkgParams, artifactId) + "." + getBuildArch(pkgParams);
+        if (!keys.add(key))
+          throw new MojoExecutionException("More than one package is named " + key);
+        debug |= pkgParams.containsKey("debug");
+        final File workarea = new File(targetDirectory, "rpm/" + key);
+        results.add(pool.submit(new Callable<File>() {
+          public File call() throws Exception {
+            List<String> selected = pkg.select(paths, directories);
+            return buildPackage(workspace, selected, pkgParams, pkgRequires, workarea, first);
+          }
+        }));
+      }
+      for (Future<File> result : results) {
+        try {
+          rpmFiles.add(result.get());
+        }
+        catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof MojoExecutionException)
+            throw (MojoExecutionException) cause;
+          if (cause instanceof MojoFailureException)
+            throw (MojoFailureException) cause;
+          throw new MojoExecutionException("Problem creating package: ", cause);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new MojoExecutionException("Interrupted while creating packages", e);
+        }
+      }
+    }
+    finally {
+      for (Future<File> result : results)
+        result.cancel(true);
+      pool.shutdownNow();
+      if (!debug && tempDir.exists())
+        cleanUp(tempDir);
+    }
+
+    Map<String,Integer> names = new HashMap<String,Integer>();
+    for (int i = 0; i < packages.length; i++) {
+      String name = getComponentName(packages[i].mergeParams(params), artifactId);
+      names.put(name, names.containsKey(name) ? names.get(name) + 1 : 1);
+    }
+    for (int i = 0; i < packages.length; i++) {
+      String pkgClassifier = packages[i].getClassifier();
+      if (pkgClassifier == null && i > 0) {
+        Map<String,String> pkgParams = packages[i].mergeParams(params);
+        String name = getComponentName(pkgParams, artifactId);
+        pkgClassifier = names.get(name) > 1 ? name + "-" + getBuildArch(pkgParams) : name;
+      }
+      if (pkgClassifier == null)
+        pkgClassifier = classifier;
+      if (pkgClassifier != null)
+        projectHelper.attachArtifact(project, "rpm", pkgClassifier, rpmFiles.get(i));
+      else
+        project.getArtifact().setFile(rpmFiles.get(i));
+      attachChecksums(rpmFiles.get(i), pkgClassifier);
+    }
+    return rpmFiles;
+  }
+
+  /**
+   * Generates one RPM from the workspace.
+   *
+   * @param tempDir The workspace.
+   * @param paths The paths within the workspace which go into the package, or null for all of
+   *            it, in which case the workspace may be moved rather than copied.
+   * @param params The RPM params, filled in with defaults as the package is built.
+   * @param requires The RPM requires.
+   * @param workarea The rpmbuild work area (<code>_topdir</code>), which no other package may
+   *            share.
+   * @param addBuildroot Whether the files below <code>src/buildroot</code> go into this package,
+   *            when it is written natively.
+   */
+  private File buildPackage(File tempDir, List<String> paths, Map<String,String> params, String[] requires,
+      File workarea, boolean addBuildroot) throws MojoExecutionException, MojoFailureException {
+    // Beside the work area rather than in it, since the work area is removed after the build
+    File lockFile = new File(workarea.getPath() + ".lock");
+    lockFile.getParentFile().mkdirs();
+    RandomAccessFile file = null;
+    try {
+      file = new RandomAccessFile(lockFile, "rw");
+      lockWorkArea(file.getChannel());
+      return buildPackageIn(tempDir, paths, params, requires, workarea, addBuildroot);
+    }
+    catch (IOException e) {
+      throw new MojoExecutionException("Unable to lock " + lockFile, e);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted waiting for " + lockFile, e);
+    }
+    finally {
+      // Releases the lock
+      if (file != null) {
+        try {
+          file.close();
+        }
+        catch (IOException e) { ; }
+      }
+    }
+  }
+
+  /**
+   * Waits for the lock of a work area, so that builds sharing one take turns rather than clean up
+   * after each other: executions of a parallel reactor build in this JVM (two executions of a
+   * module naming the same package, say) as well as builds of the same project in another.
+   * Within the JVM a lock held through another channel is not waited for but refused, so it is
+   * tried again until it is free.
+   */
+  private static void lockWorkArea(FileChannel channel) throws IOException, InterruptedException {
+    while (true) {
+      try {
+        channel.lock();
+        return;
+      }
+      catch (OverlappingFileLockException e) {
+        Thread.sleep(50);
+      }
+    }
+  }
+
+  private File buildPackageIn(File tempDir, List<String> paths, Map<String,String> params, String[] requires,
+      File workarea, boolean addBuildroot) throws MojoExecutionException, MojoFailureException {
     File destFile = null;
-    File workarea = new File(targetDirectory, "rpm");
     RPMBuild rpmbuild = new RPMBuild(workarea, getLog());
     try {
-      // Build RPM Work Area
-      rpmbuild.buildWorkArea();
-
       // Generate SPEC File
       String name = getComponentName(params, artifactId);
       String rpmVersion = null;
@@ -302,36 +761,328 @@ public class RPMMojo extends AbstractMojo {
       // Place RPM Sources
       String component_name = getComponentName(params, name);
       String install_dir = getComponentName(params, component_name);
-      File sources = new File(workarea, "SOURCES/" + component_name + ".tgz");  // link name of gzip to .spec file
-      this.createTARArchive(sources, tempDir, component_name + "/");
-
       params.put("pombr", baseDirectory.getPath());
-      rpmbuild.writeSpecFile(component_name, params, requires);
+      if (nativeBuild) {
+        // The signature covers the payload it precedes, so it is only written once the payload
+        // is complete; the package is then read back once (from the page cache, just after it
+        // was written) to be digested, which costs less than spooling the payload to write the
+        // package front to back
+        File rpmDest = writePackage(tempDir, paths, params, requires, addBuildroot);
+        writeChecksums(rpmDest, null);
+        return rpmDest;
+      }
 
-      // Build Package
-      rpmbuild.execute(component_name, false);
+      // Build RPM Work Area
+      if (paths != null)
+        rpmbuild.setLogPrefix("[" + component_name + "] ");
+      rpmbuild.buildWorkArea();
+      rpmbuild.setProperties(project != null ? project.getProperties() : null);
+      rpmbuild.setSourceDate(sourceDate);
+      File staged = new File(workarea, "BUILD/" + component_name);
+      String extension = isSourceCompressed() ? ".tgz" : ".tar";
+      if (directBuildroot) {
+        rpmbuild.setStagedDirectory(staged);
+        // Linked staged files are the originals, which the buildroot scripts must not touch
+        rpmbuild.setCopyStaged(linkStagedFiles);
+      }
+      else {
+        rpmbuild.setSourceExtension(extension);
+      }
+      PerfReport.Phase phase = perf.start("spec");
+      String spec;
+      try {
+        spec = rpmbuild.writeSpecFile(component_name, params, requires);
+        phase.wrote(spec.length()).files(1);
+      }
+      finally {
+        phase.end();
+      }
 
-      // Move to Target
-      String buildArch = params.get("BuildArch");
+      String buildArch = getBuildArch(params);
       String artifact = component_name + "-" + rpmVersion + "-" + params.get("release") + "." + buildArch + ".rpm";
-      File rpmWork = new File(workarea, "RPMS/" + buildArch + "/" + artifact);
-      File rpmDest = new File(targetDirectory, artifact);
-      FileUtils.copyFile(rpmWork, rpmDest);
+      List<String> selected = paths != null ? paths : scanDirectory(tempDir);
+      Checksums sums = checksums ? new Checksums() : null;
+      RPMCache cache = null;
+      String key = null;
+      if (buildCache) {
+        phase = perf.start("cache");
+        try {
+          cache = new RPMCache(cacheDirectory, getLog());
+          // The source date goes with the version, as it changes what rpmbuild writes
+          String tool = RPMBuild.getVersion() + (sourceDate >= 0 ? " " + SourceDate.ENVIRONMENT + "=" + sourceDate / 1000 : "");
+          key = cache.key(tempDir, selected, getPOMBR(), spec, tool);
+          phase.files(selected.size());
+          File restored = cache.restore(component_name + "." + buildArch, key, targetDirectory, sums);
+          if (restored != null) {
+            phase.end();
+            writeChecksums(restored, sums);
+            return restored;
+          }
+        }
+        finally {
+          phase.end();
+        }
+      }
+
+      if (directBuildroot) {
+        // Hand rpmbuild the workspace itself; %install links it into the buildroot
+        phase = perf.start("buildroot-staging");
+        try {
+          if (paths == null && !buildCache)
+            moveWorkspace(tempDir, staged);
+          else
+            syncWorkspace(tempDir, selected, staged);
+        }
+        finally {
+          phase.files(selected.size()).end();
+        }
+      }
+      else {
+        // Written again in full: rpmbuild unpacks all of it, so changed files alone would not do
+        File sources = new File(workarea, "SOURCES/" + component_name + extension);  // link name of gzip to .spec file
+        this.createTARArchive(sources, tempDir, selected, component_name + "/");
+      }
+
+      // Build Package
+      phase = perf.start("rpmbuild");
+      try {
+        rpmbuild.execute(component_name, buildArch);
+      }
+      finally {
+        phase.end();
+        if (rpmbuild.getOutput() != null) {
+          for (Map.Entry<String,Long> e : rpmbuild.getOutput().getPhaseTimes().entrySet())
+            perf.add("rpmbuild " + e.getKey(), e.getValue());
+        }
+      }
+
+      // Move to Target, under the name rpmbuild gave it (the architecture may not be BuildArch)
+      File rpmWork = getWrittenPackage(rpmbuild.getOutput() != null ? rpmbuild.getOutput().getWrittenFiles() : null,
+          component_name + "-" + rpmVersion + "-", new File(workarea, "RPMS/" + buildArch + "/" + artifact));
+      File rpmDest = new File(targetDirectory, rpmWork.getName());
+      phase = perf.start("finalize");
+      try {
+        sums = finalizePackage(rpmWork, rpmDest);
+      }
+      finally {
+        phase.files(1).end();
+      }
+      writeChecksums(rpmDest, sums);
+      if (cache != null)
+        cache.store(component_name + "." + buildArch, key, rpmDest);
       destFile = rpmDest;
     }
     catch (Throwable e) {
       throw new MojoExecutionException("Problem creating archive: ", e);
     }
     finally {
-      if (!params.containsKey("debug")) {
-        FileUtils.deleteDirectory(tempDir);
-        FileUtils.deleteDirectory(workarea);
-      }
+      if (!params.containsKey("debug") && !buildCache && workarea.exists())
+        cleanUp(workarea);
     }
     return destFile;
   }
 
-  protected static File getPOMBR() {
+  /**
+   * @param written The paths rpmbuild reported writing, may be null.
+   * @param prefix The name and version of the component, as they begin its file name:
+   *            <code>name-version-</code>.
+   * @param expected Where the package is expected, should rpmbuild report none.
+   * @return The binary package rpmbuild reported writing: the first of the component's, else the
+   *         first of any (its source package aside), else the one expected.
+   */
+  static File getWrittenPackage(List<String> written, String prefix, File expected) {
+    File any = null;
+    if (written != null) {
+      for (String path : written) {
+        File f = new File(path);
+        if (!f.getName().endsWith(".rpm") || f.getName().endsWith(".src.rpm"))
+          continue;
+        if (f.getName().startsWith(prefix))
+          return f;
+        if (any == null)
+          any = f;
+      }
+    }
+    return any != null ? any : expected;
+  }
+
+  /**
+   * Moves the package rpmbuild wrote into the target directory without copying it, in one atomic
+   * rename.  Where the two are on different file systems, which neither a rename nor a hard link
+   * can cross, it is copied beside the destination and the copy renamed into place, so the
+   * destination never holds part of a package.  Either way the result is checked against the size
+   * and SHA-256 digest of the package built.
+   *
+   * @return The digests of the package.
+   */
+  Checksums finalizePackage(File built, File dest) throws IOException {
+    if (!built.isFile())
+      throw new IOException("rpmbuild did not write " + built);
+    long size = built.length();
+    Checksums sums = new Checksums();
+    sums.digest(built);
+    String how;
+    try {
+      Files.move(built.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      how = "Moved";
+    }
+    catch (AtomicMoveNotSupportedException e) {
+      File part = new File(dest.getPath() + ".part");
+      Files.copy(built.toPath(), part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      Files.move(part.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      how = "Copied";
+    }
+    if (dest.length() != size)
+      throw new IOException(dest + " is " + dest.length() + " bytes where rpmbuild wrote " + size);
+    Checksums check = new Checksums();
+    check.digest(dest);
+    if (!check.getSHA256().equals(sums.getSHA256()))
+      throw new IOException(dest + " does not match the package rpmbuild wrote");
+    getLog().info(how + " " + built.getName() + " to " + targetDirectory);
+    return sums;
+  }
+
+  /**
+   * Writes the <code>.sha256</code> and <code>.sha512</code> files of a package and logs its
+   * digests, unless checksums are turned off.
+   *
+   * @param sums The digests taken as the package was finalized or copied out of the cache, or
+   *            null to read it (just after it was written, so from the page cache) to take them.
+   */
+  private void writeChecksums(File rpm, Checksums sums) throws IOException {
+    if (!checksums)
+      return;
+    PerfReport.Phase phase = perf.start("checksums");
+    try {
+      if (sums == null) {
+        sums = new Checksums();
+        sums.digest(rpm);
+        phase.read(rpm.length());
+      }
+      sums.writeSidecars(rpm);
+      phase.files(Checksums.SIDECARS.length);
+    }
+    finally {
+      phase.end();
+    }
+    getLog().info("MD5 " + sums.getMD5() + ", SHA-256 " + sums.getSHA256() + ": " + rpm.getName());
+  }
+
+  /**
+   * Attaches the <code>.sha256</code> and <code>.sha512</code> files of a package to the project,
+   * with the classifier of the package, so that they are installed and deployed beside it.
+   */
+  private void attachChecksums(File rpm, String classifier) {
+    if (!checksums)
+      return;
+    for (String extension : Checksums.SIDECARS) {
+      File sidecar = Checksums.sidecar(rpm, extension);
+      if (!sidecar.isFile())
+        continue;
+      if (classifier != null)
+        projectHelper.attachArtifact(project, "rpm." + extension, classifier, sidecar);
+      else
+        projectHelper.attachArtifact(project, "rpm." + extension, sidecar);
+    }
+  }
+
+  /**
+   * @return The architecture the package is built for: the <code>BuildArch</code> param, or
+   *         <code>noarch</code>.
+   */
+  protected static String getBuildArch(Map<String,String> params) {
+    String arch = params.get("BuildArch");
+    return arch != null && arch.trim().length() > 0 ? arch.trim() : "noarch";
+  }
+
+  /**
+   * Moves the workspace to where rpmbuild is to find it, renaming it where possible and otherwise
+   * linking (or copying) its files.
+   */
+  private void moveWorkspace(File tempDir, File staged) throws IOException, MojoExecutionException {
+    if (staged.exists())
+      FileUtils.deleteDirectory(staged);
+    try {
+      Files.move(tempDir.toPath(), staged.toPath());
+    }
+    catch (IOException e) {
+      getLog().debug("Unable to rename " + tempDir + " to " + staged + " (" + e + "), linking instead");
+      FileUtils.copyDirectory(tempDir, staged, null, "", new FileCopier(true));
+    }
+  }
+
+  /**
+   * Brings the directory rpmbuild is to find the workspace in up to date with the selected part
+   * of it, leaving the workspace to the other packages.  Files which are already there with the
+   * same size and modification time are left alone, others are hard linked (or, across file
+   * systems, copied) in, and whatever is no longer selected is removed.
+   */
+  private void syncWorkspace(File tempDir, List<String> paths, File staged) throws MojoExecutionException {
+    staged.mkdirs();
+    Set<String> wanted = new HashSet<String>(paths);
+    List<String> existing = scanDirectory(staged);
+    for (int i = existing.size() - 1; i >= 0; i--) {
+      File f = new File(staged, existing.get(i));
+      if (!wanted.contains(existing.get(i)) || f.isDirectory() != new File(tempDir, existing.get(i)).isDirectory()) {
+        if (f.isDirectory())
+          FileUtils.deleteDirectory(f);
+        else
+          f.delete();
+      }
+    }
+    FileCopier linker = new FileCopier(true);
+    int unchanged = 0;
+    for (String path : paths) {
+      File f = new File(tempDir, path);
+      File dest = new File(staged, path);
+      if (f.isDirectory())
+        dest.mkdirs();
+      else if (dest.isFile() && dest.length() == f.length() && dest.lastModified() == f.lastModified()
+          && dest.canExecute() == f.canExecute())
+        unchanged++;
+      else
+        FileUtils.copyFile(f, dest, linker);
+    }
+    getLog().debug("Staged " + staged + ": " + linker + ", " + unchanged + " files unchanged");
+  }
+
+  /**
+   * Writes the RPM directly from the workspace, without rpmbuild.  Assumes the params have been
+   * filled in.
+   */
+  private File writePackage(File tempDir, List<String> paths, Map<String,String> params, String[] requires,
+      boolean addBuildroot) throws IOException {
+    long start = System.currentTimeMillis();
+    PerfReport.Phase phase = perf.start("native-write");
+    try {
+      RPMWriter writer = new RPMWriter(compression, getLog());
+      writer.configure(params, requires, project != null ? project.getProperties() : null);
+      writer.setSourceDate(sourceDate);
+      String installPath = params.get("prefix") + "/" + getInstallDir(params);
+      writer.addFile(installPath, tempDir);
+      for (String path : paths != null ? paths : scanDirectory(tempDir))
+        writer.addFile(installPath + "/" + path.replace(File.separatorChar, '/'), new File(tempDir, path));
+      // Files (but not directories, such as /etc) laid out below src/buildroot
+      File buildroot = getPOMBR();
+      if (addBuildroot && buildroot.isDirectory()) {
+        for (String path : scanDirectory(buildroot)) {
+          File f = new File(buildroot, path);
+          if (f.isFile())
+            writer.addFile(path.replace(File.separatorChar, '/'), f);
+        }
+      }
+      File rpmDest = new File(targetDirectory, writer.getFileName());
+      writer.write(rpmDest);
+      phase.wrote(rpmDest.length());
+      getLog().info("Wrote " + rpmDest.getPath() + " in " + (System.currentTimeMillis() - start) + " ms");
+      return rpmDest;
+    }
+    finally {
+      phase.end();
+    }
+  }
+
+  protected File getPOMBR() {
     return new File(baseDirectory, "src/buildroot");
   }
 
@@ -396,6 +1147,8 @@ public class RPMMojo extends AbstractMojo {
         archiver.getArchiver().addDirectory(directory, DEFAULT_INCLUDES, DEFAULT_EXCLUDES);
       }
       archiver.createArchive(project, archive);
+      if (sourceDate >= 0)
+        JarRewriter.normalize(jarFile, sourceDate);
     }
     catch (Throwable t) {
       throw new MojoExecutionException("Problem creating JAR archive: ", t);
@@ -403,21 +1156,122 @@ public class RPMMojo extends AbstractMojo {
     return;
   }
 
+  /**
+   * Creates a gzipped TAR of the specified directory.  Each entry is compressed according to the
+   * compression policy: entries it chooses to store (already compressed jars, for instance) are
+   * written into the gzip stream at level 0 rather than deflated a second time.
+   * 
+   * @param tarFile The TAR file to create.
+   * @param directory The directory to include in the TAR file.
+   * @param prefix The directory name given to the content at the root of the TAR.
+   * @throws MojoExecutionException If any problems occur during the creation.
+   */
   public void createTARArchive(File tarFile, File directory, String prefix) throws MojoExecutionException {
+    createTARArchive(tarFile, directory, scanDirectory(directory), prefix);
+  }
+
+  /**
+   * Creates a TAR of some of the files and directories of the specified directory, compressed as
+   * described above.
+   *
+   * @param paths The paths, relative to the directory, to include, in the order they are to be
+   *            written.
+   */
+  public void createTARArchive(File tarFile, File directory, List<String> paths, String prefix) throws MojoExecutionException {
+    OutputStream out = null;
+    PerfReport.Phase phase = perf.start("tar");
     try {
-      TarCompressionMethod tcm = new org.codehaus.plexus.archiver.tar.TarArchiver.TarCompressionMethod();
-      tcm.setValue("gzip");
-      tarArchiver.setDestFile(tarFile);
-      tarArchiver.setCompression(tcm);
-      tarArchiver.addDirectory(directory, prefix);  // prefix == directory @ root of GZIP
-      tarArchiver.createArchive();
+      out = new BufferedOutputStream(new FileOutputStream(tarFile), (1 << 10) * 64);
+      ParallelGzipOutputStream gzip = null;
+      if (isSourceCompressed()) {
+        gzip = new ParallelGzipOutputStream(out, compression.getLevel(), compressionThreads);
+        out = gzip;
+      }
+      TarWriter tar = new TarWriter(out);
+      for (String path : paths) {
+        File f = new File(directory, path);
+        TarWriter.Header h = TarWriter.Header.forFile(f, prefix + path.replace(File.separatorChar, '/'));
+        if (sourceDate >= 0)
+          h.normalize(sourceDate);
+        if (h.isDirectory()) {
+          tar.putEntry(h);
+          continue;
+        }
+        phase.read(h.getSize()).files(1);
+        if (gzip == null) {
+          tar.putFile(h, f);
+          continue;
+        }
+
+        int decision = compression.choose(h.getName(), h.getSize());
+        if (decision == CompressionPolicy.SAMPLE)
+          decision = compression.isWorthDeflating(readSample(f), (int) Math.min(h.getSize(), CompressionPolicy.SAMPLE_SIZE))
+              ? CompressionPolicy.DEFLATE : CompressionPolicy.STORE;
+        gzip.setLevel(decision == CompressionPolicy.STORE ? Deflater.NO_COMPRESSION : compression.getLevel());
+        tar.putFile(h, f);
+        // Blocks are deflated in the background, so the output and CPU time are counted at the end
+        if (decision == CompressionPolicy.STORE)
+          compression.getStats().stored(h.getSize());
+        else
+          compression.getStats().deflated(h.getSize(), 0, 0);
+      }
+      tar.finish();
+      out.close();
+      out = null;
+      if (gzip != null) {
+        compression.getStats().deflated(gzip.getDeflatedOutput(), gzip.getDeflateCpu());
+        phase.cpu(gzip.getDeflateCpu());
+        getLog().info("Compression: " + compression.getStats());
+      }
     }
     catch (Throwable t) {
       throw new MojoExecutionException("Problem creating TAR archive: ", t);
     }
+    finally {
+      try { if (out != null) { out.close(); out = null; } } catch (Throwable t) { ; }
+      phase.wrote(tarFile.length()).end();
+    }
     return;
   }
 
+  private boolean isSourceCompressed() {
+    return !"none".equalsIgnoreCase(sourceCompression);
+  }
+
+  /**
+   * Lists the directories and files below a directory, ordered by path, leaving out the default
+   * excludes (version control metadata and the like) as the plexus archivers do.
+   */
+  private static List<String> scanDirectory(File directory) {
+    DirectoryScanner ds = new DirectoryScanner();
+    ds.setBasedir(directory);
+    ds.addDefaultExcludes();
+    ds.scan();
+    List<String> paths = new ArrayList<String>();
+    for (String d : ds.getIncludedDirectories()) {
+      if (d.length() > 0)
+        paths.add(d);
+    }
+    paths.addAll(Arrays.asList(ds.getIncludedFiles()));
+    Collections.sort(paths);
+    return paths;
+  }
+
+  static byte[] readSample(File f) throws IOException {
+    byte[] sample = new byte[(int) Math.min(f.length(), CompressionPolicy.SAMPLE_SIZE)];
+    InputStream in = new FileInputStream(f);
+    try {
+      int total = 0;
+      int count;
+      while (total < sample.length && (count = in.read(sample, total, sample.length - total)) != -1)
+        total += count;
+    }
+    finally {
+      in.close();
+    }
+    return sample;
+  }
+
   /**
    * Retrieves all artifact dependencies.
    * 
@@ -452,8 +1306,8 @@ public class RPMMojo extends AbstractMojo {
   }
 
   /**
-   * Copies the file into the workspace directory only if it does not match the exclude regular
-   * expression, if one is given.
+   * Copies the file into the workspace directory only if it is not excluded by
+   * <code>excludeRegexList</code> or <code>excludes</code>.
    * 
    * @param tempDir -
    *            the workspace directory
@@ -463,10 +1317,25 @@ public class RPMMojo extends AbstractMojo {
    */
   private void copyToWorkspace(File tempDir, File f) throws MojoExecutionException {
     String fName = f.getName();
+    if (getExclusionFilter().excludes(fName, f.isDirectory()))
+      return;
     if (f.isDirectory())
-      FileUtils.copyDirectory(f, new File(tempDir, fName));
+      FileUtils.copyDirectory(f, new File(tempDir, fName), getExclusionFilter(), fName, copier);
     else if (f.isFile())
-      FileUtils.copyFile(f, new File(tempDir, fName));
+      FileUtils.copyFile(f, new File(tempDir, fName), copier);
+  }
+
+  private PathFilter exclusionFilter;
+
+  private FileCopier copier = new FileCopier(false);
+
+  /**
+   * @return The exclusion patterns, compiled on first use.
+   */
+  protected PathFilter getExclusionFilter() {
+    if (exclusionFilter == null)
+      exclusionFilter = PathFilter.compile(excludeRegexList, excludes);
+    return exclusionFilter;
   }
 
   /**
@@ -481,6 +1350,19 @@ public class RPMMojo extends AbstractMojo {
    *             If any problems occur during the merge.
    */
   protected void addLocalDependencies(File primaryArtifact, File tempDir) throws MojoExecutionException {
+    if (archive.getManifestFile() == null && !archive.isIndex()) {
+      // Copy the compressed entries straight across; only META-INF is regenerated.
+      try {
+        long start = System.currentTimeMillis();
+        int copied = JarRewriter.forProject(session, project, archive, sourceDate).rewrite(primaryArtifact);
+        getLog().debug("Rewrote " + primaryArtifact.getName() + " (" + copied + " entries) in " + (System.currentTimeMillis() - start) + " ms");
+      }
+      catch (Throwable e) {
+        getLog().error(e);
+      }
+      return;
+    }
+
     File tmp = new File(tempDir, "tmp");
     FileUtils.explodeZip(primaryArtifact, tmp);
     FileUtils.deleteDirectory(new File(tmp, "META-INF"));
@@ -495,4 +1377,22 @@ public class RPMMojo extends AbstractMojo {
     }
   }
 
+  /**
+   * Names the package workers and keeps them from holding up JVM exit.
+   */
+  private static class WorkerFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    WorkerFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, prefix + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
 }
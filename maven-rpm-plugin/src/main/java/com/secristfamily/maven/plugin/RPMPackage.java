@@ -0,0 +1,206 @@
+package com.secristfamily.maven.plugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One of several packages built from a single staged workspace.  Each package takes the files of
+ * the workspace its patterns select, and its own params, requires and target architecture; its
+ * params are laid over those of the plugin, so only what differs need be given.
+ * <p>
+ * Configured within the plugin configuration as:
+ * <pre>
+ * &lt;packages&gt;
+ *   &lt;package&gt;
+ *     &lt;params&gt;
+ *       &lt;ComponentName&gt;service-config&lt;/ComponentName&gt;
+ *       &lt;post&gt;scripts/config-post.sh&lt;/post&gt;
+ *     &lt;/params&gt;
+ *     &lt;includes&gt;
+ *       &lt;include&gt;conf/**&lt;/include&gt;
+ *     &lt;/includes&gt;
+ *     &lt;arch&gt;noarch&lt;/arch&gt;
+ *   &lt;/package&gt;
+ * &lt;/packages&gt;
+ * </pre>
+ * Patterns are Ant style, matched against paths within the workspace as the plugin's
+ * <code>excludes</code> are; a pattern ending in <code>/**</code> selects (or leaves out) a
+ * directory with everything below it.  With no <code>includes</code> the whole workspace is
+ * selected.
+ */
+public class RPMPackage {
+
+  /**
+   * RPM parameters, overriding those of the plugin.  <code>ComponentName</code> tells the
+   * packages apart.
+   *
+   * @parameter
+   */
+  private Map<String, String> params;
+
+  /**
+   * RPM requires, in place of those of the plugin.
+   *
+   * @parameter
+   */
+  private String[] requires;
+
+  /**
+   * Ant style patterns of the paths within the workspace which go into this package.
+   *
+   * @parameter
+   */
+  private List<String> includes;
+
+  /**
+   * Ant style patterns of the paths within the workspace left out of this package.
+   *
+   * @parameter
+   */
+  private List<String> excludes;
+
+  /**
+   * The target architecture; by default the <code>BuildArch</code> param, or
+   * <code>noarch</code>.
+   *
+   * @parameter
+   */
+  private String arch;
+
+  /**
+   * The classifier the package is attached to the project with; by default the first package is
+   * the project's artifact and the others are attached under their <code>ComponentName</code>.
+   *
+   * @parameter
+   */
+  private String classifier;
+
+  private PathFilter includeFilter;
+  private PathFilter excludeFilter;
+
+  public Map<String, String> getParams() {
+    return params;
+  }
+
+  public void setParams(Map<String, String> params) {
+    this.params = params;
+  }
+
+  public String[] getRequires() {
+    return requires;
+  }
+
+  public void setRequires(String[] requires) {
+    this.requires = requires;
+  }
+
+  public void setIncludes(List<String> includes) {
+    this.includes = includes;
+    includeFilter = null;
+  }
+
+  public void setExcludes(List<String> excludes) {
+    this.excludes = excludes;
+    excludeFilter = null;
+  }
+
+  public String getArch() {
+    return arch;
+  }
+
+  public void setArch(String arch) {
+    this.arch = arch;
+  }
+
+  public String getClassifier() {
+    return classifier;
+  }
+
+  public void setClassifier(String classifier) {
+    this.classifier = classifier;
+  }
+
+  /**
+   * Lays the params of this package over those given.
+   *
+   * @param defaults The params of the plugin, may be null.
+   * @return A new map, which the caller may modify.
+   */
+  public Map<String, String> mergeParams(Map<String, String> defaults) {
+    Map<String, String> merged = new HashMap<String, String>();
+    if (defaults != null)
+      merged.putAll(defaults);
+    if (params != null)
+      merged.putAll(params);
+    if (arch != null)
+      merged.put("BuildArch", arch);
+    return merged;
+  }
+
+  /**
+   * @param defaults The requires of the plugin, may be null.
+   * @return The requires of this package, or if it has none, those given.
+   */
+  public String[] mergeRequires(String[] defaults) {
+    return requires != null ? requires : defaults;
+  }
+
+  /**
+   * Picks the paths which go into this package.  A file is selected when neither it nor a
+   * directory above it is excluded, and it or a directory above it is included; a directory is
+   * selected when it is itself selected in that way, or holds a selected file.
+   *
+   * @param paths Every directory and file of the workspace, relative to it, ordered so that a
+   *            directory precedes what it holds (as {@link java.util.Collections#sort} leaves
+   *            them).
+   * @param directories The paths among them which are directories.
+   * @return The selected paths, in the order given.
+   */
+  public List<String> select(List<String> paths, Set<String> directories) {
+    if (includeFilter == null)
+      includeFilter = PathFilter.compile(null, includes);
+    if (excludeFilter == null)
+      excludeFilter = PathFilter.compile(null, excludes);
+
+    Set<String> excludedDirs = new HashSet<String>();
+    Set<String> includedDirs = new HashSet<String>();
+    Set<String> selected = new HashSet<String>();
+    for (String path : paths) {
+      String p = path.replace('\\', '/');
+      String parent = p.lastIndexOf('/') == -1 ? null : p.substring(0, p.lastIndexOf('/'));
+      boolean directory = directories.contains(path);
+      if (parent != null && excludedDirs.contains(parent)) {
+        if (directory)
+          excludedDirs.add(p);
+        continue;
+      }
+      if (excludeFilter.excludes(p, directory)) {
+        if (directory)
+          excludedDirs.add(p);
+        continue;
+      }
+      boolean included = includeFilter.isEmpty() || (parent != null && includedDirs.contains(parent))
+          || includeFilter.excludes(p, directory);
+      if (directory && included)
+        includedDirs.add(p);
+      if (included) {
+        selected.add(p);
+        // The directories holding a selected file go with it
+        String d = parent;
+        while (d != null && selected.add(d))
+          d = d.lastIndexOf('/') == -1 ? null : d.substring(0, d.lastIndexOf('/'));
+      }
+    }
+    List<String> result = new ArrayList<String>();
+    for (String path : paths) {
+      if (selected.contains(path.replace('\\', '/')))
+        result.add(path);
+    }
+    return result;
+  }
+
+}
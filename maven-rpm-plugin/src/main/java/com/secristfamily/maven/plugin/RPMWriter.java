@@ -0,0 +1,838 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Writes a binary RPM directly, without a spec file, a source tarball or <code>rpmbuild</code>.
+ * <p>
+ * The package is laid out as <code>rpm</code> itself writes it: the lead, a signature header
+ * holding the size and digests of what follows, the main header describing the package and its
+ * files, and the payload, a gzipped cpio archive of the files.  The files are streamed into the
+ * payload straight from where they are staged, and each is compressed according to the
+ * {@link CompressionPolicy}, as in the tarball otherwise handed to <code>rpmbuild</code>.
+ * <p>
+ * The package takes its name, version, release, summary and so on from the same
+ * <code>params</code> as the spec file, and its <code>%pre</code>, <code>%post</code>,
+ * <code>%preun</code>, <code>%postun</code> and <code>%verifyscript</code> scriptlets from the
+ * {@link ScriptLoader}.  Build time scripts (<code>%install</code>, <code>%clean</code>) have
+ * nothing to run against and are ignored.
+ * <p>
+ * Given a source date, the package is the same byte for byte whenever its content is: the build
+ * time and the time of every file is the source date, the build host is <code>localhost</code>
+ * and files have normal permissions (0755 for directories and executables, otherwise 0644).
+ */
+public class RPMWriter {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final byte[] LEAD_MAGIC = { (byte) 0xed, (byte) 0xab, (byte) 0xee, (byte) 0xdb };
+  private static final int LEAD_SIZE = 96;
+
+  // The rpm recorded as the builder: 4.14 added the SHA-256 header digest of the signature, the
+  // newest of the tags written (file digests other than MD5 came with 4.6)
+  private static final String RPM_VERSION = "4.14.0";
+
+  // Signature tags
+  private static final int SIGTAG_SHA1 = 269;
+  private static final int SIGTAG_SHA256 = 273;
+  private static final int SIGTAG_SIZE = 1000;
+  private static final int SIGTAG_MD5 = 1004;
+  private static final int SIGTAG_PAYLOADSIZE = 1007;
+
+  // Header tags
+  private static final int HEADERI18NTABLE = 100;
+  private static final int NAME = 1000;
+  private static final int VERSION = 1001;
+  private static final int RELEASE = 1002;
+  private static final int SUMMARY = 1004;
+  private static final int DESCRIPTION = 1005;
+  private static final int BUILDTIME = 1006;
+  private static final int BUILDHOST = 1007;
+  private static final int SIZE = 1009;
+  private static final int DISTRIBUTION = 1010;
+  private static final int VENDOR = 1011;
+  private static final int LICENSE = 1014;
+  private static final int PACKAGER = 1015;
+  private static final int GROUP = 1016;
+  private static final int URL = 1020;
+  private static final int OS = 1021;
+  private static final int ARCH = 1022;
+  private static final int PREIN = 1023;
+  private static final int POSTIN = 1024;
+  private static final int PREUN = 1025;
+  private static final int POSTUN = 1026;
+  private static final int FILESIZES = 1028;
+  private static final int FILEMODES = 1030;
+  private static final int FILERDEVS = 1033;
+  private static final int FILEMTIMES = 1034;
+  private static final int FILEDIGESTS = 1035;
+  private static final int FILELINKTOS = 1036;
+  private static final int FILEFLAGS = 1037;
+  private static final int FILEUSERNAME = 1039;
+  private static final int FILEGROUPNAME = 1040;
+  private static final int SOURCERPM = 1044;
+  private static final int FILEVERIFYFLAGS = 1045;
+  private static final int PROVIDENAME = 1047;
+  private static final int REQUIREFLAGS = 1048;
+  private static final int REQUIRENAME = 1049;
+  private static final int REQUIREVERSION = 1050;
+  private static final int RPMVERSION = 1064;
+  private static final int VERIFYSCRIPT = 1079;
+  private static final int PREINPROG = 1085;
+  private static final int POSTINPROG = 1086;
+  private static final int PREUNPROG = 1087;
+  private static final int POSTUNPROG = 1088;
+  private static final int VERIFYSCRIPTPROG = 1091;
+  private static final int FILEDEVICES = 1095;
+  private static final int FILEINODES = 1096;
+  private static final int FILELANGS = 1097;
+  private static final int PREFIXES = 1098;
+  private static final int PROVIDEFLAGS = 1112;
+  private static final int PROVIDEVERSION = 1113;
+  private static final int DIRINDEXES = 1116;
+  private static final int BASENAMES = 1117;
+  private static final int DIRNAMES = 1118;
+  private static final int PAYLOADFORMAT = 1124;
+  private static final int PAYLOADCOMPRESSOR = 1125;
+  private static final int PAYLOADFLAGS = 1126;
+  private static final int FILEDIGESTALGO = 5011;
+
+  private static final int DIGEST_SHA256 = 8;
+
+  // Dependency flags
+  static final int SENSE_LESS = 0x02;
+  static final int SENSE_GREATER = 0x04;
+  static final int SENSE_EQUAL = 0x08;
+  private static final int SENSE_INTERP = 0x100;
+  private static final int SENSE_SCRIPT_PRE = 0x200;
+  private static final int SENSE_SCRIPT_POST = 0x400;
+  private static final int SENSE_SCRIPT_PREUN = 0x800;
+  private static final int SENSE_SCRIPT_POSTUN = 0x1000;
+  static final int SENSE_RPMLIB = 0x1000000;
+
+  private static final Pattern MACRO = Pattern.compile("%%|%\\{([A-Za-z_][A-Za-z0-9_]*)\\}|%([A-Za-z_][A-Za-z0-9_]*)");
+
+  private final CompressionPolicy compression;
+  private final Log log;
+  private final Map<String, String> tags = new LinkedHashMap<String, String>();
+  private final Map<String, String> macros = new LinkedHashMap<String, String>();
+  private final List<Dependency> requires = new ArrayList<Dependency>();
+  private final Map<Integer, Script> scripts = new TreeMap<Integer, Script>();
+  private final TreeMap<String, File> files = new TreeMap<String, File>();
+  private String name;
+  private String version;
+  private String release;
+  private String arch = "noarch";
+  private String prefix;
+  private long sourceDate = -1;
+
+  /**
+   * @param compression Decides which files are deflated into the payload.
+   * @param log The log; may be null.
+   */
+  public RPMWriter(CompressionPolicy compression, Log log) {
+    this.compression = compression;
+    this.log = log;
+  }
+
+  /**
+   * Describes the package from the same parameters the spec file is written from.
+   *
+   * @param params The RPM parameters, which must include <code>name</code>, <code>version</code>
+   *            and <code>release</code>.
+   * @param requires The packages required, as in a spec file (<code>java &gt;= 1.6</code>); may be
+   *            null.
+   */
+  public void configure(Map<String, String> params, String[] requires) {
+    configure(params, requires, null);
+  }
+
+  /**
+   * Describes the package from the same parameters the spec file is written from.
+   *
+   * @param properties The project properties, for the <code>${...}</code> references of the
+   *            scripts; may be null.
+   */
+  public void configure(Map<String, String> params, String[] requires, Properties properties) {
+    name = params.get("name");
+    version = params.get("version");
+    release = params.get("release");
+    if (params.containsKey("BuildArch"))
+      arch = params.get("BuildArch");
+    for (String tag : new String[] { "Summary", "License", "Distribution", "Vendor", "URL", "Group", "Packager",
+        "description" }) {
+      if (params.containsKey(tag))
+        tags.put(tag, params.get(tag));
+    }
+    if (params.containsKey("Prefix"))
+      prefix = params.get("Prefix");
+
+    // The macros the spec file would define for the scriptlets
+    if (params.containsKey("defines")) {
+      for (String define : params.get("defines").split(",")) {
+        String[] pair = define.trim().split("\\s+", 2);
+        if (pair.length == 2)
+          macros.put(pair[0], pair[1]);
+      }
+    }
+    macros.put("name", name);
+    macros.put("version", version);
+    macros.put("release", release);
+    if (params.containsKey("ComponentName"))
+      macros.put("component_name", params.get("ComponentName"));
+    if (params.containsKey("InstallDir"))
+      macros.put("install_dir", "/" + params.get("InstallDir"));
+    if (params.containsKey("pombr"))
+      macros.put("pom_buildroot", new File(params.get("pombr"), "src/buildroot").getPath());
+    if (params.containsKey("prefix"))
+      macros.put("_prefix", params.get("prefix"));
+
+    // Each written to the spec file as a Requires: line, which rpmbuild expands and splits
+    if (requires != null) {
+      for (String req : requires)
+        this.requires.addAll(Dependency.parse(expand(req)));
+    }
+
+    ScriptLoader loader = new ScriptLoader(log);
+    loader.init(params, properties);
+    setScript(PREIN, PREINPROG, SENSE_SCRIPT_PRE, loader.getPreInstall());
+    setScript(POSTIN, POSTINPROG, SENSE_SCRIPT_POST, loader.getPostInstall());
+    setScript(PREUN, PREUNPROG, SENSE_SCRIPT_PREUN, loader.getPreRemove());
+    setScript(POSTUN, POSTUNPROG, SENSE_SCRIPT_POSTUN, loader.getPostRemove());
+    setScript(VERIFYSCRIPT, VERIFYSCRIPTPROG, 0, loader.getVerify());
+    for (String section : new String[] { loader.getInstall(), loader.getClean() }) {
+      Script s = Script.parse(section);
+      if (s != null && s.body.length() > 0 && log != null)
+        log.warn(s.section + " is not run when the RPM is written natively; it has been ignored.");
+    }
+  }
+
+  private void setScript(int tag, int progTag, int sense, String section) {
+    Script s = Script.parse(section);
+    if (s == null || s.body.length() == 0)
+      return;
+    s.progTag = progTag;
+    s.sense = sense;
+    s.body = expand(s.body);
+    scripts.put(tag, s);
+  }
+
+  /**
+   * Adds a file or directory to the package.  Directories are owned by the package; the
+   * directories above them are not.
+   *
+   * @param path The absolute path the file is installed as.
+   * @param f The staged file or directory.
+   */
+  public void addFile(String path, File f) {
+    path = ("/" + path).replaceAll("/+", "/");
+    if (path.length() > 1 && path.endsWith("/"))
+      path = path.substring(0, path.length() - 1);
+    files.put(path, f);
+  }
+
+  /**
+   * Makes the package depend on nothing but its content, as described above.
+   *
+   * @param time The time in milliseconds, or -1 to take the time of the build and of each file;
+   *            see {@link SourceDate}.
+   */
+  public void setSourceDate(long time) {
+    this.sourceDate = time;
+  }
+
+  /**
+   * @return The conventional file name of the package, <code>name-version-release.arch.rpm</code>.
+   */
+  public String getFileName() {
+    return name + "-" + version + "-" + release + "." + arch + ".rpm";
+  }
+
+  /**
+   * Writes the package.
+   *
+   * @param rpm The file to write.
+   * @throws IOException if a file cannot be read or the package cannot be written.
+   */
+  public void write(File rpm) throws IOException {
+    if (name == null || version == null || release == null)
+      throw new IllegalStateException("The name, version and release of the package are required");
+    List<String> paths = new ArrayList<String>(files.keySet());
+    // Each file is looked at once: the payload is checked against what the header records
+    List<Staged> sources = new ArrayList<Staged>();
+    for (File f : files.values())
+      sources.add(new Staged(f));
+    String[] digests = digestFiles(sources);
+
+    byte[] header = buildHeader(paths, sources, digests);
+    byte[] emptySignature = buildSignature(0, new byte[16], 0, "", "");
+    RandomAccessFile raf = new RandomAccessFile(rpm, "rw");
+    try {
+      raf.setLength(0);
+      FileChannel channel = raf.getChannel();
+      channel.write(ByteBuffer.wrap(buildLead()));
+      channel.write(ByteBuffer.wrap(emptySignature));
+
+      // The signature covers what follows it, so it is filled in once the payload is written
+      MessageDigest md5 = digest("MD5");
+      CountingOutputStream counter = new CountingOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel), (1 << 10) * 64));
+      DigestOutputStream out = new DigestOutputStream(counter, md5);
+      out.write(header);
+      long payloadSize = writePayload(out, paths, sources);
+      out.flush();
+      long signedSize = counter.getCount();
+      if (signedSize > 0xffffffffL)
+        throw new IOException(rpm.getName() + " is too large; packages of 4 GB and over are not supported");
+
+      byte[] signature = buildSignature((int) signedSize, md5.digest(), (int) payloadSize,
+          hex(digest("SHA-1").digest(header)), hex(digest("SHA-256").digest(header)));
+      if (signature.length != emptySignature.length)
+        throw new IllegalStateException("Signature size changed");
+      channel.write(ByteBuffer.wrap(signature), LEAD_SIZE);
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  private byte[] buildLead() {
+    ByteBuffer lead = ByteBuffer.allocate(LEAD_SIZE);
+    lead.put(LEAD_MAGIC);
+    lead.put((byte) 3).put((byte) 0);
+    lead.putShort((short) 0); // binary
+    lead.putShort((short) (arch.matches("i.86|x86_64") ? 1 : 0));
+    byte[] nvr = (name + "-" + version + "-" + release).getBytes(UTF8);
+    lead.put(nvr, 0, Math.min(nvr.length, 65));
+    lead.position(76);
+    lead.putShort((short) 1); // linux
+    lead.putShort((short) 5); // header style signature
+    return lead.array();
+  }
+
+  private static byte[] buildSignature(int size, byte[] md5, int payloadSize, String sha1, String sha256) {
+    RPMHeader sig = new RPMHeader(RPMHeader.HEADER_SIGNATURES);
+    sig.addString(SIGTAG_SHA1, pad(sha1, 40));
+    sig.addString(SIGTAG_SHA256, pad(sha256, 64));
+    sig.addInt32(SIGTAG_SIZE, size);
+    sig.addBinary(SIGTAG_MD5, md5);
+    sig.addInt32(SIGTAG_PAYLOADSIZE, payloadSize);
+    byte[] bytes = sig.toBytes();
+    // The main header starts on an eight byte boundary
+    byte[] padded = new byte[(bytes.length + 7) & ~7];
+    System.arraycopy(bytes, 0, padded, 0, bytes.length);
+    return padded;
+  }
+
+  private byte[] buildHeader(List<String> paths, List<Staged> sources, String[] digests) throws IOException {
+    RPMHeader h = new RPMHeader(RPMHeader.HEADER_IMMUTABLE);
+    h.addStringArray(HEADERI18NTABLE, "C");
+    h.addString(NAME, name);
+    h.addString(VERSION, version);
+    h.addString(RELEASE, release);
+    h.addI18NString(SUMMARY, tags.containsKey("Summary") ? tags.get("Summary") : name);
+    h.addI18NString(DESCRIPTION, tags.containsKey("description") ? tags.get("description") : name);
+    h.addInt32(BUILDTIME, (int) ((sourceDate >= 0 ? sourceDate : System.currentTimeMillis()) / 1000));
+    h.addString(BUILDHOST, sourceDate >= 0 ? "localhost" : hostName());
+    if (tags.containsKey("Distribution"))
+      h.addString(DISTRIBUTION, tags.get("Distribution"));
+    if (tags.containsKey("Vendor"))
+      h.addString(VENDOR, tags.get("Vendor"));
+    h.addString(LICENSE, tags.containsKey("License") ? tags.get("License") : "unknown");
+    if (tags.containsKey("Packager"))
+      h.addString(PACKAGER, tags.get("Packager"));
+    h.addI18NString(GROUP, tags.containsKey("Group") ? tags.get("Group") : "Unspecified");
+    if (tags.containsKey("URL"))
+      h.addString(URL, tags.get("URL"));
+    h.addString(OS, "linux");
+    h.addString(ARCH, arch);
+    // Named as rpmbuild names it, though no source package is written: rpm takes a header without
+    // a SOURCERPM to be that of a source package
+    h.addString(SOURCERPM, name + "-" + version + "-" + release + ".src.rpm");
+    h.addString(RPMVERSION, RPM_VERSION);
+    if (prefix != null)
+      h.addStringArray(PREFIXES, prefix);
+
+    // Scriptlets, each with its interpreter
+    List<Dependency> deps = new ArrayList<Dependency>(requires);
+    for (Map.Entry<Integer, Script> e : scripts.entrySet()) {
+      Script s = e.getValue();
+      h.addString(e.getKey(), s.body);
+      h.addString(s.progTag, s.prog);
+      if (s.sense != 0)
+        deps.add(new Dependency(s.prog, SENSE_INTERP | s.sense, ""));
+    }
+
+    // Files
+    int count = paths.size();
+    int[] sizes = new int[count];
+    short[] modes = new short[count];
+    short[] rdevs = new short[count];
+    int[] mtimes = new int[count];
+    String[] links = new String[count];
+    int[] flags = new int[count];
+    String[] users = new String[count];
+    String[] groups = new String[count];
+    int[] verify = new int[count];
+    int[] devices = new int[count];
+    int[] inodes = new int[count];
+    String[] langs = new String[count];
+    int[] dirIndexes = new int[count];
+    String[] baseNames = new String[count];
+    Map<String, Integer> dirs = new LinkedHashMap<String, Integer>();
+    long total = 0;
+    for (int i = 0; i < count; i++) {
+      Staged f = sources.get(i);
+      long size = f.directory ? 4096 : f.size;
+      if (size > Integer.MAX_VALUE)
+        throw new IOException(f.file.getPath() + " is too large; files of 2 GB and over are not supported");
+      sizes[i] = (int) size;
+      total += size;
+      modes[i] = (short) mode(f);
+      mtimes[i] = (int) (mtime(f) / 1000);
+      links[i] = "";
+      users[i] = "root";
+      groups[i] = "root";
+      verify[i] = -1;
+      devices[i] = 1;
+      inodes[i] = i + 1;
+      langs[i] = "";
+      String path = paths.get(i);
+      int slash = path.lastIndexOf('/');
+      String dir = path.substring(0, slash + 1);
+      if (!dirs.containsKey(dir))
+        dirs.put(dir, dirs.size());
+      dirIndexes[i] = dirs.get(dir);
+      baseNames[i] = path.substring(slash + 1);
+    }
+    h.addInt32(SIZE, (int) Math.min(total, Integer.MAX_VALUE));
+    if (count > 0) {
+      h.addInt32(FILESIZES, sizes);
+      h.addInt16(FILEMODES, modes);
+      h.addInt16(FILERDEVS, rdevs);
+      h.addInt32(FILEMTIMES, mtimes);
+      h.addStringArray(FILEDIGESTS, digests);
+      h.addStringArray(FILELINKTOS, links);
+      h.addInt32(FILEFLAGS, flags);
+      h.addStringArray(FILEUSERNAME, users);
+      h.addStringArray(FILEGROUPNAME, groups);
+      h.addInt32(FILEVERIFYFLAGS, verify);
+      h.addInt32(FILEDEVICES, devices);
+      h.addInt32(FILEINODES, inodes);
+      h.addStringArray(FILELANGS, langs);
+      h.addInt32(DIRINDEXES, dirIndexes);
+      h.addStringArray(BASENAMES, baseNames);
+      h.addStringArray(DIRNAMES, dirs.keySet().toArray(new String[dirs.size()]));
+      h.addInt32(FILEDIGESTALGO, DIGEST_SHA256);
+    }
+
+    // Dependencies
+    deps.add(new Dependency("rpmlib(CompressedFileNames)", SENSE_RPMLIB | SENSE_LESS | SENSE_EQUAL, "3.0.4-1"));
+    deps.add(new Dependency("rpmlib(PayloadFilesHavePrefix)", SENSE_RPMLIB | SENSE_LESS | SENSE_EQUAL, "4.0-1"));
+    if (count > 0)
+      deps.add(new Dependency("rpmlib(FileDigests)", SENSE_RPMLIB | SENSE_LESS | SENSE_EQUAL, "4.6.0-1"));
+    deps = Dependency.merge(deps);
+    String[] requireNames = new String[deps.size()];
+    int[] requireFlags = new int[deps.size()];
+    String[] requireVersions = new String[deps.size()];
+    for (int i = 0; i < deps.size(); i++) {
+      requireNames[i] = deps.get(i).name;
+      requireFlags[i] = deps.get(i).flags;
+      requireVersions[i] = deps.get(i).version;
+    }
+    h.addStringArray(REQUIRENAME, requireNames);
+    h.addInt32(REQUIREFLAGS, requireFlags);
+    h.addStringArray(REQUIREVERSION, requireVersions);
+    h.addStringArray(PROVIDENAME, name);
+    h.addInt32(PROVIDEFLAGS, SENSE_EQUAL);
+    h.addStringArray(PROVIDEVERSION, version + "-" + release);
+
+    h.addString(PAYLOADFORMAT, "cpio");
+    h.addString(PAYLOADCOMPRESSOR, "gzip");
+    h.addString(PAYLOADFLAGS, String.valueOf(compression.getLevel() < 0 ? 6 : compression.getLevel()));
+    return h.toBytes();
+  }
+
+  /**
+   * Writes the gzipped cpio payload.
+   *
+   * @return The size of the cpio archive, before compression.
+   */
+  private long writePayload(OutputStream out, List<String> paths, List<Staged> sources) throws IOException {
+    CountingOutputStream counter = new CountingOutputStream(out);
+    LevelGzipOutputStream gzip = new LevelGzipOutputStream(counter, compression.getLevel());
+    CpioWriter cpio = new CpioWriter(gzip);
+    int level = compression.getLevel();
+    for (int i = 0; i < paths.size(); i++) {
+      String path = paths.get(i);
+      Staged f = sources.get(i);
+      long mtime = mtime(f) / 1000;
+      if (f.directory) {
+        cpio.putEntry("." + path, mode(f), 0, mtime, i + 1, 2);
+        continue;
+      }
+
+      long size = f.size;
+      int decision = compression.choose(path, size);
+      if (decision == CompressionPolicy.SAMPLE)
+        decision = compression.isWorthDeflating(RPMMojo.readSample(f.file), (int) Math.min(size, CompressionPolicy.SAMPLE_SIZE))
+            ? CompressionPolicy.DEFLATE : CompressionPolicy.STORE;
+      int entryLevel = decision == CompressionPolicy.STORE ? Deflater.NO_COMPRESSION : compression.getLevel();
+      if (entryLevel != level) {
+        gzip.setLevel(entryLevel);
+        level = entryLevel;
+      }
+
+      long cpuStart = CompressionPolicy.cpuTime();
+      long before = counter.getCount();
+      cpio.putEntry("." + path, mode(f), size, mtime, i + 1, 1);
+      cpio.copy(f.file);
+      if (f.file.lastModified() != f.modified)
+        throw new IOException(f.file.getPath() + " changed while the package was being written");
+      if (decision == CompressionPolicy.STORE)
+        compression.getStats().stored(size);
+      else
+        compression.getStats().deflated(size, counter.getCount() - before, CompressionPolicy.cpuTime() - cpuStart);
+    }
+    cpio.finish();
+    gzip.finish();
+    if (log != null)
+      log.info("Compression: " + compression.getStats());
+    return cpio.getBytesWritten();
+  }
+
+  /**
+   * Computes the SHA-256 digest of each regular file, several files at a time.
+   */
+  private static String[] digestFiles(List<Staged> sources) throws IOException {
+    String[] digests = new String[sources.size()];
+    List<Future<String>> pending = new ArrayList<Future<String>>();
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService pool = Executors.newFixedThreadPool(threads, new WorkerFactory());
+    try {
+      for (final Staged f : sources) {
+        pending.add(f.directory ? null : pool.submit(new Callable<String>() {
+          public String call() throws IOException {
+            return hex(digest(f, "SHA-256"));
+          }
+        }));
+      }
+      for (int i = 0; i < digests.length; i++) {
+        Future<String> future = pending.get(i);
+        digests[i] = future == null ? "" : await(future);
+      }
+    }
+    finally {
+      pool.shutdownNow();
+    }
+    return digests;
+  }
+
+  private static String await(Future<String> future) throws IOException {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while computing file digests", e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Expands the macros the spec file would define; anything else is left as it is.
+   */
+  String expand(String text) {
+    Matcher m = MACRO.matcher(text);
+    StringBuffer sb = new StringBuffer();
+    while (m.find()) {
+      String macro = m.group(1) != null ? m.group(1) : m.group(2);
+      String value;
+      if (macro == null)
+        value = "%";
+      else if (macros.containsKey(macro))
+        value = macros.get(macro);
+      else
+        value = m.group();
+      m.appendReplacement(sb, Matcher.quoteReplacement(value));
+    }
+    m.appendTail(sb);
+    return sb.toString();
+  }
+
+  private long mtime(Staged f) {
+    return sourceDate >= 0 ? sourceDate : f.modified;
+  }
+
+  private int mode(Staged f) {
+    int type = f.directory ? CpioWriter.S_IFDIR : CpioWriter.S_IFREG;
+    try {
+      int mode = 0;
+      for (PosixFilePermission perm : Files.getPosixFilePermissions(f.file.toPath()))
+        mode |= 1 << (8 - perm.ordinal());
+      if (sourceDate >= 0)
+        mode = f.directory || (mode & 0111) != 0 ? 0755 : 0644;
+      return type | mode;
+    }
+    catch (UnsupportedOperationException e) { ; }
+    catch (IOException e) { ; }
+    return type | (f.directory ? 0755 : 0644);
+  }
+
+  private static String hostName() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    }
+    catch (IOException e) {
+      return "localhost";
+    }
+  }
+
+  /**
+   * Digests a staged file, which must still be the size recorded of it.
+   */
+  private static byte[] digest(Staged f, String algorithm) throws IOException {
+    MessageDigest md = digest(algorithm);
+    byte[] buffer = new byte[(1 << 10) * 64];
+    long total = 0;
+    InputStream in = new FileInputStream(f.file);
+    try {
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        md.update(buffer, 0, count);
+        total += count;
+      }
+    }
+    finally {
+      in.close();
+    }
+    if (total != f.size)
+      throw new IOException(f.file.getPath() + " changed while the package was being written");
+    return md.digest();
+  }
+
+  private static MessageDigest digest(String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes)
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    return sb.toString();
+  }
+
+  private static String pad(String s, int length) {
+    StringBuilder sb = new StringBuilder(s);
+    while (sb.length() < length)
+      sb.append('0');
+    return sb.toString();
+  }
+
+  /**
+   * A file or directory to be packaged, with the type, size and time recorded of it in the header.
+   */
+  private static class Staged {
+    final File file;
+    final boolean directory;
+    final long size;
+    final long modified;
+
+    Staged(File file) {
+      this.file = file;
+      this.directory = file.isDirectory();
+      this.size = directory ? 0 : file.length();
+      this.modified = file.lastModified();
+    }
+  }
+
+  /**
+   * A required package, with an optional version constraint.
+   */
+  static class Dependency {
+    final String name;
+    final int flags;
+    final String version;
+
+    Dependency(String name, int flags, String version) {
+      this.name = name;
+      this.flags = flags;
+      this.version = version;
+    }
+
+    /**
+     * Parses the requirements of a spec file <code>Requires:</code> line as rpmbuild does: names
+     * separated by white space or commas, each of which may be followed by a comparison and a
+     * version (<code>java &gt;= 1.6 java &lt; 1.9, bash</code>).
+     *
+     * @throws IllegalArgumentException if a comparison has no version after it.
+     */
+    static List<Dependency> parse(String spec) {
+      List<Dependency> deps = new ArrayList<Dependency>();
+      String[] words = spec.trim().split("[\\s,]+");
+      for (int i = 0; i < words.length; i++) {
+        if (words[i].length() == 0)
+          continue;
+        int flags = i + 1 < words.length ? sense(words[i + 1]) : 0;
+        if (flags == 0) {
+          deps.add(new Dependency(words[i], 0, ""));
+          continue;
+        }
+        if (i + 2 >= words.length)
+          throw new IllegalArgumentException("Version required after " + words[i] + " " + words[i + 1] + " in: " + spec);
+        deps.add(new Dependency(words[i], flags, words[i + 2]));
+        i += 2;
+      }
+      return deps;
+    }
+
+    /**
+     * @return The flags of a comparison, or 0 if the word is not one.
+     */
+    private static int sense(String op) {
+      switch (op) {
+        case "<":
+          return SENSE_LESS;
+        case "<=":
+        case "=<":
+          return SENSE_LESS | SENSE_EQUAL;
+        case "=":
+        case "==":
+          return SENSE_EQUAL;
+        case ">=":
+        case "=>":
+          return SENSE_GREATER | SENSE_EQUAL;
+        case ">":
+          return SENSE_GREATER;
+        default:
+          return 0;
+      }
+    }
+
+    /**
+     * Orders dependencies as rpmbuild records them, by name, version and flags, and drops those
+     * given more than once.
+     */
+    static List<Dependency> merge(List<Dependency> deps) {
+      List<Dependency> sorted = new ArrayList<Dependency>(deps);
+      Collections.sort(sorted, new Comparator<Dependency>() {
+        public int compare(Dependency a, Dependency b) {
+          int c = a.name.compareTo(b.name);
+          if (c == 0)
+            c = a.version.compareTo(b.version);
+          return c != 0 ? c : (a.flags < b.flags ? -1 : (a.flags > b.flags ? 1 : 0));
+        }
+      });
+      List<Dependency> merged = new ArrayList<Dependency>();
+      for (Dependency d : sorted) {
+        Dependency last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+        if (last == null || !last.name.equals(d.name) || !last.version.equals(d.version) || last.flags != d.flags)
+          merged.add(d);
+      }
+      return merged;
+    }
+  }
+
+  /**
+   * A scriptlet: the section it was read from, its interpreter and its body.
+   */
+  private static class Script {
+    String section;
+    String prog = "/bin/sh";
+    String body;
+    int progTag;
+    int sense;
+
+    /**
+     * Splits a script section (<code>%post -p /bin/bash</code> followed by the script) into its
+     * interpreter and body.
+     *
+     * @return The script, or null if there is none.
+     */
+    static Script parse(String text) {
+      if (text == null)
+        return null;
+      Script s = new Script();
+      String[] lines = text.split("\r?\n", -1);
+      int start = 0;
+      while (start < lines.length && lines[start].trim().length() == 0)
+        start++;
+      if (start < lines.length && lines[start].trim().startsWith("%")) {
+        String[] words = lines[start].trim().split("\\s+");
+        s.section = words[0];
+        for (int i = 1; i + 1 < words.length; i++) {
+          if (words[i].equals("-p"))
+            s.prog = words[i + 1];
+        }
+        start++;
+      }
+      StringBuilder body = new StringBuilder();
+      for (int i = start; i < lines.length; i++) {
+        if (body.length() > 0)
+          body.append('\n');
+        body.append(lines[i]);
+      }
+      s.body = body.toString().trim();
+      return s;
+    }
+  }
+
+  /**
+   * Names the digest workers and keeps them from holding up JVM exit.
+   */
+  private static class WorkerFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "rpm-digest-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+}
@@ -1,10 +1,10 @@
 package com.secristfamily.maven.plugin;
 
-import static com.secristfamily.maven.plugin.FileUtils.readFile;
-
 import java.io.File;
 import java.util.Map;
+import java.util.Properties;
 
+import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
 
 public class ScriptLoader {
@@ -68,6 +68,18 @@ public class ScriptLoader {
   }
   
   protected void init(Map<String,String> params) {
+    init(params, null);
+  }
+
+  /**
+   * Loads the scripts named by the params (or the empty defaults) and fills in their
+   * <code>${...}</code> references; see {@link ScriptTemplate}.
+   *
+   * @param params The RPM params, which also name the script files.
+   * @param properties The project properties, looked in for references which are not params;
+   *            may be null.
+   */
+  protected void init(Map<String,String> params, Properties properties) {
     String pombr = params.get("pombr");
     String preLoc = System.getProperty("pre", params.get("pre"));
     String postLoc = System.getProperty("post", params.get("post"));
@@ -78,36 +90,39 @@ public class ScriptLoader {
     String cleanLoc = System.getProperty("clean", params.get("clean"));
     
     try {
-      preinstall = (preLoc != null) ? readFile(new File(pombr, preLoc)) : readFile(getClass().getResourceAsStream("/scripts/preInstall.sh"));
-      postinstall = (postLoc != null) ? readFile(new File(pombr, postLoc)) : readFile(getClass().getResourceAsStream("/scripts/postInstall.sh"));
-      install = (installLoc != null) ? readFile(new File(pombr, installLoc)) : readFile(getClass().getResourceAsStream("/scripts/install.sh"));
-      preremove = (preRemLoc != null) ? readFile(new File(pombr, preRemLoc)) : readFile(getClass().getResourceAsStream("/scripts/preRemove.sh"));
-      postremove = (postRemLoc != null) ? readFile(new File(pombr, postRemLoc)) : readFile(getClass().getResourceAsStream("/scripts/postRemove.sh"));
-      verify = (verLoc != null) ? readFile(new File(pombr, verLoc)) : readFile(getClass().getResourceAsStream("/scripts/verify.sh"));
-      clean = (cleanLoc != null) ? readFile(new File(pombr, cleanLoc)) : readFile(getClass().getResourceAsStream("/scripts/clean.sh"));
+      preinstall = load(pombr, preLoc, "/scripts/preInstall.sh", params, properties);
+      postinstall = load(pombr, postLoc, "/scripts/postInstall.sh", params, properties);
+      install = load(pombr, installLoc, "/scripts/install.sh", params, properties);
+      preremove = load(pombr, preRemLoc, "/scripts/preRemove.sh", params, properties);
+      postremove = load(pombr, postRemLoc, "/scripts/postRemove.sh", params, properties);
+      verify = load(pombr, verLoc, "/scripts/verify.sh", params, properties);
+      clean = load(pombr, cleanLoc, "/scripts/clean.sh", params, properties);
       
       Log log = getLog();
-      if (log != null && log.isInfoEnabled()) {
-        getLog().info("Scripts Located:");
-        getLog().info("%pre");  getLog().info( (preinstall != null) ? "\n" + preinstall : "NULL");
-        getLog().info("%post");  getLog().info( (postinstall != null) ? "\n" + postinstall : "NULL");
-        getLog().info("%install");  getLog().info( (install != null) ? "\n" + install : "NULL");
-        getLog().info("%preun");  getLog().info( (preremove != null) ? "\n" + preremove : "NULL");
-        getLog().info("%postun");  getLog().info( (postremove != null) ? "\n" + postremove : "NULL");
-        getLog().info("%verifyscript");  getLog().info( (verify != null) ? "\n" + verify : "NULL");
-        getLog().info("%clean");  getLog().info( (clean != null) ? "\n" + clean : "NULL");
+      if (log != null && log.isDebugEnabled()) {
+        getLog().debug("Scripts Located:");
+        getLog().debug("%pre");  getLog().debug( (preinstall != null) ? "\n" + preinstall : "NULL");
+        getLog().debug("%post");  getLog().debug( (postinstall != null) ? "\n" + postinstall : "NULL");
+        getLog().debug("%install");  getLog().debug( (install != null) ? "\n" + install : "NULL");
+        getLog().debug("%preun");  getLog().debug( (preremove != null) ? "\n" + preremove : "NULL");
+        getLog().debug("%postun");  getLog().debug( (postremove != null) ? "\n" + postremove : "NULL");
+        getLog().debug("%verifyscript");  getLog().debug( (verify != null) ? "\n" + verify : "NULL");
+        getLog().debug("%clean");  getLog().debug( (clean != null) ? "\n" + clean : "NULL");
       }
-      
-      searchReplace(params);
     }
     catch (Throwable t) {
       t.printStackTrace();
     }
   }
   
-  private void searchReplace(Map params) {
-    // MVN Macro Support
-    // %setup -q -n ${install_dir}
+  /**
+   * Fills in a script: the file it is named by, relative to the buildroot, or else the default
+   * from the classpath.
+   */
+  private static String load(String pombr, String location, String resource, Map<String,String> params,
+      Properties properties) throws MojoExecutionException {
+    ScriptTemplate template = (location != null) ? ScriptTemplate.forFile(new File(pombr, location)) : ScriptTemplate.forResource(resource);
+    return (template != null) ? template.render(params, properties) : null;
   }
 
   public String getPreInstall() {
@@ -0,0 +1,138 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * A scriptlet, parsed once into the literal text between its <code>${...}</code> references, so
+ * that filling it in for a package is a single pass over a handful of segments.
+ * <p>
+ * A reference is replaced by the param of that name, or failing that the project property; a
+ * reference to neither is left as it is, so the shell variables a script uses
+ * (<code>${RPM_BUILD_ROOT}</code>, say) come through untouched.  RPM's own
+ * <code>%{...}</code> macros are left to rpm.
+ * <p>
+ * Templates are kept for the life of the JVM, so that a reactor building many packages reads
+ * and parses each scriptlet once: files by their path, and read again only when their
+ * modification time or size changes, and classpath resources by their name.
+ */
+public class ScriptTemplate {
+
+  private static final ConcurrentMap<String, ScriptTemplate> FILES = new ConcurrentHashMap<String, ScriptTemplate>();
+  private static final ConcurrentMap<String, ScriptTemplate> RESOURCES = new ConcurrentHashMap<String, ScriptTemplate>();
+
+  /** The literal text: one more entry than there are names, the first before the first name. */
+  private final String[] literals;
+  /** The names referred to, each between two literals. */
+  private final String[] names;
+  private final int length;
+  private final long lastModified;
+  private final long size;
+
+  private ScriptTemplate(String[] literals, String[] names, int length, long lastModified, long size) {
+    this.literals = literals;
+    this.names = names;
+    this.length = length;
+    this.lastModified = lastModified;
+    this.size = size;
+  }
+
+  /**
+   * Parses the text of a scriptlet.
+   */
+  public static ScriptTemplate compile(String text) {
+    return compile(text, 0, 0);
+  }
+
+  private static ScriptTemplate compile(String text, long lastModified, long size) {
+    List<String> literals = new ArrayList<String>();
+    List<String> names = new ArrayList<String>();
+    int pos = 0;
+    int literalStart = 0;
+    while (true) {
+      int start = text.indexOf("${", pos);
+      if (start == -1)
+        break;
+      int end = text.indexOf('}', start + 2);
+      if (end == -1)
+        break;
+      String name = text.substring(start + 2, end);
+      if (name.length() == 0 || name.indexOf('$') != -1 || name.indexOf('\n') != -1) {
+        // Not a reference; carry on looking after its opening
+        pos = start + 2;
+        continue;
+      }
+      literals.add(text.substring(literalStart, start));
+      names.add(name);
+      pos = literalStart = end + 1;
+    }
+    literals.add(text.substring(literalStart));
+    return new ScriptTemplate(literals.toArray(new String[literals.size()]), names.toArray(new String[names.size()]),
+        text.length(), lastModified, size);
+  }
+
+  /**
+   * @return The template of a file, read and parsed only if it has changed since it was last
+   *         asked for.
+   */
+  public static ScriptTemplate forFile(File f) throws MojoExecutionException {
+    String path = f.getAbsolutePath();
+    long lastModified = f.lastModified();
+    long size = f.length();
+    ScriptTemplate template = FILES.get(path);
+    if (template == null || template.lastModified != lastModified || template.size != size) {
+      template = compile(FileUtils.readFile(f), lastModified, size);
+      FILES.put(path, template);
+    }
+    return template;
+  }
+
+  /**
+   * @return The template of a classpath resource, or null if there is no such resource.
+   */
+  public static ScriptTemplate forResource(String name) throws MojoExecutionException {
+    ScriptTemplate template = RESOURCES.get(name);
+    if (template == null) {
+      InputStream in = ScriptTemplate.class.getResourceAsStream(name);
+      if (in == null)
+        return null;
+      template = compile(FileUtils.readFile(in));
+      RESOURCES.put(name, template);
+    }
+    return template;
+  }
+
+  /**
+   * Fills in the references.
+   *
+   * @param params Looked in first, may be null.
+   * @param properties Looked in second, may be null.
+   * @return The text with every reference that could be resolved replaced.
+   */
+  public String render(Map<String, String> params, Properties properties) {
+    if (names.length == 0)
+      return literals[0];
+    StringBuilder sb = new StringBuilder(length + 64);
+    for (int i = 0; i < names.length; i++) {
+      sb.append(literals[i]);
+      String value = params != null ? params.get(names[i]) : null;
+      if (value == null && properties != null)
+        value = properties.getProperty(names[i]);
+      if (value != null)
+        sb.append(value);
+      else
+        sb.append("${").append(names[i]).append('}');
+    }
+    sb.append(literals[names.length]);
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,273 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+
+/**
+ * Writes a tar stream in the GNU format, the same format the plexus tar archiver produces.  Names
+ * longer than 100 bytes are written using the GNU long name extension and sizes beyond the range
+ * of the octal size field are written in base-256.
+ */
+public class TarWriter {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int BLOCK = 512;
+  private static final int RECORD = BLOCK * 20;
+  private static final String LONG_LINK = "././@LongLink";
+
+  private final OutputStream out;
+  private long written = 0;
+  private long remaining = 0;
+
+  public TarWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Starts a new entry.  For regular files exactly {@link Header#size} bytes must then be written
+   * with {@link #write(byte[], int, int)} (or {@link #copy(InputStream)}) before the next entry.
+   *
+   * @param h The header of the entry.
+   * @throws IOException if the header cannot be written.
+   */
+  public void putEntry(Header h) throws IOException {
+    closeEntry();
+    String name = h.name;
+    if (h.directory && !name.endsWith("/"))
+      name = name + "/";
+    byte[] nameBytes = name.getBytes(UTF8);
+    if (nameBytes.length > 100) {
+      Header longName = new Header(LONG_LINK);
+      longName.type = 'L';
+      longName.size = nameBytes.length + 1;
+      writeHeader(longName, LONG_LINK.getBytes(UTF8));
+      writeBytes(nameBytes, 0, nameBytes.length);
+      writeBytes(new byte[1], 0, 1);
+      pad();
+    }
+    writeHeader(h, nameBytes);
+    remaining = h.directory ? 0 : h.size;
+  }
+
+  /**
+   * Writes entry data.
+   */
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (len > remaining)
+      throw new IOException("Entry data exceeds the size given in its header");
+    writeBytes(b, off, len);
+    remaining -= len;
+  }
+
+  /**
+   * Copies the data of the current entry from a stream.
+   */
+  public void copy(InputStream in) throws IOException {
+    byte[] buffer = new byte[(1 << 10) * 64];
+    int count;
+    while (remaining > 0 && (count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+      write(buffer, 0, count);
+    }
+  }
+
+  /**
+   * Writes a regular file, streaming its content from disk.
+   */
+  public void putFile(Header h, File src) throws IOException {
+    putEntry(h);
+    InputStream in = new FileInputStream(src);
+    try {
+      copy(in);
+    }
+    finally {
+      in.close();
+    }
+    closeEntry();
+  }
+
+  /**
+   * Pads the current entry to a block boundary.
+   *
+   * @throws IOException if fewer bytes were written than the header promised.
+   */
+  public void closeEntry() throws IOException {
+    if (remaining > 0)
+      throw new IOException("Entry is " + remaining + " bytes short of the size given in its header");
+    pad();
+  }
+
+  /**
+   * Writes the end of archive marker and pads the stream to a full record.  The underlying
+   * stream is flushed but not closed.
+   */
+  public void finish() throws IOException {
+    closeEntry();
+    writeBytes(new byte[BLOCK * 2], 0, BLOCK * 2);
+    int tail = (int) (written % RECORD);
+    if (tail != 0)
+      writeBytes(new byte[RECORD - tail], 0, RECORD - tail);
+    out.flush();
+  }
+
+  public long getBytesWritten() {
+    return written;
+  }
+
+  private void writeHeader(Header h, byte[] name) throws IOException {
+    byte[] block = new byte[BLOCK];
+    System.arraycopy(name, 0, block, 0, Math.min(name.length, 100));
+    octal(block, 100, 8, h.mode & 07777);
+    octal(block, 108, 8, h.uid);
+    octal(block, 116, 8, h.gid);
+    if (h.size < 077777777777L)
+      octal(block, 124, 12, h.directory ? 0 : h.size);
+    else
+      binary(block, 124, 12, h.size);
+    octal(block, 136, 12, h.mtime / 1000);
+    for (int i = 148; i < 156; i++)
+      block[i] = ' ';
+    block[156] = (byte) (h.directory ? '5' : h.type);
+    ascii(block, 257, 8, "ustar  ");
+    ascii(block, 265, 32, h.userName);
+    ascii(block, 297, 32, h.groupName);
+
+    long sum = 0;
+    for (byte b : block)
+      sum += b & 0xff;
+    octal(block, 148, 7, sum);
+    block[155] = ' ';
+    writeBytes(block, 0, BLOCK);
+  }
+
+  private void pad() throws IOException {
+    int tail = (int) (written % BLOCK);
+    if (tail != 0)
+      writeBytes(new byte[BLOCK - tail], 0, BLOCK - tail);
+  }
+
+  private void writeBytes(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+    written += len;
+  }
+
+  private static void octal(byte[] block, int off, int len, long value) {
+    String s = Long.toOctalString(value);
+    int digits = len - 1;
+    for (int i = 0; i < digits; i++) {
+      int idx = s.length() - digits + i;
+      block[off + i] = (byte) (idx >= 0 ? s.charAt(idx) : '0');
+    }
+    block[off + digits] = 0;
+  }
+
+  private static void binary(byte[] block, int off, int len, long value) {
+    for (int i = len - 1; i > 0; i--) {
+      block[off + i] = (byte) (value & 0xff);
+      value >>>= 8;
+    }
+    block[off] = (byte) 0x80;
+  }
+
+  private static void ascii(byte[] block, int off, int len, String value) {
+    if (value == null)
+      return;
+    byte[] b = value.getBytes(UTF8);
+    System.arraycopy(b, 0, block, off, Math.min(b.length, len - 1));
+  }
+
+  /**
+   * The attributes of a single tar entry.
+   */
+  public static class Header {
+    final String name;
+    char type = '0';
+    boolean directory;
+    int mode = 0644;
+    long size;
+    long mtime;
+    int uid;
+    int gid;
+    String userName = "root";
+    String groupName = "root";
+
+    public Header(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Creates a header describing a file or directory on disk: its size, modification time,
+     * permissions and, where the file system exposes them, its owner.
+     */
+    public static Header forFile(File f, String name) {
+      Header h = new Header(name);
+      h.directory = f.isDirectory();
+      h.size = h.directory ? 0 : f.length();
+      h.mtime = f.lastModified();
+      h.mode = h.directory ? 0755 : 0644;
+      Path p = f.toPath();
+      try {
+        PosixFileAttributes attrs = Files.readAttributes(p, PosixFileAttributes.class);
+        int mode = 0;
+        for (PosixFilePermission perm : attrs.permissions())
+          mode |= 1 << (8 - perm.ordinal());
+        h.mode = mode;
+        h.userName = attrs.owner().getName();
+        h.groupName = attrs.group().getName();
+        h.uid = ((Number) Files.getAttribute(p, "unix:uid")).intValue();
+        h.gid = ((Number) Files.getAttribute(p, "unix:gid")).intValue();
+      }
+      catch (UnsupportedOperationException e) { ; }
+      catch (IllegalArgumentException e) { ; }
+      catch (IOException e) { ; }
+      return h;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isDirectory() {
+      return directory;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public void setMode(int mode) {
+      this.mode = mode;
+    }
+
+    public void setMtime(long mtime) {
+      this.mtime = mtime;
+    }
+
+    public void setOwner(int uid, String userName, int gid, String groupName) {
+      this.uid = uid;
+      this.userName = userName;
+      this.gid = gid;
+      this.groupName = groupName;
+    }
+
+    /**
+     * Makes the entry depend on nothing but its name and content: it is given the time, is owned
+     * by root, and has normal permissions (0755 for directories and executables, otherwise 0644).
+     *
+     * @param time The time in milliseconds; see {@link SourceDate}.
+     */
+    public void normalize(long time) {
+      mtime = time;
+      mode = directory || (mode & 0111) != 0 ? 0755 : 0644;
+      setOwner(0, "root", 0, "root");
+    }
+  }
+
+}
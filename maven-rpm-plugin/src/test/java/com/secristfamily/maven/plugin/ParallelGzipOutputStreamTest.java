@@ -0,0 +1,83 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+public class ParallelGzipOutputStreamTest extends TestCase {
+
+  public void testRoundTrip() throws Exception {
+    Random random = new Random(3);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    ByteArrayOutputStream gz = new ByteArrayOutputStream();
+    ParallelGzipOutputStream out = new ParallelGzipOutputStream(gz, 6, 4, 1 << 15);
+    for (int i = 0; i < 40; i++) {
+      byte[] chunk;
+      if (i % 3 == 0) {
+        chunk = new byte[random.nextInt(100000)];
+        random.nextBytes(chunk);
+        out.setLevel(Deflater.NO_COMPRESSION);
+      }
+      else {
+        chunk = text(random, random.nextInt(200000));
+        out.setLevel(6);
+      }
+      out.write(chunk);
+      expected.write(chunk);
+    }
+    out.write(7);
+    expected.write(7);
+    out.close();
+
+    assertTrue(Arrays.equals(expected.toByteArray(), gunzip(gz.toByteArray())));
+    assertTrue(out.getDeflatedOutput() > 0);
+  }
+
+  public void testEmpty() throws Exception {
+    ByteArrayOutputStream gz = new ByteArrayOutputStream();
+    new ParallelGzipOutputStream(gz, 6, 2).close();
+    assertEquals(0, gunzip(gz.toByteArray()).length);
+  }
+
+  public void testRatio() throws Exception {
+    // Priming each block with the one before keeps the ratio close to a single deflate stream
+    byte[] data = text(new Random(5), 1 << 22);
+    ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+    ParallelGzipOutputStream out = new ParallelGzipOutputStream(parallel, 6, 4);
+    out.write(data);
+    out.close();
+    ByteArrayOutputStream single = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(single);
+    gzip.write(data);
+    gzip.close();
+    assertTrue(Arrays.equals(data, gunzip(parallel.toByteArray())));
+    assertTrue(parallel.size() + " vs " + single.size(), parallel.size() < single.size() * 1.02);
+  }
+
+  private static byte[] text(Random random, int length) {
+    String[] words = { "maven", "rpm", "plugin", "archive", "deflate", "block", "the", "of", "and", "staged" };
+    StringBuilder sb = new StringBuilder(length + 16);
+    while (sb.length() < length)
+      sb.append(words[random.nextInt(words.length)]).append(random.nextInt(10) == 0 ? '\n' : ' ');
+    sb.setLength(length);
+    return sb.toString().getBytes();
+  }
+
+  private static byte[] gunzip(byte[] gz) throws IOException {
+    InputStream in = new GZIPInputStream(new ByteArrayInputStream(gz));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int count;
+    while ((count = in.read(buffer)) != -1)
+      out.write(buffer, 0, count);
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,58 @@
+package com.secristfamily.maven.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+import junit.framework.TestCase;
+
+public class RPMBuildOutputTest extends TestCase {
+
+  public void testOutput() throws Exception {
+    final List<String> info = new ArrayList<String>();
+    final List<String> warn = new ArrayList<String>();
+    RPMBuildOutput output = new RPMBuildOutput(new SystemStreamLog() {
+      public void info(CharSequence content) {
+        info.addAll(Arrays.asList(content.toString().split("\n")));
+      }
+
+      public void warn(CharSequence content) {
+        warn.addAll(Arrays.asList(content.toString().split("\n")));
+      }
+    }, "[a] ");
+    StreamConsumer stdout = output.getStdout();
+    StreamConsumer stderr = output.getStderr();
+
+    stdout.consumeLine("Executing(%prep): /bin/sh -e /var/tmp/rpm-tmp.1");
+    stdout.consumeLine("+ umask 022");
+    stdout.consumeLine("Executing(%install): /bin/sh -e /var/tmp/rpm-tmp.2");
+    stderr.consumeLine("warning: File listed twice");
+    for (int i = 0; i < 1000; i++)
+      stdout.consumeLine("+ cp file" + i);
+    stdout.consumeLine("Processing files: a-1.0-1.noarch");
+    stdout.consumeLine("Checking for unpackaged file(s): /usr/lib/rpm/check-files");
+    stdout.consumeLine("Wrote: /work/RPMS/noarch/a-1.0-1.noarch.rpm");
+    stdout.consumeLine("Wrote: /work/SRPMS/a-1.0-1.src.rpm");
+    stdout.consumeLine("Executing(%clean): /bin/sh -e /var/tmp/rpm-tmp.3");
+    output.close();
+    output.close();
+
+    assertEquals(1008, info.size());
+    assertEquals("[a] Executing(%prep): /bin/sh -e /var/tmp/rpm-tmp.1", info.get(0));
+    assertEquals("[a] + cp file999", info.get(1002));
+    assertEquals(Arrays.asList("[a] warning: File listed twice"), warn);
+
+    Map<String, Long> phases = output.getPhaseTimes();
+    assertEquals(Arrays.asList("startup", "%prep", "%install", "%files", "package", "%clean"), new ArrayList<String>(phases.keySet()));
+    assertEquals(Arrays.asList("/work/RPMS/noarch/a-1.0-1.noarch.rpm", "/work/SRPMS/a-1.0-1.src.rpm"), output.getWrittenFiles());
+
+    List<String> recent = output.getRecentLines();
+    assertEquals(50, recent.size());
+    assertEquals("Executing(%clean): /bin/sh -e /var/tmp/rpm-tmp.3", recent.get(49));
+    assertEquals("+ cp file955", recent.get(0));
+  }
+}
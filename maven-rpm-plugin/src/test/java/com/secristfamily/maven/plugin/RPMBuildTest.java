@@ -0,0 +1,74 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.IOUtil;
+
+public class RPMBuildTest extends TestCase {
+
+  public void testInstallStaged() {
+    String link = "mkdir -p \"$RPM_BUILD_ROOT%{_prefix}%{install_dir}\"\n"
+        + "cp -al \"%{staged_dir}\"/. \"$RPM_BUILD_ROOT%{_prefix}%{install_dir}\"/"
+        + " || { rm -rf \"$RPM_BUILD_ROOT%{_prefix}%{install_dir}\" && mkdir -p \"$RPM_BUILD_ROOT%{_prefix}%{install_dir}\""
+        + " && cp -a \"%{staged_dir}\"/. \"$RPM_BUILD_ROOT%{_prefix}%{install_dir}\"/; }\n";
+    assertEquals("%install\n" + link + "chmod 755 $RPM_BUILD_ROOT/etc/init.d/x\n",
+        RPMBuild.installStaged("%install\nchmod 755 $RPM_BUILD_ROOT/etc/init.d/x\n", false));
+    assertEquals("# comment\n%install\n" + link, RPMBuild.installStaged("# comment\n%install\n", false));
+    assertEquals("%install\n" + link, RPMBuild.installStaged("%install", false));
+    assertEquals("%install\n" + link, RPMBuild.installStaged(null, false));
+
+    String copy = "mkdir -p \"$RPM_BUILD_ROOT%{_prefix}%{install_dir}\"\n"
+        + "cp -a \"%{staged_dir}\"/. \"$RPM_BUILD_ROOT%{_prefix}%{install_dir}\"/\n";
+    assertEquals("%install\n" + copy, RPMBuild.installStaged(null, true));
+  }
+
+  /**
+   * Runs the install commands as rpmbuild would, once it has expanded the macros, on paths with
+   * spaces: linked staged files must come out as copies.
+   */
+  public void testInstallStagedCommands() throws Exception {
+    File work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+    File staged = new File(work, "staged dir");
+    new File(staged, "lib").mkdirs();
+    File jar = new File(staged, "lib/app.jar");
+    Files.write(jar.toPath(), "jar".getBytes("UTF-8"));
+    File root = new File(work, "build root");
+
+    for (boolean copy : new boolean[] { false, true }) {
+      File installed = runInstallStaged(staged, root, "app " + copy, copy, "");
+      // A hard link shares the staged file; a copy has a link of its own
+      assertEquals(copy ? 1 : 2, ((Number) Files.getAttribute(installed.toPath(), "unix:nlink")).intValue());
+    }
+
+    // A link which fails once it has linked files falls back to copying into a clean directory
+    String failingLink = "cp() { if [ \"$1\" = -al ]; then command cp \"$@\"; return 1; fi; command cp \"$@\"; }\n";
+    Object links = Files.getAttribute(jar.toPath(), "unix:nlink");
+    File installed = runInstallStaged(staged, root, "app failed", false, failingLink);
+    assertEquals(1, ((Number) Files.getAttribute(installed.toPath(), "unix:nlink")).intValue());
+    assertEquals(links, Files.getAttribute(jar.toPath(), "unix:nlink"));
+  }
+
+  /**
+   * Runs the install commands, after a preamble, and returns the jar they installed.
+   */
+  private static File runInstallStaged(File staged, File root, String installDir, boolean copy, String preamble)
+      throws Exception {
+    String commands = RPMBuild.installStaged(null, copy).substring("%install\n".length())
+        .replace("%{staged_dir}", staged.getAbsolutePath())
+        .replace("%{_prefix}", "/opt").replace("%{install_dir}", "/" + installDir);
+    ProcessBuilder pb = new ProcessBuilder("sh", "-c", preamble + commands).redirectErrorStream(true);
+    pb.environment().put("RPM_BUILD_ROOT", root.getAbsolutePath());
+    Process p = pb.start();
+    p.getOutputStream().close();
+    String output = new String(IOUtil.toByteArray(p.getInputStream()), "UTF-8");
+    assertEquals(output, 0, p.waitFor());
+    File installed = new File(root, "opt/" + installDir + "/lib/app.jar");
+    assertTrue(installed.isFile());
+    return installed;
+  }
+}
@@ -0,0 +1,147 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class RPMCacheTest extends TestCase {
+  private File work;
+
+  protected void setUp() throws Exception {
+    work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+    work.mkdirs();
+  }
+
+  public void testKey() throws Exception {
+    File staged = new File(work, "staged");
+    new File(staged, "lib").mkdirs();
+    write(new File(staged, "lib/a.jar"), "a");
+    write(new File(staged, "readme.txt"), "readme");
+    File buildroot = new File(work, "buildroot");
+    List<String> paths = Arrays.asList("lib", "lib/a.jar", "readme.txt");
+    RPMCache cache = new RPMCache(new File(work, "cache"), null);
+
+    String key = cache.key(staged, paths, buildroot, "Name: a", "RPM version 4");
+    assertEquals(key, cache.key(staged, Arrays.asList("readme.txt", "lib", "lib/a.jar"), buildroot, "Name: a", "RPM version 4"));
+    assertFalse(key.equals(cache.key(staged, paths, buildroot, "Name: b", "RPM version 4")));
+    assertFalse(key.equals(cache.key(staged, paths, buildroot, "Name: a", "RPM version 5")));
+    assertFalse(key.equals(cache.key(staged, paths.subList(0, 2), buildroot, "Name: a", "RPM version 4")));
+
+    new File(buildroot, "etc").mkdirs();
+    write(new File(buildroot, "etc/a.conf"), "conf");
+    String withBuildroot = cache.key(staged, paths, buildroot, "Name: a", "RPM version 4");
+    assertFalse(key.equals(withBuildroot));
+
+    // Same size, different content
+    write(new File(staged, "lib/a.jar"), "b");
+    assertFalse(withBuildroot.equals(cache.key(staged, paths, buildroot, "Name: a", "RPM version 4")));
+  }
+
+  public void testKeyPermissionsAndLinks() throws Exception {
+    File staged = new File(work, "staged");
+    staged.mkdirs();
+    File readme = new File(staged, "readme.txt");
+    write(readme, "readme");
+    Files.setPosixFilePermissions(readme.toPath(), PosixFilePermissions.fromString("rw-r--r--"));
+    File buildroot = new File(work, "buildroot");
+    new File(buildroot, "etc").mkdirs();
+    // A link back up the tree must not be followed
+    File loop = new File(buildroot, "etc/loop");
+    Files.createSymbolicLink(loop.toPath(), new File("..").toPath());
+    try {
+      List<String> paths = Arrays.asList("readme.txt");
+      RPMCache cache = new RPMCache(new File(work, "cache"), null);
+      String key = cache.key(staged, paths, buildroot, "Name: a", "RPM version 4");
+
+      // Not a change of the execute bit, but a change all the same
+      Files.setPosixFilePermissions(readme.toPath(), PosixFilePermissions.fromString("rw-r-----"));
+      String restricted = cache.key(staged, paths, buildroot, "Name: a", "RPM version 4");
+      assertFalse(key.equals(restricted));
+
+      loop.delete();
+      Files.createSymbolicLink(loop.toPath(), new File("../..").toPath());
+      assertFalse(restricted.equals(cache.key(staged, paths, buildroot, "Name: a", "RPM version 4")));
+    }
+    finally {
+      // Nor may the next run's clean up follow it
+      loop.delete();
+    }
+  }
+
+  public void testStoreAndRestore() throws Exception {
+    RPMCache cache = new RPMCache(new File(work, "cache"), null);
+    File rpm = new File(work, "a-1-1.noarch.rpm");
+    write(rpm, "first");
+    File target = new File(work, "target");
+    target.mkdirs();
+    File dest = new File(target, "a-1-1.noarch.rpm");
+
+    assertNull(cache.restore("a.noarch", "k1", target));
+    cache.store("a.noarch", "k1", rpm);
+    assertEquals(dest, cache.restore("a.noarch", "k1", target));
+    assertEquals("first", new String(Files.readAllBytes(dest.toPath()), "UTF-8"));
+
+    File second = new File(work, "second/a-1-1.noarch.rpm");
+    second.getParentFile().mkdirs();
+    write(second, "second");
+    cache.store("a.noarch", "k2", second);
+    assertNull("only the latest key is kept", cache.restore("a.noarch", "k1", target));
+    assertEquals(dest, cache.restore("a.noarch", "k2", target));
+    assertEquals("second", new String(Files.readAllBytes(dest.toPath()), "UTF-8"));
+    assertFalse(new File(work, "cache/a.noarch/k2/a-1-1.noarch.rpm.part").exists());
+  }
+
+  /**
+   * A package is restored under the name rpmbuild gave it, which need not be the one the build
+   * would make up from BuildArch and the release.
+   */
+  public void testRestoreUnderKeptName() throws Exception {
+    RPMCache cache = new RPMCache(new File(work, "cache"), null);
+    File rpm = new File(work, "a-1-1.el7.x86_64.rpm");
+    write(rpm, "package");
+    cache.store("a.noarch", "k1", rpm);
+
+    File target = new File(work, "target");
+    target.mkdirs();
+    assertEquals(new File(target, "a-1-1.el7.x86_64.rpm"), cache.restore("a.noarch", "k1", target));
+    assertFalse(new File(target, "a-1-1.noarch.rpm").exists());
+  }
+
+  /**
+   * A package kept straight from the target directory is linked to it, so restoring it there must
+   * not write through the link.
+   */
+  public void testRestoreOverKeptPackage() throws Exception {
+    RPMCache cache = new RPMCache(new File(work, "cache"), null);
+    File dest = new File(work, "target/a-1-1.noarch.rpm");
+    dest.getParentFile().mkdirs();
+    write(dest, "package");
+    cache.store("a.noarch", "k1", dest);
+
+    Checksums sums = new Checksums();
+    assertEquals(dest, cache.restore("a.noarch", "k1", dest.getParentFile(), sums));
+    assertEquals("package", new String(Files.readAllBytes(dest.toPath()), "UTF-8"));
+    assertEquals("package", new String(Files.readAllBytes(new File(work, "cache/a.noarch/k1/a-1-1.noarch.rpm").toPath()), "UTF-8"));
+    Checksums read = new Checksums();
+    read.digest(dest);
+    assertEquals(read.getSHA256(), sums.getSHA256());
+  }
+
+  private static void write(File f, String content) throws IOException {
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,472 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+
+public class RPMMojoTest extends TestCase {
+  private File work;
+
+  protected void setUp() throws Exception {
+    work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+    work.mkdirs();
+  }
+
+  public void testCreateTARArchive() throws Exception {
+    File dir = new File(work, "staged");
+    new File(dir, "lib").mkdirs();
+    new File(dir, "empty").mkdirs();
+    byte[] text = "some text which compresses well, some text which compresses well".getBytes("UTF-8");
+    byte[] noise = new byte[100000];
+    new Random(1).nextBytes(noise);
+    StringBuilder longName = new StringBuilder();
+    for (int i = 0; i < 12; i++)
+      longName.append("directory").append(i).append('/');
+    new File(dir, longName.toString()).mkdirs();
+    write(new File(dir, "readme.txt"), text);
+    write(new File(dir, "lib/dependency.jar"), noise);
+    write(new File(dir, longName + "file.txt"), text);
+
+    File tgz = new File(work, "out.tgz");
+    new RPMMojo().createTARArchive(tgz, dir, "component/");
+
+    Map<String, byte[]> entries = readTar(tgz);
+    assertTrue(entries.containsKey("component/empty/"));
+    assertTrue(entries.containsKey("component/lib/"));
+    assertEquals(new String(text, "UTF-8"), new String(entries.get("component/readme.txt"), "UTF-8"));
+    assertEquals(new String(text, "UTF-8"), new String(entries.get("component/" + longName + "file.txt"), "UTF-8"));
+    assertTrue(Arrays.equals(noise, entries.get("component/lib/dependency.jar")));
+  }
+
+  /**
+   * Runs many executions at once, as a parallel reactor build does, into one target directory:
+   * each must get a workspace of its own and package its own module's buildroot.
+   */
+  public void testConcurrentExecutions() throws Exception {
+    final int executions = 12;
+    final File target = new File(work, "target");
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    final MavenProject[] projects = new MavenProject[executions];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < executions; i++) {
+      String name = "module" + i;
+      File base = new File(work, name);
+      new File(base, "conf").mkdirs();
+      new File(base, "src/buildroot/etc").mkdirs();
+      write(new File(base, "conf/" + name + ".properties"), name.getBytes("UTF-8"));
+      write(new File(base, "src/buildroot/etc/" + name + ".conf"), name.getBytes("UTF-8"));
+
+      Model model = new Model();
+      model.setGroupId("com.example");
+      model.setArtifactId(name);
+      model.setVersion("1.0");
+      projects[i] = new MavenProject(model);
+      projects[i].setArtifact(new DefaultArtifact("com.example", name, VersionRange.createFromVersion("1.0"), "compile",
+          "rpm", null, new DefaultArtifactHandler("rpm")));
+
+      Map<String, String> params = new HashMap<String, String>();
+      params.put("ComponentName", name);
+      params.put("InstallDir", name);
+      params.put("prefix", "/opt");
+      final RPMMojo mojo = new RPMMojo();
+      set(mojo, "project", projects[i]);
+      set(mojo, "baseDirectory", base);
+      set(mojo, "targetDirectory", target);
+      set(mojo, "include", new File[] { new File(base, "conf") });
+      set(mojo, "artifactId", name);
+      set(mojo, "version", "1.0");
+      set(mojo, "finalName", name + "-1.0");
+      set(mojo, "nativeBuild", true);
+      set(mojo, "params", params);
+      threads.add(new Thread(new Runnable() {
+        public void run() {
+          try {
+            start.await();
+            mojo.execute();
+          }
+          catch (Throwable t) {
+            failures.add(t);
+          }
+        }
+      }));
+    }
+    for (Thread t : threads)
+      t.start();
+    start.countDown();
+    for (Thread t : threads)
+      t.join();
+    assertEquals(failures.toString(), 0, failures.size());
+
+    for (int i = 0; i < executions; i++) {
+      File rpm = projects[i].getArtifact().getFile();
+      assertNotNull(rpm);
+      assertTrue(rpm.isFile());
+      String content = new String(Files.readAllBytes(rpm.toPath()), "ISO-8859-1");
+      assertTrue(content.contains("module" + i + ".properties"));
+      assertTrue(content.contains("module" + i + ".conf"));
+      for (int j = 0; j < executions; j++) {
+        if (j != i)
+          assertFalse("module" + i + " has module" + j + "'s buildroot", content.contains("module" + j + ".conf"));
+      }
+    }
+    for (String name : target.list())
+      assertFalse("workspace " + name + " left behind", name.startsWith("temp"));
+  }
+
+  /**
+   * A build waits for the work area while another (here, the test itself) holds its lock.
+   */
+  public void testWaitsForWorkAreaLock() throws Exception {
+    File base = new File(work, "module");
+    new File(base, "conf").mkdirs();
+    write(new File(base, "conf/app.properties"), "app".getBytes("UTF-8"));
+    Model model = new Model();
+    model.setGroupId("com.example");
+    model.setArtifactId("app");
+    model.setVersion("1.0");
+    final MavenProject project = new MavenProject(model);
+    project.setArtifact(new DefaultArtifact("com.example", "app", VersionRange.createFromVersion("1.0"), "compile",
+        "rpm", null, new DefaultArtifactHandler("rpm")));
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("ComponentName", "app");
+    params.put("InstallDir", "app");
+    params.put("prefix", "/opt");
+    final RPMMojo mojo = new RPMMojo();
+    set(mojo, "project", project);
+    set(mojo, "baseDirectory", base);
+    set(mojo, "targetDirectory", new File(work, "target"));
+    set(mojo, "include", new File[] { new File(base, "conf") });
+    set(mojo, "artifactId", "app");
+    set(mojo, "version", "1.0");
+    set(mojo, "finalName", "app-1.0");
+    set(mojo, "nativeBuild", true);
+    set(mojo, "params", params);
+
+    new File(work, "target").mkdirs();
+    RandomAccessFile lock = new RandomAccessFile(new File(work, "target/rpm.lock"), "rw");
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    Thread build = new Thread(new Runnable() {
+      public void run() {
+        try {
+          mojo.execute();
+        }
+        catch (Throwable t) {
+          failures.add(t);
+        }
+      }
+    });
+    try {
+      lock.getChannel().lock();
+      build.start();
+      build.join(500);
+      assertTrue("built while the work area was locked", build.isAlive());
+    }
+    finally {
+      lock.close();
+    }
+    build.join();
+    assertEquals(failures.toString(), 0, failures.size());
+    assertTrue(project.getArtifact().getFile().isFile());
+  }
+
+  /**
+   * The sidecars of a package hold its digests and are attached with its classifier.
+   */
+  public void testChecksums() throws Exception {
+    File base = new File(work, "module");
+    new File(base, "conf").mkdirs();
+    write(new File(base, "conf/app.properties"), "app".getBytes("UTF-8"));
+    Model model = new Model();
+    model.setGroupId("com.example");
+    model.setArtifactId("app");
+    model.setVersion("1.0");
+    MavenProject project = new MavenProject(model);
+    project.setArtifact(new DefaultArtifact("com.example", "app", VersionRange.createFromVersion("1.0"), "compile",
+        "rpm", null, new DefaultArtifactHandler("rpm")));
+    final Map<String, File> attached = new TreeMap<String, File>();
+
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("ComponentName", "app");
+    params.put("InstallDir", "app");
+    params.put("prefix", "/opt");
+    RPMMojo mojo = new RPMMojo();
+    set(mojo, "project", project);
+    set(mojo, "projectHelper", new MavenProjectHelper() {
+      public void attachArtifact(MavenProject project, String type, String classifier, File file) {
+        attached.put(type + ":" + classifier, file);
+      }
+
+      public void attachArtifact(MavenProject project, String type, File file) {
+        throw new UnsupportedOperationException();
+      }
+
+      public void attachArtifact(MavenProject project, File file, String classifier) {
+        throw new UnsupportedOperationException();
+      }
+
+      public void addResource(MavenProject project, String dir, List includes, List excludes) {
+        throw new UnsupportedOperationException();
+      }
+
+      public void addTestResource(MavenProject project, String dir, List includes, List excludes) {
+        throw new UnsupportedOperationException();
+      }
+    });
+    set(mojo, "baseDirectory", base);
+    set(mojo, "targetDirectory", new File(work, "target"));
+    set(mojo, "include", new File[] { new File(base, "conf") });
+    set(mojo, "artifactId", "app");
+    set(mojo, "version", "1.0");
+    set(mojo, "finalName", "app-1.0");
+    set(mojo, "classifier", "el7");
+    set(mojo, "nativeBuild", true);
+    set(mojo, "checksums", true);
+    set(mojo, "params", params);
+    mojo.execute();
+
+    File rpm = attached.get("rpm:el7");
+    assertNotNull(rpm);
+    Checksums read = new Checksums();
+    read.digest(rpm);
+    assertEquals(3, attached.size());
+    assertEquals(read.getSHA256() + "  " + rpm.getName() + "\n", FileUtils.readFile(attached.get("rpm.sha256:el7")));
+    assertEquals(read.getSHA512() + "  " + rpm.getName() + "\n", FileUtils.readFile(attached.get("rpm.sha512:el7")));
+  }
+
+  /**
+   * The package is moved into place and checked, and its digests are kept for the sidecars.
+   */
+  public void testFinalizePackage() throws Exception {
+    File built = new File(work, "rpm/RPMS/noarch/app-1.0-1.noarch.rpm");
+    built.getParentFile().mkdirs();
+    byte[] content = new byte[100001];
+    new Random(1).nextBytes(content);
+    write(built, content);
+    File target = new File(work, "target");
+    target.mkdirs();
+    File dest = new File(target, built.getName());
+    write(dest, "stale".getBytes("UTF-8"));
+    RPMMojo mojo = new RPMMojo();
+    set(mojo, "targetDirectory", target);
+
+    Checksums sums = mojo.finalizePackage(built, dest);
+    assertFalse(built.exists());
+    assertTrue(Arrays.equals(content, Files.readAllBytes(dest.toPath())));
+    Checksums read = new Checksums();
+    read.digest(dest);
+    assertEquals(read.getSHA256(), sums.getSHA256());
+    assertEquals(read.getSHA512(), sums.getSHA512());
+  }
+
+  public void testGetWrittenPackage() throws Exception {
+    File expected = new File("RPMS/noarch/app-1.0-1.noarch.rpm");
+    assertEquals(expected, RPMMojo.getWrittenPackage(null, "app-1.0-", expected));
+    assertEquals(expected, RPMMojo.getWrittenPackage(Arrays.asList("/w/SRPMS/app-1.0-1.src.rpm"), "app-1.0-", expected));
+    // No BuildArch: rpmbuild names the package for the machine it runs on
+    assertEquals(new File("/w/RPMS/x86_64/app-1.0-1.x86_64.rpm"), RPMMojo.getWrittenPackage(Arrays.asList(
+        "/w/SRPMS/app-1.0-1.src.rpm", "/w/RPMS/x86_64/app-debuginfo-1.0-1.x86_64.rpm",
+        "/w/RPMS/x86_64/app-1.0-1.x86_64.rpm"), "app-1.0-", expected));
+    assertEquals(new File("/w/RPMS/x86_64/other-1.0-1.x86_64.rpm"), RPMMojo.getWrittenPackage(Arrays.asList(
+        "/w/RPMS/x86_64/other-1.0-1.x86_64.rpm"), "app-1.0-", expected));
+  }
+
+  /**
+   * The same files, checked out at different times and with different permissions, give the same
+   * source tarball and native package byte for byte.
+   */
+  public void testReproducible() throws Exception {
+    File[] rpms = new File[2];
+    File[] tars = new File[2];
+    for (int i = 0; i < rpms.length; i++) {
+      File base = new File(work, "checkout" + i);
+      File conf = new File(base, "conf");
+      conf.mkdirs();
+      for (int f = 0; f < 6; f++) {
+        int n = i == 0 ? f : 5 - f;
+        File file = new File(conf, "app-" + n + ".properties");
+        write(file, ("app " + n).getBytes("UTF-8"));
+        file.setLastModified(1400000000000L + i * 3600000L + f * 1000L);
+        file.setWritable(true, i == 0);
+      }
+      Model model = new Model();
+      model.setGroupId("com.example");
+      model.setArtifactId("app");
+      model.setVersion("1.0");
+      MavenProject project = new MavenProject(model);
+      project.setArtifact(new DefaultArtifact("com.example", "app", VersionRange.createFromVersion("1.0"), "compile",
+          "rpm", null, new DefaultArtifactHandler("rpm")));
+      Map<String, String> params = new HashMap<String, String>();
+      params.put("ComponentName", "app");
+      params.put("InstallDir", "app");
+      params.put("prefix", "/opt");
+      RPMMojo mojo = new RPMMojo();
+      set(mojo, "project", project);
+      set(mojo, "baseDirectory", base);
+      set(mojo, "targetDirectory", new File(work, "target" + i));
+      set(mojo, "include", new File[] { conf });
+      set(mojo, "artifactId", "app");
+      set(mojo, "version", "1.0");
+      set(mojo, "finalName", "app-1.0");
+      set(mojo, "nativeBuild", true);
+      set(mojo, "outputTimestamp", "1500000000");
+      set(mojo, "params", params);
+      mojo.execute();
+      rpms[i] = project.getArtifact().getFile();
+
+      tars[i] = new File(work, "source" + i + ".tgz");
+      mojo.createTARArchive(tars[i], conf, "app/");
+    }
+    assertTrue(Arrays.equals(Files.readAllBytes(rpms[0].toPath()), Files.readAllBytes(rpms[1].toPath())));
+    assertTrue(Arrays.equals(Files.readAllBytes(tars[0].toPath()), Files.readAllBytes(tars[1].toPath())));
+  }
+
+  public void testStageDependencies() throws Exception {
+    File repo = new File(work, "repo");
+    repo.mkdirs();
+    Set<Artifact> artifacts = new HashSet<Artifact>();
+    for (int i = 0; i < 40; i++)
+      artifacts.add(artifact(repo, "dep" + i, i % 10 == 9 ? "test" : "runtime"));
+    artifacts.add(artifact(repo, "app", "runtime"));
+
+    Model model = new Model();
+    model.setGroupId("com.example");
+    model.setArtifactId("app-dist");
+    model.setVersion("1.0");
+    MavenProject project = new MavenProject(model);
+    project.setArtifacts(artifacts);
+    RPMMojo mojo = new RPMMojo();
+    set(mojo, "project", project);
+    set(mojo, "targetDirectory", new File(work, "target"));
+    set(mojo, "addDependencies", true);
+    set(mojo, "primaryArtifactId", "app");
+    set(mojo, "stagingThreads", 4);
+
+    File tempDir = mojo.createTempDir();
+    assertTrue(new File(tempDir, "app-1.0.jar").isFile());
+    assertEquals(36, new File(tempDir, "lib").list().length);
+    for (int i = 0; i < 40; i++)
+      assertEquals("dep" + i, i % 10 != 9, new File(tempDir, "lib/dep" + i + "-1.0.jar").isFile());
+    assertEquals("dep" + 7 + " content", new String(Files.readAllBytes(new File(tempDir, "lib/dep7-1.0.jar").toPath()), "UTF-8"));
+
+    // A missing dependency fails the staging once every copy has finished
+    artifacts.add(artifact(repo, "missing", "runtime"));
+    new File(repo, "missing-1.0.jar").delete();
+    try {
+      mojo.createTempDir();
+      fail();
+    }
+    catch (MojoExecutionException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("missing-1.0.jar"));
+    }
+  }
+
+  private static Artifact artifact(File repo, String name, String scope) throws IOException {
+    File f = new File(repo, name + "-1.0.jar");
+    write(f, (name + " content").getBytes("UTF-8"));
+    Artifact a = new DefaultArtifact("com.example", name, VersionRange.createFromVersion("1.0"), scope, "jar", null,
+        new DefaultArtifactHandler("jar"));
+    a.setFile(f);
+    return a;
+  }
+
+  static void set(Object mojo, String name, Object value) throws Exception {
+    Field f = mojo.getClass().getDeclaredField(name);
+    f.setAccessible(true);
+    f.set(mojo, value);
+  }
+
+  private static void write(File f, byte[] content) throws IOException {
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(content);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads the names and contents of the entries of a gzipped tar, following GNU long names.
+   */
+  static Map<String, byte[]> readTar(File tgz) throws IOException {
+    Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+    DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(tgz)));
+    try {
+      String longName = null;
+      byte[] header = new byte[512];
+      while (true) {
+        try {
+          in.readFully(header);
+        }
+        catch (EOFException e) {
+          break;
+        }
+        if (header[0] == 0)
+          break;
+        String name = field(header, 0, 100);
+        long size = Long.parseLong(field(header, 124, 12).trim(), 8);
+        byte[] data = new byte[(int) size];
+        in.readFully(data);
+        skip(in, (512 - (size % 512)) % 512);
+        if (header[156] == 'L') {
+          longName = field(data, 0, data.length);
+          continue;
+        }
+        entries.put(longName != null ? longName : name, data);
+        longName = null;
+      }
+    }
+    finally {
+      in.close();
+    }
+    return entries;
+  }
+
+  private static String field(byte[] b, int off, int len) {
+    int end = off;
+    while (end < off + len && b[end] != 0)
+      end++;
+    return new String(b, off, end - off);
+  }
+
+  private static void skip(InputStream in, long n) throws IOException {
+    ByteArrayOutputStream ignored = new ByteArrayOutputStream();
+    for (long i = 0; i < n; i++)
+      ignored.write(in.read());
+  }
+}
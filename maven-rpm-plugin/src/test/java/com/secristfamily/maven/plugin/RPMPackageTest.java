@@ -0,0 +1,58 @@
+package com.secristfamily.maven.plugin;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class RPMPackageTest extends TestCase {
+  private static final List<String> PATHS = Arrays.asList("conf", "conf/app.xml", "conf/tmp", "conf/tmp/a.bak",
+      "docs", "docs/guide.html", "lib", "lib/a.jar", "lib/b.jar", "service.jar");
+  private static final Set<String> DIRECTORIES = new HashSet<String>(Arrays.asList("conf", "conf/tmp", "docs", "lib"));
+
+  public void testSelect() {
+    RPMPackage all = new RPMPackage();
+    assertEquals(PATHS, all.select(PATHS, DIRECTORIES));
+
+    RPMPackage config = new RPMPackage();
+    config.setIncludes(Arrays.asList("conf/**"));
+    config.setExcludes(Arrays.asList("conf/tmp/**"));
+    assertEquals(Arrays.asList("conf", "conf/app.xml"), config.select(PATHS, DIRECTORIES));
+
+    RPMPackage jars = new RPMPackage();
+    jars.setIncludes(Arrays.asList("**/*.jar"));
+    jars.setExcludes(Arrays.asList("lib/b.jar"));
+    assertEquals(Arrays.asList("lib", "lib/a.jar", "service.jar"), jars.select(PATHS, DIRECTORIES));
+
+    RPMPackage main = new RPMPackage();
+    main.setExcludes(Arrays.asList("conf/", "docs/**"));
+    assertEquals(Arrays.asList("lib", "lib/a.jar", "lib/b.jar", "service.jar"), main.select(PATHS, DIRECTORIES));
+  }
+
+  public void testMerge() {
+    Map<String, String> defaults = new HashMap<String, String>();
+    defaults.put("ComponentName", "service");
+    defaults.put("InstallDir", "service");
+    RPMPackage pkg = new RPMPackage();
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("ComponentName", "service-docs");
+    pkg.setParams(params);
+    pkg.setArch("x86_64");
+
+    Map<String, String> merged = pkg.mergeParams(defaults);
+    assertEquals("service-docs", merged.get("ComponentName"));
+    assertEquals("service", merged.get("InstallDir"));
+    assertEquals("x86_64", RPMMojo.getBuildArch(merged));
+    assertEquals("service", defaults.get("ComponentName"));
+    assertEquals("noarch", RPMMojo.getBuildArch(defaults));
+
+    String[] requires = { "java" };
+    assertSame(requires, pkg.mergeRequires(requires));
+    pkg.setRequires(new String[0]);
+    assertEquals(0, pkg.mergeRequires(requires).length);
+  }
+}
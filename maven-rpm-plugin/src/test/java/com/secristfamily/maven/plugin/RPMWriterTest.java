@@ -0,0 +1,327 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class RPMWriterTest extends TestCase {
+  private File work;
+
+  protected void setUp() throws Exception {
+    work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+    work.mkdirs();
+  }
+
+  public void testWrite() throws Exception {
+    File staged = new File(work, "staged");
+    new File(staged, "lib").mkdirs();
+    byte[] text = "some text which compresses well, some text which compresses well".getBytes("UTF-8");
+    byte[] noise = new byte[100001];
+    new Random(1).nextBytes(noise);
+    write(new File(staged, "readme.txt"), text);
+    write(new File(staged, "lib/dependency.jar"), noise);
+
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("name", "component");
+    params.put("version", "1.2");
+    params.put("release", "3");
+    params.put("Summary", "A component");
+    params.put("InstallDir", "component");
+    RPMWriter writer = new RPMWriter(new CompressionPolicy(), null);
+    writer.configure(params, new String[] { "java >= 1.6, bash" });
+    writer.addFile("/opt/component", staged);
+    writer.addFile("/opt/component/lib", new File(staged, "lib"));
+    writer.addFile("/opt/component/lib/dependency.jar", new File(staged, "lib/dependency.jar"));
+    writer.addFile("/opt/component/readme.txt", new File(staged, "readme.txt"));
+    assertEquals("component-1.2-3.noarch.rpm", writer.getFileName());
+    File rpm = new File(work, writer.getFileName());
+    writer.write(rpm);
+
+    byte[] bytes = Files.readAllBytes(rpm.toPath());
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    assertEquals(0xedabeedb, buffer.getInt(0));
+    assertEquals("component-1.2-3", new String(bytes, 10, 15, "UTF-8"));
+
+    // Signature: the size and digests of what follows it
+    Map<Integer, Object> sig = readHeader(buffer, 96, 62);
+    int headerStart = (buffer.position() + 7) & ~7;
+    Map<Integer, Object> header = readHeader(buffer, headerStart, 63);
+    int payloadStart = buffer.position();
+    assertEquals(bytes.length - headerStart, ((int[]) sig.get(1000))[0]);
+    MessageDigest md5 = MessageDigest.getInstance("MD5");
+    md5.update(bytes, headerStart, bytes.length - headerStart);
+    assertTrue(Arrays.equals(md5.digest(), (byte[]) sig.get(1004)));
+    MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+    sha256.update(bytes, headerStart, payloadStart - headerStart);
+    assertEquals(hex(sha256.digest()), ((String[]) sig.get(273))[0]);
+
+    // Main header
+    assertEquals("component", ((String[]) header.get(1000))[0]);
+    assertEquals("1.2", ((String[]) header.get(1001))[0]);
+    assertEquals("3", ((String[]) header.get(1002))[0]);
+    assertEquals("A component", ((String[]) header.get(1004))[0]);
+    // Recorded as built by an rpm which knows every tag written, the SHA-256 signature digest included
+    assertEquals("4.14.0", ((String[]) header.get(1064))[0]);
+    assertEquals(Arrays.asList("component", "lib", "dependency.jar", "readme.txt"), Arrays.asList((String[]) header.get(1117)));
+    assertEquals(Arrays.asList("/opt/", "/opt/component/", "/opt/component/lib/"), Arrays.asList((String[]) header.get(1118)));
+    assertEquals(hex(MessageDigest.getInstance("SHA-256").digest(text)), ((String[]) header.get(1035))[3]);
+    assertEquals(Arrays.asList("bash", "java"), Arrays.asList((String[]) header.get(1049)).subList(0, 2));
+    assertEquals(RPMWriter.SENSE_GREATER | RPMWriter.SENSE_EQUAL, ((int[]) header.get(1048))[1]);
+
+    // Payload
+    byte[] cpio = readFully(new GZIPInputStream(new ByteArrayInputStream(bytes, payloadStart, bytes.length - payloadStart)));
+    assertEquals(((int[]) sig.get(1007))[0], cpio.length);
+    Map<String, byte[]> entries = readCpio(cpio);
+    assertEquals(Arrays.asList("./opt/component", "./opt/component/lib", "./opt/component/lib/dependency.jar",
+        "./opt/component/readme.txt", "TRAILER!!!"), Arrays.asList(entries.keySet().toArray()));
+    assertTrue(Arrays.equals(noise, entries.get("./opt/component/lib/dependency.jar")));
+    assertTrue(Arrays.equals(text, entries.get("./opt/component/readme.txt")));
+  }
+
+  /**
+   * The requirements are recorded as rpmbuild records those of the spec file written from the
+   * same requires: macros expanded, split on commas and white space, sorted and without
+   * duplicates.
+   */
+  public void testRequiresAsRpmbuild() throws Exception {
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("name", "component");
+    params.put("version", "1.2");
+    params.put("release", "3");
+    params.put("Summary", "A component");
+    params.put("License", "ASL 2.0");
+    params.put("BuildArch", "noarch");
+    params.put("ComponentName", "component");
+    params.put("InstallDir", "component");
+    params.put("prefix", "/opt");
+    params.put("pombr", work.getAbsolutePath());
+    String[] requires = { "java >= 1.6 java < 1.9, bash", "%{name}-common = %{version}", "bash" };
+    RPMWriter writer = new RPMWriter(new CompressionPolicy(), null);
+    writer.configure(params, requires);
+    File rpm = new File(work, writer.getFileName());
+    writer.write(rpm);
+    Map<Integer, Object> header = readPackageHeader(rpm);
+
+    int rpmlib = RPMWriter.SENSE_RPMLIB | RPMWriter.SENSE_LESS | RPMWriter.SENSE_EQUAL;
+    assertEquals(Arrays.asList("bash", "component-common", "java", "java", "rpmlib(CompressedFileNames)",
+        "rpmlib(PayloadFilesHavePrefix)"), Arrays.asList((String[]) header.get(1049)));
+    assertEquals(Arrays.asList("", "1.2", "1.6", "1.9", "3.0.4-1", "4.0-1"), Arrays.asList((String[]) header.get(1050)));
+    assertTrue(Arrays.equals(new int[] { 0, RPMWriter.SENSE_EQUAL, RPMWriter.SENSE_GREATER | RPMWriter.SENSE_EQUAL,
+        RPMWriter.SENSE_LESS, rpmlib, rpmlib }, (int[]) header.get(1048)));
+
+    // And against rpmbuild itself where it is installed, given the Requires: lines of the spec file
+    if (RPMBuild.getVersion().equals("unknown"))
+      return;
+    File top = new File(work, "rpmbuild");
+    RPMBuild build = new RPMBuild(top, new SystemStreamLog());
+    build.buildWorkArea();
+    StringBuilder spec = new StringBuilder("Name: component\nVersion: 1.2\nRelease: 3\nSummary: A component\n"
+        + "License: ASL 2.0\nBuildArch: noarch\n");
+    for (String line : build.writeSpecFile("component", params, requires).split("\n")) {
+      if (line.startsWith("Requires:"))
+        spec.append(line).append('\n');
+    }
+    spec.append("\n%description\nA component\n\n%files\n");
+    File specFile = new File(top, "SPECS/requires.spec");
+    write(specFile, spec.toString().getBytes("UTF-8"));
+    Process p = new ProcessBuilder("rpmbuild", "-bb", "--define", "_topdir " + top.getAbsolutePath(),
+        specFile.getAbsolutePath()).redirectErrorStream(true).start();
+    p.getOutputStream().close();
+    String output = new String(readFully(p.getInputStream()), "UTF-8");
+    assertEquals(output, 0, p.waitFor());
+    Map<Integer, Object> built = readPackageHeader(new File(top, "RPMS/noarch/" + writer.getFileName()));
+    assertEquals(requirements(built), requirements(header));
+  }
+
+  /**
+   * A package whose files change size after the header is written fails rather than describe a
+   * payload it does not hold.
+   */
+  public void testCopyChecksSize() throws IOException {
+    File f = new File(work, "grown.txt");
+    write(f, "grown".getBytes("UTF-8"));
+    CpioWriter cpio = new CpioWriter(new ByteArrayOutputStream());
+    cpio.putEntry("./grown.txt", CpioWriter.S_IFREG | 0644, 3, 0, 1, 1);
+    try {
+      cpio.copy(f);
+      fail("copied a file longer than its header");
+    }
+    catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("longer"));
+    }
+
+    cpio = new CpioWriter(new ByteArrayOutputStream());
+    cpio.putEntry("./grown.txt", CpioWriter.S_IFREG | 0644, 8, 0, 1, 1);
+    try {
+      cpio.copy(f);
+      fail("copied a file shorter than its header");
+    }
+    catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("short"));
+    }
+  }
+
+  public void testExpand() {
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("name", "component");
+    params.put("version", "1.2");
+    params.put("release", "3");
+    params.put("InstallDir", "opt/component");
+    params.put("defines", "owner tomcat");
+    RPMWriter writer = new RPMWriter(new CompressionPolicy(), null);
+    writer.configure(params, null);
+    assertEquals("chown tomcat %{unknown}/opt/component/%name 100%", writer.expand("chown %{owner} %{unknown}%{install_dir}/%%name 100%%"));
+  }
+
+  /**
+   * Reads the main header of a package.
+   */
+  private static Map<Integer, Object> readPackageHeader(File rpm) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(rpm.toPath()));
+    readHeader(buffer, 96, 62);
+    return readHeader(buffer, (buffer.position() + 7) & ~7, 63);
+  }
+
+  /**
+   * @return The requirements of a package other than those on rpm itself, one per line.
+   */
+  private static List<String> requirements(Map<Integer, Object> header) {
+    String[] names = (String[]) header.get(1049);
+    String[] versions = (String[]) header.get(1050);
+    int[] flags = (int[]) header.get(1048);
+    List<String> requirements = new ArrayList<String>();
+    for (int i = 0; i < names.length; i++) {
+      if (!names[i].startsWith("rpmlib("))
+        requirements.add(names[i] + " " + Integer.toHexString(flags[i]) + " " + versions[i]);
+    }
+    return requirements;
+  }
+
+  private static void write(File f, byte[] content) throws IOException {
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(content);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads a header structure, leaving the buffer positioned after it.  Integer entries are
+   * returned as int arrays, strings as string arrays and binary entries as byte arrays.
+   */
+  static Map<Integer, Object> readHeader(ByteBuffer buffer, int start, int regionTag) {
+    assertEquals(0x8eade801, buffer.getInt(start));
+    int count = buffer.getInt(start + 8);
+    int storeSize = buffer.getInt(start + 12);
+    int store = start + 16 + count * 16;
+    assertEquals(regionTag, buffer.getInt(start + 16));
+    int trailer = store + buffer.getInt(start + 24);
+    assertEquals(regionTag, buffer.getInt(trailer));
+    assertEquals(-count * 16, buffer.getInt(trailer + 8));
+
+    Map<Integer, Object> entries = new LinkedHashMap<Integer, Object>();
+    int last = 0;
+    for (int i = 1; i < count; i++) {
+      int index = start + 16 + i * 16;
+      int tag = buffer.getInt(index);
+      int type = buffer.getInt(index + 4);
+      int offset = buffer.getInt(index + 8);
+      int n = buffer.getInt(index + 12);
+      assertTrue("entries are in tag order", tag > last);
+      last = tag;
+      int pos = store + offset;
+      if (type == 3) {
+        assertEquals(0, offset % 2);
+        int[] values = new int[n];
+        for (int j = 0; j < n; j++)
+          values[j] = buffer.getShort(pos + j * 2) & 0xffff;
+        entries.put(tag, values);
+      }
+      else if (type == 4) {
+        assertEquals(0, offset % 4);
+        int[] values = new int[n];
+        for (int j = 0; j < n; j++)
+          values[j] = buffer.getInt(pos + j * 4);
+        entries.put(tag, values);
+      }
+      else if (type == 7) {
+        byte[] value = new byte[n];
+        for (int j = 0; j < n; j++)
+          value[j] = buffer.get(pos + j);
+        entries.put(tag, value);
+      }
+      else {
+        String[] values = new String[n];
+        for (int j = 0; j < n; j++) {
+          int end = pos;
+          while (buffer.get(end) != 0)
+            end++;
+          values[j] = new String(buffer.array(), pos, end - pos);
+          pos = end + 1;
+        }
+        entries.put(tag, values);
+      }
+    }
+    buffer.position(store + storeSize);
+    return entries;
+  }
+
+  /**
+   * Reads the names and contents of the entries of a newc cpio archive.
+   */
+  static Map<String, byte[]> readCpio(byte[] cpio) throws IOException {
+    Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+    int pos = 0;
+    while (pos < cpio.length) {
+      String header = new String(cpio, pos, 110, "US-ASCII");
+      assertEquals("070701", header.substring(0, 6));
+      int size = Integer.parseInt(header.substring(54, 62), 16);
+      int nameSize = Integer.parseInt(header.substring(94, 102), 16);
+      String name = new String(cpio, pos + 110, nameSize - 1, "UTF-8");
+      pos = (pos + 110 + nameSize + 3) & ~3;
+      entries.put(name, Arrays.copyOfRange(cpio, pos, pos + size));
+      pos = (pos + size + 3) & ~3;
+      if (name.equals("TRAILER!!!"))
+        break;
+    }
+    return entries;
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int count;
+    while ((count = in.read(buffer)) != -1)
+      out.write(buffer, 0, count);
+    return out.toByteArray();
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes)
+      sb.append(String.format("%02x", b));
+    return sb.toString();
+  }
+}
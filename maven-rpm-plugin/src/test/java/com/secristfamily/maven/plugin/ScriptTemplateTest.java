@@ -0,0 +1,62 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+public class ScriptTemplateTest extends TestCase {
+
+  public void testRender() {
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("InstallDir", "opt/service");
+    params.put("owner", "tomcat");
+    Properties properties = new Properties();
+    properties.setProperty("owner", "ignored");
+    properties.setProperty("service.port", "8080");
+
+    ScriptTemplate t = ScriptTemplate.compile("chown -R ${owner} /${InstallDir}\necho ${service.port} ${RPM_BUILD_ROOT} %{_prefix}\n");
+    assertEquals("chown -R tomcat /opt/service\necho 8080 ${RPM_BUILD_ROOT} %{_prefix}\n", t.render(params, properties));
+    assertEquals("chown -R ${owner} /${InstallDir}\necho ${service.port} ${RPM_BUILD_ROOT} %{_prefix}\n", t.render(null, null));
+
+    assertEquals("plain", ScriptTemplate.compile("plain").render(params, properties));
+    assertEquals("${} $${owner} ${unterminated", ScriptTemplate.compile("${} $${owner} ${unterminated").render(null, null));
+    assertEquals("$tomcat ${ x", ScriptTemplate.compile("$${owner} ${ x").render(params, null));
+    assertEquals("tomcattomcat", ScriptTemplate.compile("${owner}${owner}").render(params, null));
+  }
+
+  public void testForFile() throws Exception {
+    File work = new File("target/test-work/" + getName());
+    work.mkdirs();
+    File f = new File(work, "post.sh");
+    write(f, "echo ${a}");
+    f.setLastModified(1000000000000L);
+    ScriptTemplate first = ScriptTemplate.forFile(f);
+    assertSame(first, ScriptTemplate.forFile(f));
+
+    write(f, "echo ${b}!");
+    f.setLastModified(1000000000000L);
+    ScriptTemplate changed = ScriptTemplate.forFile(f);
+    assertNotSame(first, changed);
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("b", "x");
+    assertEquals("echo x!", changed.render(params, null));
+
+    assertSame(ScriptTemplate.forResource("/scripts/install.sh"), ScriptTemplate.forResource("/scripts/install.sh"));
+    assertNull(ScriptTemplate.forResource("/scripts/missing.sh"));
+  }
+
+  private static void write(File f, String content) throws IOException {
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+  }
+}
@@ -2,16 +2,21 @@ package com.secristfamily.maven.plugin;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 
 /**
- * Creates a timestamp and sticks it into the project properties.
+ * Creates a timestamp and sticks it into the project properties.  In a reproducible build (see
+ * {@link SourceDate}) the timestamp is the time of the build as given, in UTC, rather than the
+ * time the build ran.
  * 
  * @phase generate-sources
  * @goal create
+ * @threadSafe
  */
 public class TimestampMojo extends AbstractMojo {
 
@@ -23,12 +28,28 @@ public class TimestampMojo extends AbstractMojo {
      */
     private MavenProject project;
 
+    /**
+     * The time of a reproducible build, in seconds since the epoch or ISO 8601; when it (or the
+     * <code>SOURCE_DATE_EPOCH</code> environment variable) is set, it is the timestamp.
+     * 
+     * @parameter default-value="${project.build.outputTimestamp}"
+     */
+    private String outputTimestamp;
+
     public void execute() throws MojoExecutionException {
         SimpleDateFormat format = new SimpleDateFormat("yyyy-MMM-dd'T'HHmmssZ");
         if (project == null) {
             throw new MojoExecutionException("project is null");
         }
-        String timestamp = format.format(new Date());
+        Date date = new Date();
+        long sourceDate = SourceDate.resolve(outputTimestamp);
+        if (sourceDate >= 0) {
+            // The same whatever the locale and time zone of the build
+            format = new SimpleDateFormat("yyyy-MMM-dd'T'HHmmssZ", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            date = new Date(sourceDate);
+        }
+        String timestamp = format.format(date);
         getLog().info("setting property [timestamp] to [" + timestamp + "]");
         project.getProperties().setProperty("timestamp", timestamp);
     }
@@ -0,0 +1,182 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.util.AbstractScanner;
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * An in-memory description of the contents of an archive.  Each entry maps a path within the
+ * archive to the file on disk which supplies its content, so an archive can be written straight
+ * from its sources without first being staged into a temporary directory.
+ */
+public class ArchivePlan {
+
+  private final SortedMap<String, Entry> entries = new TreeMap<String, Entry>();
+
+  /**
+   * Adds a file to the plan.  Parent directories are added implicitly.
+   *
+   * @param source The file supplying the content.
+   * @param path The path of the entry within the archive.
+   */
+  public void addFile(File source, String path) {
+    path = normalize(path);
+    addParents(path);
+    entries.put(path, new Entry(path, source, false));
+  }
+
+  /**
+   * Adds an (possibly empty) directory entry to the plan.
+   *
+   * @param path The path of the directory within the archive.
+   */
+  public void addDirectory(String path) {
+    addDirectory(null, path);
+  }
+
+  /**
+   * Adds a directory entry to the plan which takes its attributes from the given directory.
+   *
+   * @param source The directory on disk, may be <code>null</code>.
+   * @param path The path of the directory within the archive.
+   */
+  public void addDirectory(File source, String path) {
+    path = normalize(path);
+    if (path.length() == 0)
+      return;
+    addParents(path);
+    Entry existing = entries.get(path);
+    if (existing == null || (existing.getSource() == null && source != null))
+      entries.put(path, new Entry(path, source, true));
+  }
+
+  /**
+   * Adds a directory tree to the plan.  The tree is walked in parallel by a {@link TreeWalker};
+   * excluded directories are pruned without being listed.
+   *
+   * @param directory The directory to add.
+   * @param path The path of the directory within the archive.
+   * @param filter Decides which files and directories below the tree are skipped, matching
+   *            their paths within the archive.
+   * @throws IOException if the tree cannot be walked.
+   */
+  public void addTree(File directory, String path, PathFilter filter) throws IOException {
+    addDirectory(directory, path);
+    new TreeWalker().walk(directory, normalize(path), filter, new TreeWalker.Visitor() {
+      public void visit(File f, String child, boolean isDirectory) {
+        if (isDirectory)
+          addDirectory(f, child);
+        else
+          addFile(f, child);
+      }
+    });
+  }
+
+  /**
+   * Removes any entries matched by the default excludes of the plexus archivers (version control
+   * metadata and editor backups), which a staged directory would have had filtered out.
+   */
+  public void removeDefaultExcludes() {
+    for (Iterator<String> i = entries.keySet().iterator(); i.hasNext();) {
+      String path = i.next().replace('/', File.separatorChar);
+      for (String pattern : AbstractScanner.DEFAULTEXCLUDES) {
+        if (SelectorUtils.matchPath(pattern.replace('/', File.separatorChar), path, true)) {
+          i.remove();
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The entries of this plan, ordered by path.
+   */
+  public Collection<Entry> getEntries() {
+    return entries.values();
+  }
+
+  /**
+   * @return The file entries of this plan, ordered by path.
+   */
+  public List<Entry> getFiles() {
+    List<Entry> files = new ArrayList<Entry>();
+    for (Entry e : entries.values()) {
+      if (!e.isDirectory())
+        files.add(e);
+    }
+    return files;
+  }
+
+  public Entry getEntry(String path) {
+    return entries.get(normalize(path));
+  }
+
+  public boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  private void addParents(String path) {
+    int slash = path.lastIndexOf('/');
+    if (slash > 0)
+      addDirectory(path.substring(0, slash));
+  }
+
+  private static String normalize(String path) {
+    path = path.replace('\\', '/');
+    while (path.startsWith("/"))
+      path = path.substring(1);
+    while (path.endsWith("/"))
+      path = path.substring(0, path.length() - 1);
+    return path;
+  }
+
+  /**
+   * A single file or directory within the plan.
+   */
+  public static class Entry {
+    private final String path;
+    private final File source;
+    private final boolean directory;
+
+    Entry(String path, File source, boolean directory) {
+      this.path = path;
+      this.source = source;
+      this.directory = directory;
+    }
+
+    /**
+     * @return The path within the archive, without a trailing slash.
+     */
+    public String getPath() {
+      return path;
+    }
+
+    /**
+     * @return The file supplying the content, or <code>null</code> for a directory.
+     */
+    public File getSource() {
+      return source;
+    }
+
+    public boolean isDirectory() {
+      return directory;
+    }
+
+    public String toString() {
+      return path + (directory ? "/" : " <- " + source);
+    }
+  }
+
+}
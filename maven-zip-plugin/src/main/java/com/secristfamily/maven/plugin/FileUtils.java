@@ -1,23 +1,17 @@
 package com.secristfamily.maven.plugin;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Enumeration;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
-import java.util.zip.ZipFile;
 
 import org.apache.maven.plugin.MojoExecutionException;
 
-import com.secristfamily.maven.plugin.ZipMojo.Exclusion;
-
 public class FileUtils {
 
   /**
@@ -38,36 +32,74 @@ public class FileUtils {
   }
   
   public static final void copyFile(File in, File out) throws MojoExecutionException {
-    FileInputStream fis = null;
-    FileOutputStream fos = null;
+    copyFile(in, out, new FileCopier(false));
+  }
+  
+  /**
+   * Copies (or links) a file using the given copier.
+   * @param in The source file.
+   * @param out The destination file.
+   * @param copier The copier, which also keeps count of what it did.
+   * @throws MojoExecutionException if the file cannot be copied.
+   */
+  public static final void copyFile(File in, File out, FileCopier copier) throws MojoExecutionException {
     try {
-      fis = new FileInputStream(in);
-      fos = new FileOutputStream(out);
-      FileUtils.copyInputStream(fis, fos);
+      copier.copy(in, out);
     }
     catch (Throwable e) {
       throw new MojoExecutionException("Failed to copy file " + in.getName(), e);
     }
-    finally {
-      try { if (fis != null) { fis.close(); fis = null; } } catch (Throwable e) { ; }
-      try { if (fos != null) { fos.close(); fos = null; } } catch (Throwable e) { ; }
-    }
   }
   
-  public static void copyDirectory(File src, File dest, Exclusion excludeVisitor) throws MojoExecutionException {
+  /**
+   * Copies a directory tree, skipping what the filter excludes.  The tree is walked in parallel
+   * by a {@link TreeWalker}; excluded directories are not walked at all.
+   * @param src The directory to copy.
+   * @param dest The directory to copy into.
+   * @param filter Matched against paths relative to the destination root.
+   * @param path The path of <code>dest</code> relative to the destination root.
+   * @throws MojoExecutionException If a file cannot be copied.
+   */
+  public static void copyDirectory(final File src, final File dest, PathFilter filter, String path) throws MojoExecutionException {
     if (!dest.exists())
       dest.mkdirs();
-    File[] files = src.listFiles();
-    for(File f : files) {
-      String fileName = f.getName();
-      if (f.isDirectory())
-        copyDirectory(f, new File(dest, fileName), excludeVisitor);
-      else {
-        if (excludeVisitor.exclude(fileName)) {
-          continue;
+    final FileCopier copier = new FileCopier(false);
+    final int prefix = path.length() == 0 ? 0 : path.length() + 1;
+    try {
+      new TreeWalker().walk(src, path, filter, new TreeWalker.Visitor() {
+        public void visit(File f, String child, boolean directory) throws IOException {
+          File target = new File(dest, child.substring(prefix));
+          if (directory)
+            target.mkdirs();
+          else
+            copier.copy(f, target);
         }
-        copyFile(f, new File(dest, fileName));
+      });
+    }
+    catch (IOException e) {
+      throw new MojoExecutionException("Failed to copy directory " + src.getName(), e);
+    }
+  }
+  
+  /**
+   * Reads the unix permission bits of a file.
+   * @param f The file.
+   * @param def The permissions to assume where the file system does not support them.
+   * @return The permission bits, e.g. 0644.
+   */
+  public static int getPermissions(File f, int def) {
+    try {
+      int mode = 0;
+      for (PosixFilePermission p : Files.getPosixFilePermissions(f.toPath())) {
+        mode |= 1 << (8 - p.ordinal());
       }
+      return mode;
+    }
+    catch (UnsupportedOperationException e) {
+      return def;
+    }
+    catch (IOException e) {
+      return def;
     }
   }
   
@@ -85,27 +117,24 @@ public class FileUtils {
   /**
    * Recursivly finds all files within a directory.
    * @param directory The directory entry point.
+   * @throws IOException If a directory cannot be listed.
    */
-  public static Set<File> recurseFS(File directory) {
+  public static Set<File> recurseFS(File directory) throws IOException {
     return recurseFS(false, directory, new HashSet<File>());
   }
   
   /**
    * Recursivly finds all files and subdirectories within a directory.
    * @param directory The directory entry point.
+   * @throws IOException If a directory cannot be listed.
    */
-  public static Set<File> recurseFS(boolean includeDirectories, File directory, Set<File> set) {
-    File dirList[] = directory.listFiles();
-    for (int i = 0; i < dirList.length; i++) {
-      if (dirList[i].isDirectory()) {
-        Set<File> subDir = recurseFS(dirList[i]);
-        set.addAll(subDir);
-        if (includeDirectories)
-          set.add(dirList[i]);
-        }
-      else
-        set.add(dirList[i]);
-    }
+  public static Set<File> recurseFS(final boolean includeDirectories, File directory, final Set<File> set) throws IOException {
+    new TreeWalker().walk(directory, "", null, new TreeWalker.Visitor() {
+      public void visit(File f, String path, boolean isDirectory) {
+        if (!isDirectory || includeDirectories)
+          set.add(f);
+      }
+    });
     return set;
   }
   
@@ -117,28 +146,8 @@ public class FileUtils {
    */
   public static void explodeZip(File zipped, File directory) throws MojoExecutionException {
     // Explode ZIP into a directory
-    ZipFile parent = null;
-    BufferedOutputStream bos = null;
     try {
-      if (!directory.exists())
-        directory.mkdirs();
-      // Open saved archive & save each file:
-      parent = new ZipFile(zipped);
-      Enumeration entries = parent.entries();
-      while (entries.hasMoreElements()) {
-        ZipEntry entry = (ZipEntry) entries.nextElement();
-        File child = new File(directory, entry.getName());
-        if (entry.isDirectory())
-          continue;
-        else
-          child.getParentFile().mkdirs();
-        bos = new BufferedOutputStream(new FileOutputStream(child));
-        FileUtils.copyInputStream(parent.getInputStream(entry), bos);
-        bos.close();
-        bos = null;
-      }
-      parent.close();
-      parent = null;
+      new ZipExtractor(0).extract(zipped, directory);
     }
     catch (ZipException e) {
       throw new MojoExecutionException("Exception expanding bytes into zip file: " + zipped.getName() + " - is it really ZIP file?", e);
@@ -146,22 +155,6 @@ public class FileUtils {
     catch (IOException e) {
       throw new MojoExecutionException("Exception creating contents of zip file: " + zipped.getName(), e);
     }
-    finally {
-      if (parent != null) {
-        try {
-          parent.close();
-          parent = null;
-        }
-        catch (IOException e) { ; }
-      }
-      if (bos != null) {
-        try {
-          bos.close();
-          bos = null;
-        }
-        catch (IOException e) { ; }
-      }
-    }
   }
 
 }
@@ -0,0 +1,183 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+/**
+ * A digest over everything a build step reads: configuration values, individual files and whole
+ * directory trees.  When the fingerprint of the inputs matches the one recorded by the previous
+ * build, the output of that build is still current.
+ * <p>
+ * Trees are described by the relative path, size and modification time of every file, or by
+ * content hashes when a cheaper stat is not trusted.  Values are added in a fixed order by the
+ * caller, so the same inputs always produce the same fingerprint.
+ */
+public class InputFingerprint {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final MessageDigest digest;
+  private final boolean hashContent;
+  private final byte[] buffer = new byte[(1 << 10) * 64];
+
+  /**
+   * @param hashContent Whether files within trees are fingerprinted by their content rather
+   *            than by size and modification time.
+   */
+  public InputFingerprint(boolean hashContent) {
+    this.hashContent = hashContent;
+    try {
+      this.digest = MessageDigest.getInstance("SHA-256");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Adds a configuration value.
+   */
+  public void add(String key, Object value) {
+    update(key + "=" + value + "\n");
+  }
+
+  /**
+   * Adds a single file by its content.  A missing file is recorded as such.
+   */
+  public void addFile(String key, File f) throws IOException {
+    if (f == null || !f.isFile()) {
+      add(key, "<none>");
+      return;
+    }
+    update(key + "=" + f.getName() + ":" + f.length() + ":");
+    hash(f);
+    update("\n");
+  }
+
+  /**
+   * Adds a ZIP or JAR by the names, CRCs and sizes of its entries, read from its central
+   * directory.  Archives rebuilt with identical content but fresh timestamps therefore keep their
+   * fingerprint.  The <code>pom.properties</code> of the maven descriptor is skipped: it only
+   * repeats the coordinates, under a comment holding the time it was written.  Files which cannot
+   * be read as a ZIP are added by their content.
+   */
+  public void addArchive(String key, File f) throws IOException {
+    if (f == null || !f.isFile()) {
+      add(key, "<none>");
+      return;
+    }
+    RawZipFile zip;
+    try {
+      zip = new RawZipFile(f);
+    }
+    catch (ZipException e) {
+      addFile(key, f);
+      return;
+    }
+    try {
+      update(key + "=" + f.getName() + "\n");
+      for (RawZipFile.Entry e : zip.getEntries()) {
+        if (e.getName().startsWith("META-INF/maven/") && e.getName().endsWith("/pom.properties"))
+          continue;
+        update(e.getName() + ":" + Long.toHexString(e.getCrc()) + ":" + e.getSize() + "\n");
+      }
+    }
+    finally {
+      zip.close();
+    }
+  }
+
+  /**
+   * Adds a file or a directory tree, recursively.  A missing path is recorded as such.
+   */
+  public void addTree(String key, File root) throws IOException {
+    update(key + "=" + (root == null ? "<none>" : root.getAbsolutePath()) + "\n");
+    if (root != null && root.exists())
+      addTree(root, root.getName());
+  }
+
+  private void addTree(File f, String path) throws IOException {
+    if (f.isDirectory()) {
+      update(path + "/\n");
+      String[] children = f.list();
+      if (children == null)
+        return;
+      Arrays.sort(children);
+      for (String child : children) {
+        addTree(new File(f, child), path + "/" + child);
+      }
+    }
+    else {
+      update(path + ":" + f.length() + ":");
+      if (hashContent)
+        hash(f);
+      else
+        update(Long.toString(f.lastModified()));
+      update("\n");
+    }
+  }
+
+  /**
+   * @return The fingerprint, as a hexadecimal string.  The fingerprint may not be extended
+   *         afterwards.
+   */
+  public String getValue() {
+    byte[] bytes = digest.digest();
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(hex);
+  }
+
+  /**
+   * Reads a fingerprint recorded by {@link #write(File, String)}.
+   *
+   * @return The fingerprint, or null if none was recorded.
+   */
+  public static String read(File f) {
+    if (!f.isFile())
+      return null;
+    try {
+      return new String(Files.readAllBytes(f.toPath()), UTF8).trim();
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Records a fingerprint.
+   */
+  public static void write(File f, String fingerprint) throws IOException {
+    Files.write(f.toPath(), (fingerprint + "\n").getBytes(UTF8));
+  }
+
+  private void hash(File f) throws IOException {
+    InputStream in = new FileInputStream(f);
+    try {
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, count);
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private void update(String s) {
+    digest.update(s.getBytes(UTF8));
+  }
+
+}
@@ -0,0 +1,679 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Writes an {@link ArchivePlan} as a ZIP file, deflating the entries concurrently.
+ * <p>
+ * Entries are handed to a bounded pool of workers largest first, so the longest jobs start
+ * early and the run is not held up by a big file picked up last.  Each worker computes the CRC
+ * and deflates its entry into memory, and the writer thread emits the entries in plan order, so
+ * the layout of the archive does not depend on scheduling.  An entry is written as soon as it is
+ * next in order and complete.  A deflated file larger than {@link #STREAM_THRESHOLD} is not held
+ * until it is complete: once it is next its data is written as it is compressed, followed by its
+ * CRC and sizes in a data descriptor.  Which entries are written that way depends only on their
+ * size and the policy, so the bytes of the archive do not depend on scheduling either.
+ * <p>
+ * The compressed data held for entries that are not yet next is bounded by the memory budget: a
+ * worker that would exceed it waits for the writer to catch up.  The worker of the next entry
+ * never waits for the others, and if no worker has started on it yet the writer thread
+ * compresses it itself, so the writer always has something to write.
+ * <p>
+ * Whether an entry is deflated at all is left to a {@link CompressionPolicy}; entries it
+ * chooses to store are only read for their CRC and copied straight from the source.
+ * <p>
+ * Given the previous build of the same archive, entries whose source has not changed since are
+ * not read at all: their compressed bytes are copied across from the previous archive, so the
+ * work done is proportional to what changed.  A source counts as unchanged when its size,
+ * permissions and modification time (to the two second resolution of a ZIP header) match the
+ * previous entry, and it was last modified more than two seconds before the previous archive
+ * was written, so that an edit within the same two second window is not mistaken for none.
+ * Copied entries keep the compression they were written with, so the policy is recorded beside
+ * the archive (<code>&lt;archive&gt;.compression</code>) and the previous archive is only used
+ * when it was written under the same policy.
+ */
+public class ParallelZipWriter {
+
+  /** Deflated files larger than this are written as they are compressed, ahead of their sizes. */
+  private static final long STREAM_THRESHOLD = (1 << 20);
+
+  /** The most compressed data held in memory for entries waiting their turn to be written. */
+  private static final long MEMORY_BUDGET = (1L << 20) * 64;
+
+  /** The most compressed data held for the entry being written before its worker waits. */
+  private static final long NEXT_BUDGET = (1L << 20);
+
+  private static final int DEFAULT_DIR_MODE = 0755;
+  private static final int DEFAULT_FILE_MODE = 0644;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final int threads;
+  private final Log log;
+  private CompressionPolicy policy = new CompressionPolicy();
+  private File previous;
+  private Checksums checksums;
+  private long sourceDate = -1;
+  private long memoryBudget = MEMORY_BUDGET;
+  private int reusedEntries;
+  private long reusedBytes;
+
+  /**
+   * @param threads The number of deflate workers, or zero (or less) for one per processor.
+   * @param log The mojo log.
+   */
+  public ParallelZipWriter(int threads, Log log) {
+    this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    this.log = log;
+  }
+
+  public void setPolicy(CompressionPolicy policy) {
+    this.policy = policy;
+  }
+
+  public CompressionPolicy getPolicy() {
+    return policy;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Sets the previous build of the archive, whose unchanged entries are copied rather than
+   * compressed again.  It may be the destination file itself.
+   */
+  public void setPrevious(File previous) {
+    this.previous = previous;
+  }
+
+  /**
+   * Sets the digests to be taken of the archive as it is written, so that it need not be read
+   * again to checksum it.
+   */
+  public void setChecksums(Checksums checksums) {
+    this.checksums = checksums;
+  }
+
+  /**
+   * Gives every entry the same time and normal permissions; see {@link ZipWriter#setSourceDate}.
+   * The previous archive is then not used, since the times of its entries no longer tell which
+   * of them are unchanged.
+   *
+   * @param time The time in milliseconds, or -1 to keep the times and permissions of the files.
+   */
+  public void setSourceDate(long time) {
+    this.sourceDate = time;
+  }
+
+  /**
+   * Sets the most compressed data held for entries waiting their turn to be written, in place of
+   * {@link #MEMORY_BUDGET}.
+   */
+  void setMemoryBudget(long memoryBudget) {
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * @return The number of entries copied from the previous archive by the last write.
+   */
+  public int getReusedEntries() {
+    return reusedEntries;
+  }
+
+  /**
+   * @return The uncompressed size of the entries copied from the previous archive.
+   */
+  public long getReusedBytes() {
+    return reusedBytes;
+  }
+
+  /**
+   * Writes the plan to the destination file.  A partially written file is removed on failure.
+   *
+   * @param plan The entries to write.
+   * @param destFile The ZIP file to create.
+   * @throws IOException if a source cannot be read or the archive cannot be written.
+   */
+  public void write(ArchivePlan plan, File destFile) throws IOException {
+    RawZipFile old = sourceDate < 0 ? openPrevious() : null;
+    // Gone until the archive is complete, so a failed write leaves no record behind
+    File policyFile = getPolicyFile(destFile);
+    policyFile.delete();
+    if (old != null) {
+      // Write beside the destination, which may be the previous archive being read from
+      File tmp = new File(destFile.getPath() + ".new");
+      boolean success = false;
+      try {
+        write(plan, tmp, old);
+        success = true;
+      }
+      finally {
+        old.close();
+        if (!success)
+          tmp.delete();
+      }
+      if (destFile.exists() && !destFile.delete())
+        throw new IOException("Unable to replace " + destFile.getPath());
+      if (!tmp.renameTo(destFile))
+        throw new IOException("Unable to rename " + tmp.getPath() + " to " + destFile.getPath());
+    }
+    else {
+      write(plan, destFile, null);
+    }
+    if (previous != null)
+      Files.write(policyFile.toPath(), policy.toString().getBytes(UTF8));
+  }
+
+  private RawZipFile openPrevious() {
+    if (previous == null || !previous.isFile())
+      return null;
+    if (!policy.toString().equals(readPolicy(previous))) {
+      if (log != null)
+        log.info("Compressing every entry: " + previous.getName() + " was not written with the current compression settings");
+      return null;
+    }
+    try {
+      return new RawZipFile(previous);
+    }
+    catch (IOException e) {
+      if (log != null)
+        log.warn("Ignoring previous archive " + previous.getName() + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * @return The file beside the archive recording the compression policy it was written with.
+   */
+  static File getPolicyFile(File archive) {
+    return new File(archive.getPath() + ".compression");
+  }
+
+  private static String readPolicy(File archive) {
+    File f = getPolicyFile(archive);
+    if (!f.isFile())
+      return null;
+    try {
+      return new String(Files.readAllBytes(f.toPath()), UTF8);
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  private void write(ArchivePlan plan, File destFile, RawZipFile old) throws IOException {
+    reusedEntries = 0;
+    reusedBytes = 0;
+    Map<ArchivePlan.Entry, RawZipFile.Entry> reused = new HashMap<ArchivePlan.Entry, RawZipFile.Entry>();
+    final Pipeline pipeline = new Pipeline();
+    Map<ArchivePlan.Entry, Pending> pending = new HashMap<ArchivePlan.Entry, Pending>();
+    long stableBefore = old != null ? old.getFile().lastModified() - 2000 : 0;
+    for (ArchivePlan.Entry e : plan.getFiles()) {
+      RawZipFile.Entry prior = old != null ? old.getEntry(e.getPath()) : null;
+      if (prior != null && isUnchanged(e.getSource(), prior, stableBefore)) {
+        reused.put(e, prior);
+        reusedEntries++;
+        reusedBytes += prior.getSize();
+      }
+      else {
+        pending.put(e, new Pending(e));
+      }
+    }
+    Map<String, Long> newest = getNewestChildren(plan);
+
+    int poolSize = Math.max(1, Math.min(threads, pending.size()));
+    ExecutorService pool = Executors.newFixedThreadPool(poolSize, new WorkerFactory());
+    OutputStream out = null;
+    boolean success = false;
+    try {
+      // Largest first, so the longest deflates overlap with everything else
+      List<Pending> bySize = new ArrayList<Pending>(pending.values());
+      Collections.sort(bySize, new Comparator<Pending>() {
+        public int compare(Pending a, Pending b) {
+          long la = a.entry.getSource().length();
+          long lb = b.entry.getSource().length();
+          return la < lb ? 1 : (la > lb ? -1 : (a.entry.getPath().compareTo(b.entry.getPath())));
+        }
+      });
+      for (final Pending p : bySize) {
+        pool.execute(new Runnable() {
+          public void run() {
+            if (pipeline.claim(p))
+              pipeline.compress(p);
+          }
+        });
+      }
+
+      OutputStream file = new FileOutputStream(destFile);
+      out = new BufferedOutputStream(checksums != null ? checksums.wrap(file) : file, (1 << 10) * 64);
+      ZipWriter zip = new ZipWriter(out);
+      if (sourceDate >= 0)
+        zip.setSourceDate(sourceDate);
+      for (ArchivePlan.Entry e : plan.getEntries()) {
+        if (e.isDirectory()) {
+          File dir = e.getSource();
+          long time = dir != null ? dir.lastModified() : getNewest(newest, e.getPath());
+          int mode = dir != null ? FileUtils.getPermissions(dir, DEFAULT_DIR_MODE) : DEFAULT_DIR_MODE;
+          zip.writeDirectory(e.getPath(), time, mode);
+        }
+        else if (reused.containsKey(e)) {
+          RawZipFile.Entry prior = reused.get(e);
+          InputStream data = old.openRaw(prior);
+          try {
+            zip.writeEntry(prior.toHeader(), data);
+          }
+          finally {
+            data.close();
+          }
+        }
+        else {
+          pipeline.write(pending.get(e), zip);
+        }
+      }
+      zip.finish();
+      out.close();
+      out = null;
+      success = true;
+      if (log != null && log.isDebugEnabled())
+        log.debug("Wrote " + zip.getEntryCount() + " entries using " + poolSize + " deflate thread(s), "
+            + reusedEntries + " copied from the previous archive");
+    }
+    finally {
+      pool.shutdownNow();
+      try { if (out != null) { out.close(); out = null; } } catch (Throwable t) { ; }
+      if (!success)
+        destFile.delete();
+    }
+  }
+
+  private static boolean isUnchanged(File src, RawZipFile.Entry prior, long stableBefore) {
+    long modified = src.lastModified();
+    return !prior.isDirectory() && !prior.isEncrypted() && modified < stableBefore
+        && src.length() == prior.getSize() && ZipWriter.toDosTime(modified) == prior.getDosTime()
+        && FileUtils.getPermissions(src, DEFAULT_FILE_MODE) == prior.getMode(DEFAULT_FILE_MODE);
+  }
+
+  /**
+   * Finds the time of the newest entry with a source within each directory, and within the whole
+   * plan under the empty path, for the directory entries that have no source of their own.
+   */
+  private static Map<String, Long> getNewestChildren(ArchivePlan plan) {
+    Map<String, Long> newest = new HashMap<String, Long>();
+    for (ArchivePlan.Entry e : plan.getEntries()) {
+      if (e.getSource() == null)
+        continue;
+      long time = e.getSource().lastModified();
+      String path = e.getPath();
+      for (int slash = path.lastIndexOf('/'); ; slash = path.lastIndexOf('/', slash - 1)) {
+        String parent = slash > 0 ? path.substring(0, slash) : "";
+        Long t = newest.get(parent);
+        if (t == null || t.longValue() < time)
+          newest.put(parent, time);
+        if (slash <= 0)
+          break;
+      }
+    }
+    return newest;
+  }
+
+  /**
+   * @return The time of the newest entry within the directory or, for an empty one, within the
+   *     plan; zero if there is none.
+   */
+  private static long getNewest(Map<String, Long> newest, String path) {
+    Long time = newest.get(path);
+    if (time == null)
+      time = newest.get("");
+    return time != null ? time.longValue() : 0;
+  }
+
+  /**
+   * Hands the compressed data of each entry from its worker to the writer thread, holding the
+   * data of the entries that are not yet next within the memory budget.
+   */
+  private class Pipeline {
+    private long held;
+    private Pending next;
+
+    synchronized boolean claim(Pending p) {
+      if (p.claimed)
+        return false;
+      p.claimed = true;
+      return true;
+    }
+
+    /**
+     * Writes an entry to the archive once it is next in order, compressing it on this thread if
+     * no worker has started on it.
+     */
+    void write(Pending p, ZipWriter zip) throws IOException {
+      synchronized (this) {
+        next = p;
+        notifyAll();
+      }
+      if (claim(p)) {
+        p.zip = zip;
+        compress(p);
+      }
+      if (await(p, false)) {
+        // Written directly by compress() if it ran on this thread
+        if (p.zip == null) {
+          zip.startEntry(p.header);
+          for (byte[] b = take(p); b != null; b = take(p))
+            zip.writeData(b, 0, b.length);
+          zip.endEntry(p.crc, p.size);
+        }
+        return;
+      }
+      await(p, true);
+      try {
+        InputStream data = p.open();
+        try {
+          zip.writeEntry(p.header, data);
+        }
+        finally {
+          data.close();
+        }
+      }
+      finally {
+        release(p);
+      }
+    }
+
+    /**
+     * Waits until it is known whether the entry is written as it is compressed or, when
+     * <code>complete</code> is set, until it has been compressed.
+     *
+     * @return Whether the entry is written as it is compressed.
+     */
+    private synchronized boolean await(Pending p, boolean complete) throws IOException {
+      while (!p.done && (complete || !p.decided))
+        waitForWorker();
+      if (p.failure != null)
+        throw p.failure;
+      return p.streamed;
+    }
+
+    /**
+     * @return The next piece of compressed data of an entry written as it is compressed, or
+     *     <code>null</code> once it is complete.
+     */
+    private synchronized byte[] take(Pending p) throws IOException {
+      while (p.chunks.isEmpty() && !p.done)
+        waitForWorker();
+      if (p.failure != null)
+        throw p.failure;
+      if (p.chunks.isEmpty())
+        return null;
+      byte[] b = p.chunks.removeFirst();
+      p.queued -= b.length;
+      held -= b.length;
+      notifyAll();
+      return b;
+    }
+
+    private synchronized void release(Pending p) {
+      held -= p.queued;
+      p.queued = 0;
+      p.chunks.clear();
+      notifyAll();
+    }
+
+    private void waitForWorker() throws IOException {
+      try {
+        wait();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while compressing entries", e);
+      }
+    }
+
+    private synchronized void decide(Pending p, boolean streamed) {
+      p.streamed = streamed;
+      p.decided = true;
+      notifyAll();
+    }
+
+    /**
+     * Passes compressed data on to the writer, waiting while the entry is not next and the memory
+     * budget is spent, or while it is next and the writer has yet to take what it already has.
+     */
+    private void emit(Pending p, byte[] b, int len) throws IOException {
+      if (len == 0)
+        return;
+      if (p.streamed && p.zip != null) {
+        p.zip.writeData(b, 0, len);
+        return;
+      }
+      synchronized (this) {
+        while (p == next ? p.streamed && p.queued >= NEXT_BUDGET : held >= memoryBudget) {
+          try {
+            wait();
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing " + p.entry.getPath(), e);
+          }
+        }
+        p.chunks.add(Arrays.copyOf(b, len));
+        p.queued += len;
+        held += len;
+        notifyAll();
+      }
+    }
+
+    private synchronized void complete(Pending p, IOException failure) {
+      p.failure = failure;
+      p.done = true;
+      notifyAll();
+    }
+
+    /**
+     * Computes the CRC of a single file and, where the policy calls for it, deflates it.
+     */
+    void compress(Pending p) {
+      IOException failure = null;
+      try {
+        deflate(p);
+      }
+      catch (Throwable t) {
+        failure = new IOException("Unable to compress " + p.entry.getSource().getPath() + ": " + t.getMessage(), t);
+      }
+      finally {
+        complete(p, failure);
+      }
+    }
+
+    private void deflate(Pending p) throws IOException {
+      File src = p.entry.getSource();
+      ZipWriter.Header h = p.header;
+      long length = src.length();
+      h.setTime(src.lastModified());
+      h.setMode(FileUtils.getPermissions(src, DEFAULT_FILE_MODE));
+
+      CRC32 crc = new CRC32();
+      Deflater def = null;
+      InputStream in = new FileInputStream(src);
+      try {
+        byte[] buffer = new byte[CompressionPolicy.SAMPLE_SIZE];
+        int count = fill(in, buffer);
+        long size = 0;
+
+        int decision = policy.choose(p.entry.getPath(), length);
+        if (decision == CompressionPolicy.SAMPLE)
+          decision = policy.isWorthDeflating(buffer, Math.max(count, 0)) ? CompressionPolicy.DEFLATE : CompressionPolicy.STORE;
+
+        if (decision == CompressionPolicy.STORE) {
+          decide(p, false);
+          while (count != -1) {
+            crc.update(buffer, 0, count);
+            size += count;
+            count = in.read(buffer, 0, buffer.length);
+          }
+          policy.getStats().stored(size);
+          stored(p, crc, size);
+          return;
+        }
+
+        // Decided on the size alone, so that the archive is the same however the work is scheduled
+        boolean streamed = length > STREAM_THRESHOLD;
+        h.setMethod(ZipEntry.DEFLATED);
+        h.setSize(length);
+        decide(p, streamed);
+        if (streamed && p.zip != null)
+          p.zip.startEntry(h);
+
+        long cpuStart = CompressionPolicy.cpuTime();
+        long compressed = 0;
+        def = new Deflater(policy.getLevel(), true);
+        byte[] deflated = new byte[(1 << 10) * 64];
+        while (count != -1) {
+          if (Thread.interrupted())
+            throw new IOException("Interrupted while compressing " + p.entry.getPath());
+          crc.update(buffer, 0, count);
+          size += count;
+          def.setInput(buffer, 0, count);
+          while (!def.needsInput()) {
+            int n = def.deflate(deflated, 0, deflated.length);
+            emit(p, deflated, n);
+            compressed += n;
+          }
+          count = in.read(buffer, 0, buffer.length);
+        }
+        def.finish();
+        while (!def.finished()) {
+          int n = def.deflate(deflated, 0, deflated.length);
+          emit(p, deflated, n);
+          compressed += n;
+        }
+        policy.getStats().deflated(size, compressed, CompressionPolicy.cpuTime() - cpuStart);
+
+        if (streamed) {
+          p.crc = crc.getValue();
+          p.size = size;
+          if (p.zip != null)
+            p.zip.endEntry(p.crc, p.size);
+        }
+        else if (compressed >= size) {
+          // Incompressible content is stored as-is, straight from the source
+          release(p);
+          stored(p, crc, size);
+        }
+        else {
+          h.setCrc(crc.getValue());
+          h.setSize(size);
+          h.setCompressedSize(compressed);
+        }
+      }
+      finally {
+        if (def != null)
+          def.end();
+        try { in.close(); } catch (IOException e) { ; }
+      }
+    }
+
+    private void stored(Pending p, CRC32 crc, long size) {
+      ZipWriter.Header h = p.header;
+      h.setCrc(crc.getValue());
+      h.setSize(size);
+      h.setMethod(ZipEntry.STORED);
+      h.setCompressedSize(size);
+      p.stored = true;
+    }
+  }
+
+  /**
+   * Reads until the buffer is full or the stream ends.
+   *
+   * @return The number of bytes read, or -1 if the stream was already at its end.
+   */
+  private static int fill(InputStream in, byte[] buffer) throws IOException {
+    int total = 0;
+    while (total < buffer.length) {
+      int count = in.read(buffer, total, buffer.length - total);
+      if (count == -1)
+        return total == 0 ? -1 : total;
+      total += count;
+    }
+    return total;
+  }
+
+  /**
+   * A file to be compressed, and the compressed data of it that the writer has yet to take.  The
+   * fields shared between the worker and the writer are guarded by the {@link Pipeline}.
+   */
+  private static class Pending {
+    final ArchivePlan.Entry entry;
+    final ZipWriter.Header header;
+    final LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+    long queued;
+    boolean claimed;
+    boolean decided;
+    boolean streamed;
+    boolean stored;
+    boolean done;
+    IOException failure;
+    long crc;
+    long size;
+    /** The archive, when the writer thread is compressing the entry itself. */
+    ZipWriter zip;
+
+    Pending(ArchivePlan.Entry entry) {
+      this.entry = entry;
+      this.header = new ZipWriter.Header(entry.getPath());
+    }
+
+    InputStream open() throws IOException {
+      if (stored)
+        return new BufferedInputStream(new FileInputStream(entry.getSource()), (1 << 10) * 64);
+      List<InputStream> parts = new ArrayList<InputStream>();
+      for (byte[] b : chunks)
+        parts.add(new ByteArrayInputStream(b));
+      return new SequenceInputStream(Collections.enumeration(parts));
+    }
+  }
+
+  /**
+   * Names the deflate workers and keeps them from holding up JVM exit.
+   */
+  private static class WorkerFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "zip-deflate-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+}
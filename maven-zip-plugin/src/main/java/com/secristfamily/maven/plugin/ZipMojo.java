@@ -1,27 +1,37 @@
 package com.secristfamily.maven.plugin;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
+import org.apache.maven.archiver.ManifestConfiguration;
+import org.apache.maven.archiver.ManifestSection;
 import org.apache.maven.archiver.MavenArchiveConfiguration;
 import org.apache.maven.archiver.MavenArchiver;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
-import org.codehaus.plexus.archiver.Archiver;
 import org.codehaus.plexus.archiver.jar.JarArchiver;
-import org.codehaus.plexus.archiver.manager.ArchiverManager;
-import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
 
 /**
  * @goal zip
  * @requiresDependencyResolution runtime
+ * @threadSafe
  * @author Randy K. Secrist
  */
 public class ZipMojo extends AbstractMojo {
@@ -36,17 +46,18 @@ public class ZipMojo extends AbstractMojo {
   private MavenProject project;
 
   /**
-   * @component
+   * The Maven session, which the manifest of a rewritten primary artifact is generated in.
+   * 
+   * @parameter default-value="${session}"
+   * @required
+   * @readonly
    */
-  private MavenProjectHelper projectHelper;
+  private MavenSession session;
 
   /**
-   * To look up Archiver/UnArchiver implementations
-   * 
-   * @component role="org.codehaus.plexus.archiver.manager.ArchiverManager"
-   * @required
+   * @component
    */
-  protected ArchiverManager archiverManager;
+  private MavenProjectHelper projectHelper;
 
   /**
    * Directory containing the generated ZIP. (target/)
@@ -78,6 +89,15 @@ public class ZipMojo extends AbstractMojo {
    */
   private List<String> excludeRegexList;
 
+  /**
+   * Ant style patterns (<code>**&#47;*.bak</code>, <code>web/tmp/**</code>) matched against the
+   * path of each file or directory within the archive.  Anything matching one of them is left
+   * out; a pattern ending in <code>/**</code> leaves out a whole directory.
+   * 
+   * @parameter
+   */
+  private List<String> excludes;
+
   /**
    * Directory containing the compiled classes. (target/classes)
    * 
@@ -132,6 +152,79 @@ public class ZipMojo extends AbstractMojo {
    */
   private JarArchiver jarArchiver;
 
+  /**
+   * The number of threads used to deflate the entries of the ZIP.  Zero (the default) uses one
+   * thread per available processor.
+   * 
+   * @parameter default-value="0"
+   */
+  private int threads;
+
+  /**
+   * Decides which entries are deflated and which are stored; by default archives and media
+   * which are already compressed, such as the dependency jars, are stored.  See
+   * {@link CompressionPolicy}.
+   * 
+   * @parameter
+   */
+  private CompressionPolicy compression = new CompressionPolicy();
+
+  /**
+   * Whether to skip rebuilding the ZIP when none of its inputs changed since the last build.  The
+   * fingerprint of the inputs is stored next to the ZIP.
+   * 
+   * @parameter default-value="true"
+   */
+  private boolean upToDateCheck;
+
+  /**
+   * Whether the files of the include trees are fingerprinted by content rather than by size and
+   * modification time.  Slower, but immune to tools which touch files without changing them.
+   * 
+   * @parameter default-value="false"
+   */
+  private boolean fingerprintContent;
+
+  /**
+   * Whether to update the previous ZIP rather than build it from scratch: the compressed bytes of
+   * entries whose source is unchanged are copied from the previous ZIP and only new or modified
+   * files are compressed.
+   * 
+   * @parameter default-value="false"
+   */
+  private boolean incremental;
+
+  /**
+   * Whether to take the MD5, SHA-256 and SHA-512 digests of the ZIP as it is written, log them,
+   * and write and attach <code>.sha256</code> and <code>.sha512</code> files beside it.
+   * 
+   * @parameter default-value="true"
+   */
+  private boolean checksums;
+
+  /**
+   * The time of a reproducible build, in seconds since the epoch or ISO 8601; see
+   * {@link SourceDate}.  When it (or the <code>SOURCE_DATE_EPOCH</code> environment variable) is
+   * set, the ZIP and the primary artifact are the same byte for byte whenever their content is:
+   * every entry is given this time and normal permissions, entries are written in order of name,
+   * and the manifest attributes which describe the build are left out.
+   * 
+   * @parameter default-value="${project.build.outputTimestamp}"
+   */
+  private String outputTimestamp;
+
+  private long sourceDate = -1;
+
+  /**
+   * Where the JSON report of the time, CPU, I/O and files of each phase is written; see
+   * {@link PerfReport}.
+   * 
+   * @parameter default-value="${project.build.directory}/zip-perf.json"
+   */
+  private File perfReport;
+
+  private final PerfReport perf = new PerfReport("zip");
+
   /**
    * The maven archiver to use.
    * 
@@ -155,15 +248,101 @@ public class ZipMojo extends AbstractMojo {
    * Executes this POM plugin.
    */
   public void execute() throws MojoExecutionException, MojoFailureException {
-    getLog().info("Creating ZIP...");
+    try {
+      // Tombstones of workspaces whose deletion an earlier build did not live to finish
+      if (BackgroundCleaner.sweep(outputDirectory) > 0)
+        getLog().debug("Deleting workspaces left by an earlier build");
+      sourceDate = SourceDate.resolve(outputTimestamp);
+      if (sourceDate >= 0)
+        getLog().info("Reproducible build, entries dated " + SourceDate.format(sourceDate));
+      File zipFile = getZipFile(outputDirectory, finalName, getClassifier());
+      File fingerprintFile = new File(zipFile.getPath() + ".fingerprint");
+
+      // Taken before the build, since merging local dependencies rewrites the primary artifact
+      // in place; the next build sees it as its own module rebuilt it, before the merge
+      String fingerprint = upToDateCheck ? computeFingerprint() : null;
+      if (upToDateCheck && zipFile.isFile() && fingerprint.equals(InputFingerprint.read(fingerprintFile))) {
+        getLog().info("ZIP is up to date: " + zipFile.getName());
+        if (checksums && !Checksums.sidecar(zipFile, Checksums.SIDECARS[0]).isFile())
+          writeChecksums(zipFile, null);
+      }
+      else {
+        getLog().info("Creating ZIP...");
+        fingerprintFile.delete();
+        zipFile = createArchive();
+        if (upToDateCheck) {
+          try {
+            InputFingerprint.write(fingerprintFile, fingerprint);
+          }
+          catch (IOException e) {
+            getLog().warn("Unable to record the input fingerprint: " + e.getMessage());
+          }
+        }
+      }
+
+      String classifier = getClassifier();
+      if (classifier != null)
+        projectHelper.attachArtifact(getProject(), "zip", classifier, zipFile);
+      else
+        getProject().getArtifact().setFile(zipFile);
+      attachChecksums(zipFile, classifier);
+    }
+    finally {
+      writePerfReport();
+    }
+  }
+
+  /**
+   * Writes the <code>.sha256</code> and <code>.sha512</code> files of the ZIP and logs its
+   * digests.
+   * 
+   * @param sums The digests taken as the ZIP was written, or null to read it to take them.
+   */
+  private void writeChecksums(File zipFile, Checksums sums) throws MojoExecutionException {
+    try {
+      if (sums == null) {
+        sums = new Checksums();
+        sums.digest(zipFile);
+      }
+      sums.writeSidecars(zipFile);
+    }
+    catch (IOException e) {
+      throw new MojoExecutionException("Unable to write the checksums of " + zipFile, e);
+    }
+    getLog().info("MD5 " + sums.getMD5() + ", SHA-256 " + sums.getSHA256() + ": " + zipFile.getName());
+  }
 
-    File zipFile = createArchive();
+  /**
+   * Attaches the <code>.sha256</code> and <code>.sha512</code> files of the ZIP to the project,
+   * with the classifier of the ZIP, so that they are installed and deployed beside it.
+   */
+  private void attachChecksums(File zipFile, String classifier) {
+    if (!checksums)
+      return;
+    for (String extension : Checksums.SIDECARS) {
+      File sidecar = Checksums.sidecar(zipFile, extension);
+      if (!sidecar.isFile())
+        continue;
+      if (classifier != null)
+        projectHelper.attachArtifact(getProject(), "zip." + extension, classifier, sidecar);
+      else
+        projectHelper.attachArtifact(getProject(), "zip." + extension, sidecar);
+    }
+  }
 
-    String classifier = getClassifier();
-    if (classifier != null)
-      projectHelper.attachArtifact(getProject(), "zip", classifier, zipFile);
-    else
-      getProject().getArtifact().setFile(zipFile);
+  /**
+   * Logs the summary of the performance report and writes it out.
+   */
+  private void writePerfReport() {
+    getLog().info(perf.getSummary());
+    if (perfReport == null)
+      return;
+    try {
+      perf.write(perfReport, getProject() != null ? getProject().getId() : finalName);
+    }
+    catch (IOException e) {
+      getLog().warn("Unable to write " + perfReport + ": " + e.getMessage());
+    }
   }
 
   protected static File getJarFile(File basedir, String finalName, String classifier) {
@@ -182,121 +361,329 @@ public class ZipMojo extends AbstractMojo {
     return new File(basedir, finalName + classifier + extension);
   }
 
-  public Archiver getArchiver() throws MojoExecutionException {
+  /**
+   * Computes the fingerprint of everything the ZIP is built from: the plugin configuration, the
+   * coordinates and content of each dependency, and the include trees.
+   * 
+   * @return The fingerprint.
+   * @throws MojoExecutionException
+   *             If an input cannot be read.
+   */
+  protected String computeFingerprint() throws MojoExecutionException {
+    PerfReport.Phase phase = perf.start("fingerprint");
+    try {
+      return fingerprint();
+    }
+    finally {
+      phase.end();
+    }
+  }
+
+  private String fingerprint() throws MojoExecutionException {
+    InputFingerprint fp = new InputFingerprint(fingerprintContent);
+    fp.add("finalName", finalName);
+    fp.add("classifier", getClassifier());
+    fp.add("basedirectory", basedirectory);
+    fp.add("addDependencies", addDependencies);
+    fp.add("generatePrimaryArtifact", generatePrimaryArtifact);
+    fp.add("primaryArtifactId", primaryArtifactId);
+    fp.add("excludeRegexList", excludeRegexList);
+    fp.add("excludes", excludes);
+    fp.add("compression", compression);
+    fp.add("sourceDate", sourceDate);
+    addArchiveConfiguration(fp);
     try {
-      return this.archiverManager.getArchiver("zip");
+      if (archive.getManifestFile() != null)
+        fp.addFile("archive.manifestFile", archive.getManifestFile());
+      if (archive.getPomPropertiesFile() != null)
+        fp.addFile("archive.pomPropertiesFile", archive.getPomPropertiesFile());
+      if (generatePrimaryArtifact) {
+        fp.addFile("pom", getProject().getFile());
+        fp.addTree("classesDirectory", classesDirectory);
+      }
+      if (addDependencies) {
+        List<Artifact> dependencies = new ArrayList<Artifact>(getDependencies());
+        Collections.sort(dependencies, new Comparator<Artifact>() {
+          public int compare(Artifact a, Artifact b) {
+            return a.getId().compareTo(b.getId());
+          }
+        });
+        for (Artifact a : dependencies) {
+          fp.add("artifact", a.getId() + ":" + a.getScope());
+          fp.addArchive("artifact.file", a.getFile());
+        }
+      }
+      if (include != null) {
+        for (File f : include) {
+          fp.addTree("include", f);
+        }
+      }
     }
-    catch (NoSuchArchiverException e) {
-      throw new MojoExecutionException("Could not locate archiver: ", e);
+    catch (IOException e) {
+      throw new MojoExecutionException("Problem fingerprinting the inputs: ", e);
     }
+    return fp.getValue();
+  }
+
+  /**
+   * Adds everything of the archive configuration which shapes the primary artifact: the manifest
+   * settings, its entries and sections, and the archive options.
+   */
+  private void addArchiveConfiguration(InputFingerprint fp) {
+    fp.add("archive.compress", archive.isCompress());
+    fp.add("archive.addMavenDescriptor", archive.isAddMavenDescriptor());
+    fp.add("archive.index", archive.isIndex());
+    fp.add("archive.manifestEntries", new TreeMap<String, String>(archive.getManifestEntries()));
+    for (ManifestSection section : archive.getManifestSections())
+      fp.add("archive.manifestSection." + section.getName(), new TreeMap<String, String>(section.getManifestEntries()));
+    ManifestConfiguration manifest = archive.getManifest();
+    fp.add("archive.manifest.mainClass", manifest.getMainClass());
+    fp.add("archive.manifest.packageName", manifest.getPackageName());
+    fp.add("archive.manifest.addClasspath", manifest.isAddClasspath());
+    fp.add("archive.manifest.addExtensions", manifest.isAddExtensions());
+    fp.add("archive.manifest.addDefaultImplementationEntries", manifest.isAddDefaultImplementationEntries());
+    fp.add("archive.manifest.addDefaultSpecificationEntries", manifest.isAddDefaultSpecificationEntries());
+    fp.add("archive.manifest.classpathPrefix", manifest.getClasspathPrefix());
+    fp.add("archive.manifest.classpathLayoutType", manifest.getClasspathLayoutType());
+    fp.add("archive.manifest.customClasspathLayout", manifest.getCustomClasspathLayout());
+    fp.add("archive.manifest.useUniqueVersions", manifest.isUseUniqueVersions());
   }
 
   /**
-   * Generates the ZIP.
+   * Generates the ZIP.  The contents are described by an {@link ArchivePlan} and streamed straight
+   * from their sources into the archive; only a generated or merged primary artifact is written to
+   * the workspace.  Entries are deflated in parallel by a {@link ParallelZipWriter}; in incremental
+   * mode unchanged entries are copied from the previous ZIP instead.
    * 
    * @todo Add license files in META-INF directory.
    */
   public File createArchive() throws MojoExecutionException, MojoFailureException {
     File destFile = getZipFile(outputDirectory, finalName, getClassifier());
 
-    Archiver archive = this.getArchiver();
-    archive.setDestFile(destFile);
+    // Create Workspace, one per execution so that concurrent executions never share one
+    File tempDir;
+    try {
+      outputDirectory.mkdirs();
+      tempDir = Files.createTempDirectory(outputDirectory.toPath(), "temp-").toFile();
+    }
+    catch (IOException e) {
+      throw new MojoExecutionException("Unable to create a workspace in " + outputDirectory, e);
+    }
 
-    // Create Workspace
-    File tempDir = new File(outputDirectory, "temp");
-    if (!tempDir.exists())
-      tempDir.mkdirs();
-    boolean addTempDir = false;
+    try {
+      PerfReport.Phase phase = perf.start("plan");
+      ArchivePlan plan;
+      try {
+        plan = createArchivePlan(tempDir);
+        phase.files(plan.size());
+      }
+      finally {
+        phase.end();
+      }
+
+      // Write File
+      phase = perf.start("zip");
+      long deflateCpu = compression.getStats().getDeflateCpu();
+      ParallelZipWriter writer = new ParallelZipWriter(threads, getLog());
+      Checksums sums = checksums ? new Checksums() : null;
+      try {
+        writer.setPolicy(compression);
+        writer.setChecksums(sums);
+        writer.setSourceDate(sourceDate);
+        if (incremental)
+          writer.setPrevious(destFile);
+        writer.write(plan, destFile);
+        for (ArchivePlan.Entry e : plan.getFiles())
+          phase.read(e.getSource().length());
+        phase.files(plan.getFiles().size()).wrote(destFile.length());
+      }
+      finally {
+        phase.cpu(compression.getStats().getDeflateCpu() - deflateCpu).end();
+      }
+      if (sums != null)
+        writeChecksums(destFile, sums);
+      getLog().info("Compression: " + compression.getStats());
+      if (incremental)
+        getLog().info("Copied " + writer.getReusedEntries() + " unchanged entries (" + (writer.getReusedBytes() >> 10) + " KB) from the previous ZIP");
+    }
+    catch (MojoExecutionException e) {
+      throw e;
+    }
+    catch (Throwable e) {
+      throw new MojoExecutionException("Problem creating archive: ", e);
+    }
+    finally {
+      // Renamed out of the way at once and deleted in the background
+      PerfReport.Phase phase = perf.start("cleanup");
+      BackgroundCleaner.delete(tempDir);
+      phase.end();
+    }
+
+    return destFile;
+  }
+
+  /**
+   * Builds the plan of entries which make up the ZIP.  The layout matches what staging the same
+   * content into a workspace directory would produce.
+   * 
+   * @param tempDir
+   *            The workspace used for any primary artifact which has to be generated.
+   * @return The plan.
+   * @throws MojoExecutionException
+   *             If the primary artifact cannot be created.
+   */
+  protected ArchivePlan createArchivePlan(File tempDir) throws MojoExecutionException {
+    ArchivePlan plan = new ArchivePlan();
 
     // Generates a primary artifact (from the current project) and adds it to the ZIP.
     // Only compatibile with JAR artifacts, (Utilizes the JAR plugin)
     if (generatePrimaryArtifact == true) {
-      addTempDir = true;
       File jarFile = getJarFile(tempDir, finalName, getClassifier());
-      this.createMainJarArchive(jarFile, classesDirectory);
+      PerfReport.Phase phase = perf.start("primary-jar");
+      try {
+        this.createMainJarArchive(jarFile, classesDirectory);
+      }
+      finally {
+        phase.wrote(jarFile.length()).files(1).end();
+      }
+      plan.addFile(jarFile, jarFile.getName());
     }
 
-    // Copy artifacts to temp/lib directory (primaryDependency to temp)
+    // Add artifacts to the lib directory (primaryDependency to the root)
+    FutureTask<Void> merging = null;
     if (addDependencies) {
-      Set<Artifact> dependencies = this.getDependencies();
+      PerfReport.Phase phase = perf.start("dependencies");
+      Set<Artifact> dependencies;
+      try {
+        dependencies = this.getDependencies();
+        phase.files(dependencies.size());
+      }
+      finally {
+        phase.end();
+      }
       if (dependencies != null && dependencies.size() > 0) {
-        addTempDir = true;
-        File lib = new File(tempDir, "lib");
-        if (!lib.exists())
-          lib.mkdirs();
+        plan.addDirectory("lib");
+        final List<File> merges = new ArrayList<File>();
         for (Artifact a : dependencies) {
           if (primaryArtifactId != null && a.getArtifactId().equals(primaryArtifactId)) {
             // add runtime dependencies not declared in primaryArtifact due to circular
             // nature
-            if (this.getProject().getDependencies().size() > 1) {
-              addLocalDependencies(a.getFile(), tempDir);
-            }
-            FileUtils.copyFile(a.getFile(), new File(lib.getParentFile(), a.getFile().getName()));
+            if (this.getProject().getDependencies().size() > 1)
+              merges.add(a.getFile());
+            plan.addFile(a.getFile(), a.getFile().getName());
           }
-          else if (!a.getScope().equals("test")) { // only adds non test dependencies.
-            FileUtils.copyFile(a.getFile(), new File(lib, a.getFile().getName()));
+          else if (!"test".equals(a.getScope())) { // only adds non test dependencies.
+            plan.addFile(a.getFile(), "lib/" + a.getFile().getName());
           }
         }
+        if (!merges.isEmpty())
+          merging = startMerging(merges, tempDir);
       }
     }
 
-    if (include != null) {
-      addTempDir = true;
-      if (basedirectory) {
-        for (File f : include) {
-          File[] files = f.listFiles();
-          if (files != null) {
-            for (File child : files) {
-              copyToWorkspace(tempDir, child);
+    boolean planned = false;
+    try {
+      if (include != null) {
+        if (basedirectory) {
+          for (File f : include) {
+            File[] files = f.listFiles();
+            if (files != null) {
+              for (File child : files) {
+                addToPlan(plan, child);
+              }
             }
           }
         }
-      }
-      else {
-        for (File f : include) {
-          copyToWorkspace(tempDir, f);
+        else {
+          for (File f : include) {
+            addToPlan(plan, f);
+          }
         }
       }
+      planned = true;
+    }
+    finally {
+      // The merge works in the workspace, so it is waited for even when the plan has failed
+      if (merging != null)
+        awaitMerging(merging, !planned);
     }
+    plan.removeDefaultExcludes();
+    return plan;
+  }
 
-    try {
-      // Add Dependencies to ZIP
-      if (addTempDir)
-        archive.addDirectory(tempDir);
+  /**
+   * Merges the primary artifacts on a thread of their own, while the rest of the plan is built;
+   * only their files are in the plan, which are not read until the archive is written.
+   */
+  private FutureTask<Void> startMerging(final List<File> primaryArtifacts, final File tempDir) {
+    FutureTask<Void> merging = new FutureTask<Void>(new Callable<Void>() {
+      public Void call() throws Exception {
+        for (File f : primaryArtifacts) {
+          PerfReport.Phase merge = perf.start("merge-local-dependencies");
+          merge.read(f.length());
+          try {
+            addLocalDependencies(f, tempDir);
+          }
+          finally {
+            merge.wrote(f.length()).files(1).end();
+          }
+        }
+        return null;
+      }
+    });
+    Thread t = new Thread(merging, "zip-merge");
+    t.setDaemon(true);
+    t.start();
+    return merging;
+  }
 
-      // Write File
-      archive.createArchive();
+  /**
+   * @param quietly Whether a failed merge goes unreported, another failure being under way.
+   */
+  private void awaitMerging(FutureTask<Void> merging, boolean quietly) throws MojoExecutionException {
+    try {
+      merging.get();
     }
-    catch (Throwable e) {
-      throw new MojoExecutionException("Problem creating archive: ", e);
+    catch (ExecutionException e) {
+      if (quietly)
+        return;
+      if (e.getCause() instanceof MojoExecutionException)
+        throw (MojoExecutionException) e.getCause();
+      throw new MojoExecutionException("Problem merging local dependencies: ", e.getCause());
     }
-    finally {
-      FileUtils.deleteDirectory(tempDir);
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while merging local dependencies", e);
     }
-
-    return destFile;
   }
 
   /**
-   * Copies the file into the workspace directory only if it does not match the exclude regular
-   * expression, if one is given.
+   * Adds the file to the plan only if it is not excluded by <code>excludeRegexList</code> or
+   * <code>excludes</code>.
    * 
-   * @param tempDir -
-   *            the workspace directory
+   * @param plan -
+   *            the archive plan
    * @param f -
-   *            the file to copy
+   *            the file or directory to add
    * @throws MojoExecutionException
+   *             If a directory cannot be walked.
    */
-  private void copyToWorkspace(File tempDir, File f) throws MojoExecutionException {
+  private void addToPlan(ArchivePlan plan, File f) throws MojoExecutionException {
     String fName = f.getName();
-    if (excludeDelegate.exclude(fName)) {
+    if (getExclusionFilter().excludes(fName, f.isDirectory())) {
       return;
     }
 
-    if (f.isDirectory())
-      FileUtils.copyDirectory(f, new File(tempDir, fName), excludeDelegate);
+    if (f.isDirectory()) {
+      try {
+        plan.addTree(f, fName, getExclusionFilter());
+      }
+      catch (IOException e) {
+        throw new MojoExecutionException("Problem reading " + f.getPath() + ": ", e);
+      }
+    }
     else if (f.isFile())
-      FileUtils.copyFile(f, new File(tempDir, fName));
+      plan.addFile(f, fName);
   }
 
   /**
@@ -311,6 +698,19 @@ public class ZipMojo extends AbstractMojo {
    *             If any problems occur during the merge.
    */
   protected void addLocalDependencies(File primaryArtifact, File tempDir) throws MojoExecutionException {
+    if (archive.getManifestFile() == null && !archive.isIndex()) {
+      // Copy the compressed entries straight across; only META-INF is regenerated.
+      try {
+        long start = System.currentTimeMillis();
+        int copied = JarRewriter.forProject(session, project, archive, sourceDate).rewrite(primaryArtifact);
+        getLog().debug("Rewrote " + primaryArtifact.getName() + " (" + copied + " entries) in " + (System.currentTimeMillis() - start) + " ms");
+      }
+      catch (Throwable e) {
+        getLog().error(e);
+      }
+      return;
+    }
+
     File tmp = new File(tempDir, "tmp");
     FileUtils.explodeZip(primaryArtifact, tmp);
     FileUtils.deleteDirectory(new File(tmp, "META-INF"));
@@ -347,6 +747,8 @@ public class ZipMojo extends AbstractMojo {
         archiver.getArchiver().addDirectory(directory, DEFAULT_INCLUDES, DEFAULT_EXCLUDES);
       }
       archiver.createArchive(project, archive);
+      if (sourceDate >= 0)
+        JarRewriter.normalize(jarFile, sourceDate);
     }
     catch (Throwable e) {
       throw new MojoExecutionException("Problem creating executable jar: ", e);
@@ -387,19 +789,15 @@ public class ZipMojo extends AbstractMojo {
     }
   }
 
-  private Exclusion excludeDelegate = new Exclusion();
+  private PathFilter exclusionFilter;
 
-  public class Exclusion {
-    public boolean exclude(String candidate) {
-      if (ZipMojo.this.excludeRegexList != null) {
-        for (String regex : ZipMojo.this.excludeRegexList) {
-          if (candidate.matches(regex)) {
-            return true;
-          }
-        }
-      }
-      return false;
-    }
+  /**
+   * @return The exclusion patterns, compiled on first use.
+   */
+  protected PathFilter getExclusionFilter() {
+    if (exclusionFilter == null)
+      exclusionFilter = PathFilter.compile(excludeRegexList, excludes);
+    return exclusionFilter;
   }
   
 }
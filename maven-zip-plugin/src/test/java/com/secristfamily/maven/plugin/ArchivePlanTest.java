@@ -0,0 +1,29 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class ArchivePlanTest extends TestCase {
+  public void testParentsAreImplicit() {
+    ArchivePlan plan = new ArchivePlan();
+    plan.addFile(new File("pom.xml"), "a/b/pom.xml");
+    assertEquals(3, plan.size());
+    assertTrue(plan.getEntry("a").isDirectory());
+    assertTrue(plan.getEntry("a/b/").isDirectory());
+    assertFalse(plan.getEntry("a/b/pom.xml").isDirectory());
+    assertEquals(1, plan.getFiles().size());
+  }
+
+  public void testDefaultExcludes() {
+    ArchivePlan plan = new ArchivePlan();
+    plan.addFile(new File("pom.xml"), "web/.svn/entries");
+    plan.addFile(new File("pom.xml"), "web/index.html~");
+    plan.addFile(new File("pom.xml"), "web/index.html");
+    plan.removeDefaultExcludes();
+    assertNull(plan.getEntry("web/.svn"));
+    assertNull(plan.getEntry("web/.svn/entries"));
+    assertNull(plan.getEntry("web/index.html~"));
+    assertNotNull(plan.getEntry("web/index.html"));
+  }
+}
@@ -0,0 +1,33 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class FileUtilsTest extends TestCase {
+  private File work;
+
+  protected void setUp() throws Exception {
+    work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+    for (int i = 0; i < 20; i++) {
+      File dir = new File(work, "tree/d" + (i % 4) + "/e" + (i % 3));
+      dir.mkdirs();
+      new File(dir, "f" + i + ".txt").createNewFile();
+    }
+    new File(work, "tree/d1/skip").mkdirs();
+    new File(work, "tree/d1/skip/hidden.txt").createNewFile();
+  }
+
+  public void testRecurseFS() throws IOException {
+    Set<File> files = FileUtils.recurseFS(new File(work, "tree"));
+    assertEquals(21, files.size());
+    Set<File> all = FileUtils.recurseFS(true, new File(work, "tree"), new HashSet<File>());
+    assertEquals(21 + 4 + 12 + 1, all.size());
+    assertTrue(all.contains(new File(work, "tree/d2/e0")));
+  }
+}
@@ -0,0 +1,68 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class InputFingerprintTest extends TestCase {
+  private File work;
+
+  protected void setUp() throws Exception {
+    work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+    new File(work, "tree/sub").mkdirs();
+    write(new File(work, "tree/a.txt"), "a");
+    write(new File(work, "tree/sub/b.txt"), "b");
+  }
+
+  public void testTreeByStat() throws IOException {
+    String first = fingerprint(false);
+    assertEquals(first, fingerprint(false));
+
+    File b = new File(work, "tree/sub/b.txt");
+    b.setLastModified(b.lastModified() - 10000);
+    String touched = fingerprint(false);
+    assertFalse(first.equals(touched));
+
+    write(new File(work, "tree/sub/c.txt"), "c");
+    assertFalse(touched.equals(fingerprint(false)));
+  }
+
+  public void testTreeByContent() throws IOException {
+    String first = fingerprint(true);
+    File b = new File(work, "tree/sub/b.txt");
+    b.setLastModified(b.lastModified() - 10000);
+    assertEquals(first, fingerprint(true));
+
+    write(b, "B");
+    assertFalse(first.equals(fingerprint(true)));
+  }
+
+  public void testReadWrite() throws IOException {
+    File f = new File(work, "out.zip.fingerprint");
+    assertNull(InputFingerprint.read(f));
+    String value = fingerprint(false);
+    InputFingerprint.write(f, value);
+    assertEquals(value, InputFingerprint.read(f));
+  }
+
+  private String fingerprint(boolean hashContent) throws IOException {
+    InputFingerprint fp = new InputFingerprint(hashContent);
+    fp.add("finalName", "test");
+    fp.addTree("include", new File(work, "tree"));
+    return fp.getValue();
+  }
+
+  private static void write(File f, String content) throws IOException {
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+  }
+}
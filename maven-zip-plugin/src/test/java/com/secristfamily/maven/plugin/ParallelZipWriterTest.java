@@ -0,0 +1,264 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+public class ParallelZipWriterTest extends TestCase {
+  private File work;
+
+  protected void setUp() throws Exception {
+    work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+    work.mkdirs();
+  }
+
+  public void testWrite() throws IOException {
+    Random random = new Random(42);
+    ArchivePlan plan = new ArchivePlan();
+    for (int i = 0; i < 40; i++) {
+      byte[] content = new byte[random.nextInt(1 << 12) + (i == 7 ? (1 << 21) : 0)];
+      // repetitive text, random text and noise; the large entry is written as it is deflated
+      for (int j = 0; j < content.length; j++) {
+        if (i % 3 == 0)
+          content[j] = (byte) ('a' + (j % 7));
+        else if (i % 3 == 1)
+          content[j] = (byte) ('a' + random.nextInt(16));
+        else
+          content[j] = (byte) random.nextInt();
+      }
+      File f = new File(work, "src" + i + ".bin");
+      write(f, content);
+      plan.addFile(f, "dir" + (i % 3) + "/file" + i + ".bin");
+    }
+    plan.addDirectory("empty");
+
+    File zip = new File(work, "out.zip");
+    ParallelZipWriter writer = new ParallelZipWriter(4, null);
+    writer.write(plan, zip);
+
+    ZipFile zf = new ZipFile(zip);
+    try {
+      int count = 0;
+      for (Enumeration<? extends ZipEntry> e = zf.entries(); e.hasMoreElements();) {
+        ZipEntry entry = e.nextElement();
+        count++;
+        if (entry.isDirectory())
+          continue;
+        ArchivePlan.Entry planned = plan.getEntry(entry.getName());
+        assertNotNull(entry.getName(), planned);
+        assertTrue(entry.getName(), Arrays.equals(read(planned.getSource()), read(zf.getInputStream(entry))));
+      }
+      assertEquals(plan.size(), count);
+      assertNotNull(zf.getEntry("empty/"));
+    }
+    finally {
+      zf.close();
+    }
+  }
+
+  public void testWriteWithinMemoryBudget() throws IOException {
+    Random random = new Random(7);
+    ArchivePlan plan = new ArchivePlan();
+    for (int i = 0; i < 12; i++) {
+      // Large compressible and incompressible entries, with small ones between them
+      byte[] content = new byte[i % 2 == 0 ? (1 << 21) + random.nextInt(1 << 16) : random.nextInt(1 << 12)];
+      for (int j = 0; j < content.length; j++)
+        content[j] = (byte) (i % 4 == 0 ? 'a' + random.nextInt(16) : random.nextInt());
+      File f = new File(work, "src" + i + ".bin");
+      write(f, content);
+      plan.addFile(f, "dir/file" + i + ".bin");
+    }
+
+    File zip = new File(work, "out.zip");
+    ParallelZipWriter writer = new ParallelZipWriter(4, null);
+    writer.setMemoryBudget(1 << 16);
+    writer.setSourceDate(0);
+    writer.write(plan, zip);
+    verify(plan, zip);
+
+    // Entries written ahead of their sizes are read back by the streaming reader too
+    ZipInputStream in = new ZipInputStream(new FileInputStream(zip));
+    try {
+      int count = 0;
+      for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+        count++;
+        if (!entry.isDirectory()) {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          FileUtils.copyInputStream(in, bytes);
+          assertTrue(entry.getName(), Arrays.equals(read(plan.getEntry(entry.getName()).getSource()), bytes.toByteArray()));
+        }
+      }
+      assertEquals(plan.size(), count);
+    }
+    finally {
+      in.close();
+    }
+
+    // However the work is scheduled, the archive is the same
+    byte[] first = read(zip);
+    writer = new ParallelZipWriter(1, null);
+    writer.setSourceDate(0);
+    writer.write(plan, zip);
+    assertTrue(Arrays.equals(first, read(zip)));
+  }
+
+  public void testDirectoryTimes() throws IOException {
+    long old = (System.currentTimeMillis() / 2000) * 2000 - 600000;
+    File older = new File(work, "older.txt");
+    write(older, "older".getBytes("UTF-8"));
+    older.setLastModified(old - 60000);
+    File newer = new File(work, "newer.txt");
+    write(newer, "newer".getBytes("UTF-8"));
+    newer.setLastModified(old);
+    ArchivePlan plan = new ArchivePlan();
+    plan.addFile(older, "a/older.txt");
+    plan.addFile(newer, "a/b/newer.txt");
+    plan.addDirectory("empty");
+
+    File zip = new File(work, "out.zip");
+    new ParallelZipWriter(2, null).write(plan, zip);
+    ZipFile zf = new ZipFile(zip);
+    try {
+      // Directories made up for the plan take the time of the newest entry within them
+      assertEquals(old, zf.getEntry("a/").getTime());
+      assertEquals(old, zf.getEntry("a/b/").getTime());
+      assertEquals(old, zf.getEntry("empty/").getTime());
+    }
+    finally {
+      zf.close();
+    }
+  }
+
+  public void testIncremental() throws IOException {
+    ArchivePlan plan = new ArchivePlan();
+    long old = System.currentTimeMillis() - 60000;
+    for (int i = 0; i < 10; i++) {
+      File f = new File(work, "src" + i + ".txt");
+      StringBuilder content = new StringBuilder("content of file " + i + " ");
+      // One entry large enough to be written ahead of its sizes
+      while (i == 5 && content.length() < (1 << 21))
+        content.append(content.length()).append(' ');
+      write(f, content.toString().getBytes("UTF-8"));
+      f.setLastModified(old);
+      plan.addFile(f, "dir/file" + i + ".txt");
+    }
+
+    File zip = new File(work, "out.zip");
+    ParallelZipWriter writer = new ParallelZipWriter(2, null);
+    writer.setPrevious(zip);
+    writer.write(plan, zip);
+    assertEquals(0, writer.getReusedEntries());
+
+    File changed = new File(work, "src3.txt");
+    write(changed, "changed".getBytes("UTF-8"));
+    writer.write(plan, zip);
+    assertEquals(9, writer.getReusedEntries());
+
+    ZipFile zf = new ZipFile(zip);
+    try {
+      assertEquals(11, zf.size());
+      for (int i = 0; i < 10; i++) {
+        File src = new File(work, "src" + i + ".txt");
+        assertTrue(Arrays.equals(read(src), read(zf.getInputStream(zf.getEntry("dir/file" + i + ".txt")))));
+      }
+    }
+    finally {
+      zf.close();
+    }
+  }
+
+  public void testIncrementalPolicyChange() throws IOException {
+    ArchivePlan plan = new ArchivePlan();
+    long old = System.currentTimeMillis() - 60000;
+    for (int i = 0; i < 10; i++) {
+      File f = new File(work, "src" + i + ".txt");
+      write(f, ("content of file " + i + " content of file " + i).getBytes("UTF-8"));
+      f.setLastModified(old);
+      plan.addFile(f, "dir/file" + i + ".txt");
+    }
+
+    File zip = new File(work, "out.zip");
+    ParallelZipWriter writer = new ParallelZipWriter(2, null);
+    writer.setPrevious(zip);
+    writer.write(plan, zip);
+    assertTrue(ParallelZipWriter.getPolicyFile(zip).isFile());
+
+    // Entries deflated before must now be stored: nothing may be copied
+    CompressionPolicy store = new CompressionPolicy();
+    store.setStore(Arrays.asList("**/*.txt"));
+    writer.setPolicy(store);
+    writer.write(plan, zip);
+    assertEquals(0, writer.getReusedEntries());
+    ZipFile zf = new ZipFile(zip);
+    try {
+      for (int i = 0; i < 10; i++)
+        assertEquals(ZipEntry.STORED, zf.getEntry("dir/file" + i + ".txt").getMethod());
+    }
+    finally {
+      zf.close();
+    }
+
+    writer.write(plan, zip);
+    assertEquals(10, writer.getReusedEntries());
+
+    // Nor when the previous archive was written without a record of its policy
+    ParallelZipWriter.getPolicyFile(zip).delete();
+    writer.write(plan, zip);
+    assertEquals(0, writer.getReusedEntries());
+  }
+
+  private static void verify(ArchivePlan plan, File zip) throws IOException {
+    ZipFile zf = new ZipFile(zip);
+    try {
+      int count = 0;
+      for (Enumeration<? extends ZipEntry> e = zf.entries(); e.hasMoreElements();) {
+        ZipEntry entry = e.nextElement();
+        count++;
+        if (!entry.isDirectory())
+          assertTrue(entry.getName(), Arrays.equals(read(plan.getEntry(entry.getName()).getSource()), read(zf.getInputStream(entry))));
+      }
+      assertEquals(plan.size(), count);
+    }
+    finally {
+      zf.close();
+    }
+  }
+
+  private static void write(File f, byte[] content) throws IOException {
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(content);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static byte[] read(File f) throws IOException {
+    return read(new FileInputStream(f));
+  }
+
+  private static byte[] read(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      FileUtils.copyInputStream(in, bytes);
+      return bytes.toByteArray();
+    }
+    finally {
+      in.close();
+    }
+  }
+}
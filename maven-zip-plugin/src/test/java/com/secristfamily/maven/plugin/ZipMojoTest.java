@@ -0,0 +1,325 @@
+package com.secristfamily.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.archiver.MavenArchiveConfiguration;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+
+public class ZipMojoTest extends TestCase {
+  private File work;
+
+  protected void setUp() throws Exception {
+    work = new File("target/test-work/" + getName());
+    if (work.exists())
+      FileUtils.deleteDirectory(work);
+    work.mkdirs();
+  }
+
+  /**
+   * Runs many executions at once, as a parallel reactor build does, into one output directory:
+   * each must get a workspace of its own and package only its own files.
+   */
+  public void testConcurrentExecutions() throws Exception {
+    final int executions = 12;
+    final File target = new File(work, "target");
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    final MavenProject[] projects = new MavenProject[executions];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < executions; i++) {
+      String name = "module" + i;
+      File conf = new File(work, name + "/conf");
+      conf.mkdirs();
+      for (int f = 0; f < 20; f++)
+        write(new File(conf, name + "-" + f + ".properties"), name + " " + f);
+
+      Model model = new Model();
+      model.setGroupId("com.example");
+      model.setArtifactId(name);
+      model.setVersion("1.0");
+      projects[i] = new MavenProject(model);
+      projects[i].setArtifact(new DefaultArtifact("com.example", name, VersionRange.createFromVersion("1.0"), "compile",
+          "zip", null, new DefaultArtifactHandler("zip")));
+
+      final ZipMojo mojo = new ZipMojo();
+      set(mojo, "project", projects[i]);
+      set(mojo, "outputDirectory", target);
+      set(mojo, "finalName", name + "-1.0");
+      set(mojo, "include", new File[] { conf });
+      threads.add(new Thread(new Runnable() {
+        public void run() {
+          try {
+            start.await();
+            mojo.execute();
+          }
+          catch (Throwable t) {
+            failures.add(t);
+          }
+        }
+      }));
+    }
+    for (Thread t : threads)
+      t.start();
+    start.countDown();
+    for (Thread t : threads)
+      t.join();
+    assertEquals(failures.toString(), 0, failures.size());
+
+    for (int i = 0; i < executions; i++) {
+      File zip = projects[i].getArtifact().getFile();
+      assertEquals(new File(target, "module" + i + "-1.0.zip"), zip);
+      ZipFile zf = new ZipFile(zip);
+      try {
+        assertEquals(21, zf.size());
+        for (int f = 0; f < 20; f++)
+          assertNotNull(zf.getEntry("conf/module" + i + "-" + f + ".properties"));
+      }
+      finally {
+        zf.close();
+      }
+    }
+    for (String name : target.list())
+      assertFalse("workspace " + name + " left behind", name.startsWith("temp"));
+  }
+
+  /**
+   * The digests are taken as the ZIP is written, and the sidecars attached beside it.
+   */
+  public void testChecksums() throws Exception {
+    File conf = new File(work, "conf");
+    conf.mkdirs();
+    for (int f = 0; f < 20; f++)
+      write(new File(conf, "app-" + f + ".properties"), "app " + f);
+    Model model = new Model();
+    model.setGroupId("com.example");
+    model.setArtifactId("app");
+    model.setVersion("1.0");
+    MavenProject project = new MavenProject(model);
+    project.setArtifact(new DefaultArtifact("com.example", "app", VersionRange.createFromVersion("1.0"), "compile",
+        "zip", null, new DefaultArtifactHandler("zip")));
+    final Map<String, File> attached = new TreeMap<String, File>();
+
+    ZipMojo mojo = new ZipMojo();
+    set(mojo, "project", project);
+    set(mojo, "projectHelper", new MavenProjectHelper() {
+      public void attachArtifact(MavenProject project, String type, String classifier, File file) {
+        attached.put(type + ":" + classifier, file);
+      }
+
+      public void attachArtifact(MavenProject project, String type, File file) {
+        attached.put(type, file);
+      }
+
+      public void attachArtifact(MavenProject project, File file, String classifier) {
+        throw new UnsupportedOperationException();
+      }
+
+      public void addResource(MavenProject project, String dir, List includes, List excludes) {
+        throw new UnsupportedOperationException();
+      }
+
+      public void addTestResource(MavenProject project, String dir, List includes, List excludes) {
+        throw new UnsupportedOperationException();
+      }
+    });
+    set(mojo, "outputDirectory", new File(work, "target"));
+    set(mojo, "finalName", "app-1.0");
+    set(mojo, "include", new File[] { conf });
+    set(mojo, "checksums", true);
+    mojo.execute();
+
+    File zip = project.getArtifact().getFile();
+    Checksums read = new Checksums();
+    read.digest(zip);
+    assertEquals(2, attached.size());
+    assertEquals(Checksums.sidecar(zip, "sha256"), attached.get("zip.sha256"));
+    assertEquals(Checksums.sidecar(zip, "sha512"), attached.get("zip.sha512"));
+    assertEquals(read.getSHA256() + "  app-1.0.zip\n", new String(Files.readAllBytes(attached.get("zip.sha256").toPath()), "US-ASCII"));
+    assertEquals(read.getSHA512() + "  app-1.0.zip\n", new String(Files.readAllBytes(attached.get("zip.sha512").toPath()), "US-ASCII"));
+  }
+
+  /**
+   * Changing the manifest of the primary artifact is a change of input: the ZIP is rebuilt.
+   */
+  public void testUpToDateCheckSeesArchiveConfiguration() throws Exception {
+    File conf = new File(work, "conf");
+    conf.mkdirs();
+    write(new File(conf, "app.properties"), "app");
+    Model model = new Model();
+    model.setGroupId("com.example");
+    model.setArtifactId("app");
+    model.setVersion("1.0");
+    MavenProject project = new MavenProject(model);
+    project.setArtifact(new DefaultArtifact("com.example", "app", VersionRange.createFromVersion("1.0"), "compile",
+        "zip", null, new DefaultArtifactHandler("zip")));
+    MavenArchiveConfiguration archive = new MavenArchiveConfiguration();
+    archive.getManifest().setMainClass("com.example.Main");
+    ZipMojo mojo = new ZipMojo();
+    set(mojo, "project", project);
+    set(mojo, "outputDirectory", new File(work, "target"));
+    set(mojo, "finalName", "app-1.0");
+    set(mojo, "include", new File[] { conf });
+    set(mojo, "upToDateCheck", true);
+    set(mojo, "archive", archive);
+    mojo.execute();
+    File zip = project.getArtifact().getFile();
+    zip.setLastModified(1000000000000L);
+
+    mojo.execute();
+    assertEquals("unchanged inputs rebuilt", 1000000000000L, zip.lastModified());
+
+    archive.getManifest().setMainClass("com.example.OtherMain");
+    mojo.execute();
+    assertTrue("changed main class not rebuilt", zip.lastModified() != 1000000000000L);
+  }
+
+  /**
+   * Merging local dependencies rewrites the primary artifact in place, but the build after that
+   * sees it as its module rebuilt it, before the merge: the ZIP is up to date.
+   */
+  public void testUpToDateCheckWithMerge() throws Exception {
+    File repo = new File(work, "repo");
+    repo.mkdirs();
+    File core = new File(repo, "core-1.0.jar");
+    JarOutputStream jar = new JarOutputStream(new FileOutputStream(core));
+    try {
+      jar.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+      jar.write("Manifest-Version: 1.0\r\nBuilt-By: core\r\n\r\n".getBytes("UTF-8"));
+      jar.putNextEntry(new ZipEntry("com/example/Core.class"));
+      jar.write("core".getBytes("UTF-8"));
+    }
+    finally {
+      jar.close();
+    }
+    byte[] built = Files.readAllBytes(core.toPath());
+    File lib = new File(repo, "lib-1.0.jar");
+    Files.copy(core.toPath(), lib.toPath());
+
+    Model model = new Model();
+    model.setGroupId("com.example");
+    model.setArtifactId("app");
+    model.setVersion("1.0");
+    Set<Artifact> artifacts = new HashSet<Artifact>();
+    for (File f : new File[] { core, lib }) {
+      String artifactId = f.getName().substring(0, f.getName().indexOf('-'));
+      Dependency d = new Dependency();
+      d.setGroupId("com.example");
+      d.setArtifactId(artifactId);
+      d.setVersion("1.0");
+      model.addDependency(d);
+      Artifact a = new DefaultArtifact("com.example", artifactId, VersionRange.createFromVersion("1.0"), "compile",
+          "jar", null, new DefaultArtifactHandler("jar"));
+      a.setFile(f);
+      artifacts.add(a);
+    }
+    MavenProject project = new MavenProject(model);
+    project.setArtifact(new DefaultArtifact("com.example", "app", VersionRange.createFromVersion("1.0"), "compile",
+        "zip", null, new DefaultArtifactHandler("zip")));
+    project.setArtifacts(artifacts);
+    ZipMojo mojo = new ZipMojo();
+    set(mojo, "project", project);
+    set(mojo, "outputDirectory", new File(work, "target"));
+    set(mojo, "finalName", "app-1.0");
+    set(mojo, "addDependencies", true);
+    set(mojo, "primaryArtifactId", "core");
+    set(mojo, "upToDateCheck", true);
+    set(mojo, "archive", new MavenArchiveConfiguration());
+    mojo.execute();
+    assertFalse("primary artifact not merged", Arrays.equals(built, Files.readAllBytes(core.toPath())));
+
+    // The core module builds its jar again, as it was
+    Files.write(core.toPath(), built);
+    File zip = project.getArtifact().getFile();
+    zip.setLastModified(1000000000000L);
+    mojo.execute();
+    assertEquals("unchanged inputs rebuilt", 1000000000000L, zip.lastModified());
+  }
+
+  /**
+   * The same files, checked out at different times, give the same ZIP byte for byte.
+   */
+  public void testReproducible() throws Exception {
+    File[] zips = new File[2];
+    for (int i = 0; i < zips.length; i++) {
+      File conf = new File(work, "checkout" + i + "/conf");
+      new File(conf, "sub").mkdirs();
+      // Created in a different order, at different times
+      for (int f = 0; f < 10; f++) {
+        int n = i == 0 ? f : 9 - f;
+        File file = new File(conf, (n % 2 == 0 ? "sub/" : "") + "app-" + n);
+        write(file, "app " + file.getName());
+        file.setLastModified(1400000000000L + i * 3600000L + f * 1000L);
+      }
+      new File(conf, "sub").setLastModified(1400000000000L + i * 86400000L);
+
+      Model model = new Model();
+      model.setGroupId("com.example");
+      model.setArtifactId("app");
+      model.setVersion("1.0");
+      MavenProject project = new MavenProject(model);
+      project.setArtifact(new DefaultArtifact("com.example", "app", VersionRange.createFromVersion("1.0"), "compile",
+          "zip", null, new DefaultArtifactHandler("zip")));
+      ZipMojo mojo = new ZipMojo();
+      set(mojo, "project", project);
+      set(mojo, "outputDirectory", new File(work, "target" + i));
+      set(mojo, "finalName", "app-1.0");
+      set(mojo, "include", new File[] { conf });
+      set(mojo, "outputTimestamp", "2017-07-14T02:40:00Z");
+      mojo.execute();
+      zips[i] = project.getArtifact().getFile();
+    }
+    assertTrue(Arrays.equals(Files.readAllBytes(zips[0].toPath()), Files.readAllBytes(zips[1].toPath())));
+    ZipFile zf = new ZipFile(zips[0]);
+    try {
+      // Written in UTC, which ZipFile takes to be local time
+      long local = zf.getEntry("conf/sub/app-0").getTime();
+      assertEquals(1500000000000L, local + TimeZone.getDefault().getOffset(local));
+    }
+    finally {
+      zf.close();
+    }
+  }
+
+  private static void set(Object mojo, String name, Object value) throws Exception {
+    Field f = mojo.getClass().getDeclaredField(name);
+    f.setAccessible(true);
+    f.set(mojo, value);
+  }
+
+  private static void write(File f, String content) throws IOException {
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+  }
+
+}